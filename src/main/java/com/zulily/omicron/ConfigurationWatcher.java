@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.zulily.omicron.conf.ConfigKey;
+import com.zulily.omicron.conf.Configuration;
+import com.zulily.omicron.crontab.Crontab;
+import com.zulily.omicron.scheduling.JobSetUpdate;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.zulily.omicron.Utils.error;
+import static com.zulily.omicron.Utils.info;
+import static com.zulily.omicron.Utils.warn;
+
+/**
+ * Watches the omicron config and the crontab for changes and reloads them on a background thread
+ * <p>
+ * Changes are picked up through a {@link WatchService} registered on the directories holding
+ * both files, so edits are noticed regardless of mtime granularity. Bursts of events are debounced
+ * into a single reload. If the watch service is unavailable, or misses an event (e.g. on a network
+ * filesystem), the file timestamps are still polled as a fallback.
+ * <p>
+ * Each reload is turned into a {@link JobSetUpdate} on the watcher thread as well, and the most
+ * recent one is held until the tick thread collects it with {@link #takeReload()}
+ */
+final class ConfigurationWatcher implements Runnable {
+  // How long the directories must stay quiet before a burst of events is acted on
+  private static final long DEBOUNCE_MILLIS = 250L;
+
+  // How often file timestamps are checked when no events arrive
+  private static final long FALLBACK_POLL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  private final AtomicReference<JobSetUpdate> pendingReload = new AtomicReference<>();
+  private final Map<Path, WatchKey> watchedDirectories = Maps.newHashMap();
+  private final WatchService watchService;
+  private final Thread thread;
+
+  // The most recently loaded files - only touched by the watcher thread after start()
+  private Configuration configuration;
+  private Crontab crontab;
+
+  ConfigurationWatcher(final Configuration configuration, final Crontab crontab) {
+    this.configuration = checkNotNull(configuration, "configuration");
+    this.crontab = checkNotNull(crontab, "crontab");
+
+    this.watchService = newWatchService();
+
+    this.thread = new Thread(this, "omicron-config-watcher");
+    this.thread.setDaemon(true);
+  }
+
+  void start() {
+    watchDirectories();
+    thread.start();
+  }
+
+  /**
+   * Collects the jobs built from the latest reloaded configuration and crontab, if any
+   *
+   * @return The pending update, or null if nothing changed since the last call
+   */
+  JobSetUpdate takeReload() {
+    return pendingReload.getAndSet(null);
+  }
+
+  @Override
+  public void run() {
+
+    //noinspection InfiniteLoopStatement
+    while (true) {
+
+      try {
+
+        if (awaitChange() || filesUpdated()) {
+          reload();
+        }
+
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception e) {
+        // Keep the current configuration and try again on the next change
+        error("Failed to reload configuration or crontab\n{0}", Throwables.getStackTraceAsString(e));
+      }
+    }
+  }
+
+  /**
+   * Blocks until either a watched file changes or the fallback poll interval passes
+   *
+   * @return true if a watch event was seen for the config or crontab
+   * @throws InterruptedException If the watcher thread is interrupted
+   */
+  private boolean awaitChange() throws InterruptedException {
+    if (watchService == null) {
+      Thread.sleep(FALLBACK_POLL_MILLIS);
+      return false;
+    }
+
+    WatchKey watchKey = watchService.poll(FALLBACK_POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+    boolean changed = false;
+
+    // Drain events until the directories have been quiet for the debounce period
+    while (watchKey != null) {
+      changed |= isRelevant(watchKey);
+
+      watchKey = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    return changed;
+  }
+
+  private boolean isRelevant(final WatchKey watchKey) {
+    final Path directory = (Path) watchKey.watchable();
+    final ImmutableSet<Path> watchedFiles = watchedFiles();
+
+    boolean relevant = false;
+
+    for (final WatchEvent<?> event : watchKey.pollEvents()) {
+
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        relevant = true;
+      } else if (watchedFiles.contains(directory.resolve((Path) event.context()))) {
+        relevant = true;
+      }
+    }
+
+    watchKey.reset();
+
+    return relevant;
+  }
+
+  private boolean filesUpdated() {
+    return
+      Utils.getTimestampFromPath(configuration.getConfigFilePath()) > configuration.getConfigurationTimestamp()
+        ||
+        Utils.getTimestampFromPath(configuration.getString(ConfigKey.CrontabPath)) > crontab.getCrontabTimestamp();
+  }
+
+  private void reload() {
+    info("Either configuration or crontab updated. Reloading task configurations.");
+
+    final Configuration reloadedConfiguration = configuration.reload();
+    final Crontab reloadedCrontab = new Crontab(reloadedConfiguration);
+
+    this.configuration = reloadedConfiguration;
+    this.crontab = reloadedCrontab;
+
+    // Building the jobs here keeps the parsing and schedule compilation off the tick thread
+    pendingReload.set(new JobSetUpdate(reloadedConfiguration, reloadedCrontab));
+
+    // crontab.path may have moved
+    watchDirectories();
+  }
+
+  private ImmutableSet<Path> watchedFiles() {
+    return ImmutableSet.of(
+      toAbsolutePath(configuration.getConfigFilePath()),
+      toAbsolutePath(configuration.getString(ConfigKey.CrontabPath))
+    );
+  }
+
+  private void watchDirectories() {
+    if (watchService == null) {
+      return;
+    }
+
+    final ImmutableSet.Builder<Path> directories = ImmutableSet.builder();
+
+    for (final Path file : watchedFiles()) {
+      if (file.getParent() != null) {
+        directories.add(file.getParent());
+      }
+    }
+
+    final ImmutableSet<Path> wanted = directories.build();
+
+    final Iterator<Map.Entry<Path, WatchKey>> watched = watchedDirectories.entrySet().iterator();
+
+    while (watched.hasNext()) {
+      final Map.Entry<Path, WatchKey> entry = watched.next();
+
+      if (!wanted.contains(entry.getKey())) {
+        entry.getValue().cancel();
+        watched.remove();
+      }
+    }
+
+    for (final Path directory : wanted) {
+
+      if (watchedDirectories.containsKey(directory)) {
+        continue;
+      }
+
+      try {
+
+        watchedDirectories.put(directory, directory.register(
+          watchService,
+          StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY,
+          StandardWatchEventKinds.ENTRY_DELETE));
+
+      } catch (IOException e) {
+        warn("Cannot watch {0} for changes, falling back to polling: {1}", directory.toString(), e.getMessage());
+      }
+    }
+  }
+
+  private static Path toAbsolutePath(final String path) {
+    return Paths.get(path.trim()).toAbsolutePath().normalize();
+  }
+
+  private static WatchService newWatchService() {
+    try {
+      return FileSystems.getDefault().newWatchService();
+    } catch (IOException | UnsupportedOperationException e) {
+      warn("File watching unavailable, falling back to polling: {0}", e.getMessage());
+      return null;
+    }
+  }
+}
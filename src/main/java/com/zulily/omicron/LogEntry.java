@@ -18,7 +18,6 @@ package com.zulily.omicron;
 
 import com.google.common.collect.ComparisonChain;
 
-import java.time.Clock;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -33,14 +32,6 @@ public abstract class LogEntry implements Comparable<LogEntry> {
   private final long timestamp;
   private final long entryId = ENTRY_IDS.incrementAndGet();
 
-  /**
-   * Constructor - assumes DateTime.now() as the timestamp
-   * of the entry
-   */
-  public LogEntry() {
-    this.timestamp = Clock.systemUTC().millis();
-  }
-
   /**
    * Constructor
    *
@@ -16,25 +16,38 @@
 package com.zulily.omicron;
 
 import com.google.common.base.Throwables;
-import com.zulily.omicron.conf.ConfigKey;
 import com.zulily.omicron.conf.Configuration;
 import com.zulily.omicron.crontab.Crontab;
+import com.zulily.omicron.scheduling.ExecBenchmark;
 import com.zulily.omicron.scheduling.JobManager;
+import com.zulily.omicron.scheduling.JobSetUpdate;
+import com.zulily.omicron.scheduling.ScheduleForecast;
+import com.zulily.omicron.scheduling.Simulation;
 
+import java.nio.file.Paths;
 import java.time.Clock;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoField;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
-import static com.google.common.base.Preconditions.checkNotNull;
 import static com.zulily.omicron.Utils.error;
-import static com.zulily.omicron.Utils.info;
 import static com.zulily.omicron.Utils.warn;
 
 public final class Main {
 
   private static final String DEFAULT_CONFIG_PATH = "/etc/omicron/omicron.conf";
   private static final String DEFAULT_LOG_FORMAT = "[%1$tc] %4$s: %5$s %n";
+  private static final String FORECAST_OPTION = "--forecast";
+  private static final String SIMULATE_OPTION = "--simulate";
+  private static final String BENCHMARK_EXEC_OPTION = "--benchmark-exec";
+  private static final String HISTORY_OPTION = "--history";
+  private static final String USER_OPTION = "--user";
+
+  // How far ahead of each minute boundary to apply crontab/conf changes
+  private static final long RELOAD_LEAD_MILLIS = TimeUnit.SECONDS.toMillis(5);
 
   public static void main(final String[] args) {
 
@@ -48,58 +61,57 @@ public final class Main {
     // [Tue Dec 16 10:29:07 PST 2014] INFO: <message>
     System.setProperty("java.util.logging.SimpleFormatter.format", DEFAULT_LOG_FORMAT);
 
+    if (args.length > 0 && (FORECAST_OPTION.equals(args[0]) || SIMULATE_OPTION.equals(args[0]) || BENCHMARK_EXEC_OPTION.equals(args[0]))) {
+      System.exit(runOffline(args));
+    }
+
     try {
 
-      Configuration configuration = new Configuration(args.length > 0 ? args[0].trim() : DEFAULT_CONFIG_PATH);
+      final Configuration configuration = new Configuration(args.length > 0 ? args[0].trim() : DEFAULT_CONFIG_PATH);
 
-      Crontab crontab = new Crontab(configuration);
+      final Crontab crontab = new Crontab(configuration);
 
       final JobManager jobManager = new JobManager(configuration, crontab);
 
+      // Reloads and job building happen on the watcher thread - the loop below only swaps them in
+      final ConfigurationWatcher configurationWatcher = new ConfigurationWatcher(configuration, crontab);
+
+      configurationWatcher.start();
+
       // The minute logic is intended to stay calibrated
       // with the current calendar minute.
       // Scheduled jobs should run as close to second-of-minute == 0 as possible
       // while minimizing acquired execution drift over time, or possible hangups
       // from scheduling to the "next calendar time of hh:mm:ss" considering DST or leap-seconds, etc.
+      //
+      // Rather than polling, the loop parks twice a minute: once shortly before the boundary
+      // to apply any crontab/conf changes, and once until the boundary itself
+
+      // Reloaded configurations carry the same time source
+      final Clock clock = configuration.getClock();
 
-      long targetExecuteMinute = getTargetMinuteMillisFromNow(1);
+      long targetExecuteMinute = getTargetMinuteMillisFromNow(clock, 1);
 
       // We're going to loop forever until the process is killed explicitly - please stop the warnings
       //noinspection InfiniteLoopStatement
       while (true) {
 
-        long currentExecuteMinute = getTargetMinuteMillisFromNow(0);
-
-        // We want to trigger tasks when the execute minute comes up or is past-due
-        // so we use < instead of == to set it off "fuzzily."
-        // Until then watch for crontab/conf changes or sleep
-        while (currentExecuteMinute < targetExecuteMinute) {
+        // The jobs are already built on the watcher thread, but diffing them against a large
+        // job set still takes a moment, so it happens ahead of the boundary
+        parkUntil(clock, targetExecuteMinute - RELOAD_LEAD_MILLIS);
 
-          if (configurationUpdated(crontab, configuration)) {
+        final JobSetUpdate jobSetUpdate = configurationWatcher.takeReload();
 
-            info("Either configuration or crontab updated. Reloading task configurations.");
-
-            configuration = configuration.reload();
-            crontab = new Crontab(configuration);
-
-            jobManager.updateConfiguration(configuration, crontab);
-          }
-
-          try {
-
-            Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+        if (jobSetUpdate != null) {
+          jobManager.updateConfiguration(jobSetUpdate);
+        }
 
-          } catch (InterruptedException e) {
-            throw Throwables.propagate(e);
-          }
+        parkUntil(clock, targetExecuteMinute);
 
-          currentExecuteMinute = getTargetMinuteMillisFromNow(0);
+        final long currentExecuteMinute = getTargetMinuteMillisFromNow(clock, 0);
 
-        }
-
-        // Due to drift, initial start time, or due to the length of
-        // time it takes to read crontab/config changes,
-        // we may actually pass a target calendar minute without evaluation
+        // A reload or a previous evaluation that runs long, or a system clock
+        // step, can still carry us past a target calendar minute without evaluation
         // of the scheduled task list
         //
         // The current implementation of crond never evaluates the current minute
@@ -110,7 +122,7 @@ public final class Main {
         }
 
         // Set for re-evaluation in the next calendar minute
-        targetExecuteMinute = getTargetMinuteMillisFromNow(1);
+        targetExecuteMinute = currentExecuteMinute + TimeUnit.MINUTES.toMillis(1);
 
         jobManager.run();
       }
@@ -124,9 +136,72 @@ public final class Main {
     System.exit(0);
   }
 
-  private static long getTargetMinuteMillisFromNow(final int minuteIncrement) {
+  /**
+   * Prints a forecast of the launches the crontab will make, or the results of a simulated run
+   * of the scheduler, without running anything - or benchmarks the task launch strategies
+   * <p>
+   * Arguments: --forecast|--simulate &lt;days&gt; [--history &lt;omicron log&gt;] [omicron config path]
+   * or --benchmark-exec &lt;launches&gt; [--user &lt;user&gt;] [omicron config path]
+   *
+   * @param args The command line arguments
+   * @return The exit code
+   */
+  private static int runOffline(final String[] args) {
+    try {
+
+      if (args.length < 2) {
+        printHelp();
+        return 1;
+      }
+
+      // Days, or launches per strategy for the benchmark
+      final int count = Integer.parseInt(args[1].trim());
+
+      int index = 2;
+
+      Map<String, Long> durations = Collections.emptyMap();
+      String user = System.getProperty("user.name");
+
+      while (args.length > index + 1 && (HISTORY_OPTION.equals(args[index]) || USER_OPTION.equals(args[index]))) {
+
+        if (HISTORY_OPTION.equals(args[index])) {
+          durations = ScheduleForecast.readDurations(Paths.get(args[index + 1].trim()));
+        } else {
+          user = args[index + 1].trim();
+        }
+
+        index += 2;
+      }
+
+      final String configFilePath = args.length > index ? args[index].trim() : DEFAULT_CONFIG_PATH;
+
+      if (BENCHMARK_EXEC_OPTION.equals(args[0])) {
+        System.out.print(ExecBenchmark.run(new Configuration(configFilePath), user, count).report());
+        return 0;
+      }
+
+      if (SIMULATE_OPTION.equals(args[0])) {
+        System.out.print(Simulation.simulate(configFilePath, count, durations).report());
+        return 0;
+      }
+
+      final Configuration configuration = new Configuration(configFilePath);
+
+      final Crontab crontab = new Crontab(configuration);
+
+      System.out.print(ScheduleForecast.forecast(configuration, crontab, count, durations).report());
+
+      return 0;
+
+    } catch (Exception e) {
+      error("{0} failed:\n{1}\n", args[0], Throwables.getStackTraceAsString(e));
+      return 1;
+    }
+  }
+
+  private static long getTargetMinuteMillisFromNow(final Clock clock, final int minuteIncrement) {
     return ZonedDateTime
-      .now(Clock.systemUTC())
+      .now(clock)
       .with(ChronoField.SECOND_OF_MINUTE, 0)
       .with(ChronoField.MILLI_OF_SECOND, 0)
       .plusMinutes(minuteIncrement)
@@ -134,19 +209,43 @@ public final class Main {
       .toEpochMilli();
   }
 
+  /**
+   * Parks the calling thread until the wall clock reaches the given epoch millisecond
+   * <p>
+   * The remaining time is re-read after every wakeup, so spurious wakeups and
+   * clock adjustments while parked are absorbed
+   *
+   * @param clock          The clock to read the time from
+   * @param deadlineMillis The epoch millisecond to wake at
+   */
+  private static void parkUntil(final Clock clock, final long deadlineMillis) {
+    long remainingMillis = deadlineMillis - clock.millis();
+
+    while (remainingMillis > 0) {
+
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(remainingMillis));
+
+      if (Thread.interrupted()) {
+        throw Throwables.propagate(new InterruptedException());
+      }
+
+      remainingMillis = deadlineMillis - clock.millis();
+    }
+  }
+
   private static void printHelp() {
     System.out.println("OMICRON - A drop-in replacement for vanilla cron on most unix systems");
     System.out.println("usage: java -jar omicron.jar <omicron config path: defaults to /etc/omicron/omicron.conf>");
+    System.out.println("       java -jar omicron.jar --forecast <days> [--history <omicron log>] [omicron config path]");
+    System.out.println("         prints the launches the crontab will make per minute over the coming days, peak concurrency");
+    System.out.println("         estimated from the task durations in an omicron log, and the lines that collide most");
+    System.out.println("       java -jar omicron.jar --simulate <days> [--history <omicron log>] [omicron config path]");
+    System.out.println("         runs the scheduler over the coming days on a simulated clock without starting processes, and");
+    System.out.println("         prints launches, skips, SLA alerts and tick latency - tasks take their durations from the omicron log");
+    System.out.println("       java -jar omicron.jar --benchmark-exec <launches> [--user <user>] [omicron config path]");
+    System.out.println("         launches 'true' through every task.launch.strategy as the user (omicron's own by default), and");
+    System.out.println("         prints the launch latency of each, and the CPU time per launch of omicron and the processes it");
+    System.out.println("         started, read from /proc/self/stat");
     System.out.println("Pass '?' as a parameter prints this message");
   }
-
-  private static boolean configurationUpdated(final Crontab crontab, final Configuration configuration) {
-    checkNotNull(configuration, "configuration");
-    checkNotNull(crontab, "crontab");
-
-    return
-      Utils.getTimestampFromPath(configuration.getConfigFilePath()) > configuration.getConfigurationTimestamp()
-        ||
-        Utils.getTimestampFromPath(configuration.getString(ConfigKey.CrontabPath)) > crontab.getCrontabTimestamp();
-  }
 }
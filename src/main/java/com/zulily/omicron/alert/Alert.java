@@ -18,8 +18,6 @@ package com.zulily.omicron.alert;
 import com.google.common.collect.ComparisonChain;
 import com.zulily.omicron.scheduling.Job;
 
-import java.time.Clock;
-
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -35,7 +33,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public final class Alert implements Comparable<Alert> {
 
   private final AlertStatus alertStatus;
-  private final long createTimestamp = Clock.systemUTC().millis();
+  private final long createTimestamp;
   private final String message;
   private final Job job;
 
@@ -54,7 +52,9 @@ public final class Alert implements Comparable<Alert> {
 
     this.message = checkNotNull(message, "message");
 
-    this.job = job;
+    this.job = checkNotNull(job, "job");
+
+    this.createTimestamp = job.getConfiguration().getClock().millis();
 
     this.alertStatus = alertStatus;
 
@@ -29,12 +29,14 @@ public class AlertLogEntry extends LogEntry {
   /**
    * Constructor
    *
-   * @param jobId  The id of the job the alert is for
-   * @param status The state of the alert
+   * @param jobId     The id of the job the alert is for
+   * @param status    The state of the alert
+   * @param timestamp When the alert was raised
    */
   public AlertLogEntry(final long jobId,
-                       final AlertStatus status) {
-    super();
+                       final AlertStatus status,
+                       final long timestamp) {
+    super(timestamp);
     this.status = status;
     this.jobId = jobId;
   }
@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.zulily.omicron.Utils.error;
@@ -51,6 +52,8 @@ public final class AlertManager {
     (Policy) new MalformedExpression(),
     (Policy) new CommentedExpression());
 
+  private final Consumer<List<Alert>> alertSink;
+
   // Email sender can be updated by a live config change, while the pending policy lists won't change
   private EmailSender email;
 
@@ -62,6 +65,22 @@ public final class AlertManager {
   public AlertManager(final Configuration configuration) {
     checkNotNull(configuration, "email");
 
+    this.alertSink = alerts -> this.threadPool.submit(new SendEmailRunnable(alerts, this.email));
+
+    updateConfiguration(configuration);
+  }
+
+  /**
+   * Constructor for evaluating alerts without emailing them
+   *
+   * @param configuration The loaded global configuration
+   * @param alertSink     Receives each group of alerts in place of an email
+   */
+  public AlertManager(final Configuration configuration, final Consumer<List<Alert>> alertSink) {
+    checkNotNull(configuration, "email");
+
+    this.alertSink = checkNotNull(alertSink, "alertSink");
+
     updateConfiguration(configuration);
   }
 
@@ -102,7 +121,7 @@ public final class AlertManager {
     }
 
     if (!alertsToSend.isEmpty()) {
-      this.threadPool.submit(new SendEmailRunnable(alertsToSend, this.email));
+      this.alertSink.accept(alertsToSend);
     }
 
   }
@@ -27,6 +27,7 @@ public enum ConfigKey {
 
   CrontabPath("crontab.path", "/etc/crontab", false),
   TimeZone("timezone", "UTC", false),
+  SchedulerMode("scheduler.mode", "scan", false), // How due tasks are found each minute: scan, queue or index
 
   // Since email output is grouped into a single message, the email config cannot currently be overridden (Issue #14)
   AlertEmailEnabled("alert.email.enabled", "false", true),
@@ -41,13 +42,32 @@ public enum ConfigKey {
   TaskMaxInstanceCount("task.max.instance.count", "1", true),
   TaskCriticalReturnCode("task.critical.return.code", "100", true), // expected to be between 0 and 255 according to bash man pages
   TaskTimeoutMinutes("task.timeout.minutes", "-1", true), // The number of minutes to wait before omicron will kill a task: -1 disables this feature
+  TaskTimeoutSeconds("task.timeout.seconds", "-1", true), // Sub-minute alternative to task.timeout.minutes, and takes precedence over it: -1 disables this feature
+  TaskKillGraceSeconds("task.kill.grace.seconds", "10", true), // How long a timed out task has to exit after SIGTERM before it gets SIGKILL
+  TaskExecutionMode("task.execution.mode", "platform", false), // What runs task launches and waits: platform or virtual threads
+  TaskLaunchStrategy("task.launch.strategy", "su", true), // How commands are started as their user: su, su-nologin, runuser, setpriv, direct or helper
+  TaskMaxConcurrent("task.max.concurrent", "-1", false), // The most task processes running at once across all jobs, extra launches are queued: -1 disables this feature
+  TaskMaxLaunchRate("task.max.launch.rate", "-1", false), // The most tasks started per second across all jobs, extra launches are queued: -1 disables this feature
+  TaskDeferrable("task.deferrable", "false", true), // Whether launches may be held back while the host is under pressure
+  TaskDeferMaxMinutes("task.defer.max.minutes", "60", true), // The longest a deferrable launch is held back: -1 holds it until the pressure drops
+  PressureCpuMax("pressure.cpu.max", "-1", false), // CPU pressure (PSI some avg10 percent) above which deferrable launches are held back: -1 disables this feature
+  PressureMemoryMax("pressure.memory.max", "-1", false), // Memory pressure (PSI some avg10 percent) above which deferrable launches are held back: -1 disables this feature
+  PressureLoadMax("pressure.load.max", "-1", false), // 1 minute load average above which deferrable launches are held back: -1 disables this feature
+  TaskCgroupRoot("task.cgroup.root", "", false), // cgroup v2 directory to create a cgroup per task under: empty disables this feature
+  TaskMemoryMaxMegabytes("task.memory.max.mb", "-1", true), // Memory limit for a task running in a cgroup: -1 disables this feature
+  TaskCpuMaxPercent("task.cpu.max.percent", "-1", true), // Share of one CPU a task running in a cgroup may use: -1 disables this feature
+  TaskOutputDirectory("task.output.dir", "", false), // Directory to capture task stdout and stderr in, one file per crontab line: empty inherits omicron's streams
+  TaskOutputMaxKilobytes("task.output.max.kb", "1024", true), // Size at which a task output file is rotated: -1 disables rotation
+  TaskOutputFileCount("task.output.files", "5", true), // The number of rotated task output files to keep
+  TaskJavaClasspath("task.java.classpath", "", false), // Directory of classes and jars that java: commands run from inside omicron: empty disables this feature
 
   SLAMinutesSinceSuccess("sla.minutes.since.success", "60", true),
   SLACommentedExpressionAlertDelayMinutes("sla.commented.expression.alert.delay.minutes", "-1", true),
   SLAMalformedExpressionAlertDelayMinutes("sla.malformed.expression.alert.delay.minutes", "-1", true),
 
-  CommandKill("command.path.kill", "/usr/bin/kill", false),
   CommandSu("command.path.su", "/usr/bin/su", false),
+  CommandRunuser("command.path.runuser", "/usr/sbin/runuser", false),
+  CommandSetpriv("command.path.setpriv", "/usr/bin/setpriv", false),
 
   Unknown("", "", false);
 
@@ -52,6 +52,7 @@ public class Configuration {
   private final ImmutableMap<ConfigKey, String> rawConfigMap;
   private final long configurationTimestamp;
   private final String configFilePath;
+  private final Clock clock;
 
 
   /**
@@ -60,11 +61,23 @@ public class Configuration {
    * @param configFilePath The config file to read from
    */
   public Configuration(final String configFilePath) {
+    this(configFilePath, Clock.systemUTC());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param configFilePath The config file to read from
+   * @param clock          The time source for everything scheduled under this configuration -
+   *                       carried over to reloads and overrides
+   */
+  public Configuration(final String configFilePath, final Clock clock) {
 
     this(
       loadConfig(configFilePath),
       Utils.getTimestampFromPath(configFilePath),
-      configFilePath);
+      configFilePath,
+      clock);
 
     this.printConfig();
   }
@@ -73,11 +86,13 @@ public class Configuration {
 
     final ImmutableMap<ConfigKey, String> rawConfigMap,
     final long configurationTimestamp,
-    final String configFilePath) {
+    final String configFilePath,
+    final Clock clock) {
 
     this.rawConfigMap = checkNotNull(rawConfigMap, "rawComfigMap");
     this.configurationTimestamp = configurationTimestamp;
     this.configFilePath = checkNotNull(configFilePath, "configFilePath");
+    this.clock = checkNotNull(clock, "clock");
   }
 
   /**
@@ -98,7 +113,8 @@ public class Configuration {
     return new Configuration(
       ImmutableMap.copyOf(result),
       this.getConfigurationTimestamp(),
-      this.configFilePath);
+      this.configFilePath,
+      this.clock);
   }
 
   private void printConfig() {
@@ -228,7 +244,7 @@ public class Configuration {
    * @return a new instance with recent config values
    */
   public Configuration reload() {
-    return new Configuration(this.configFilePath);
+    return new Configuration(this.configFilePath, this.clock);
   }
 
   /**
@@ -253,8 +269,11 @@ public class Configuration {
     return ZoneId.of(getString(ConfigKey.TimeZone));
   }
 
-  public Clock getClock(){
-    return Clock.system(getZoneId());
+  /**
+   * @return The time source to schedule and time stamp by, in the configured timezone
+   */
+  public Clock getClock() {
+    return clock.withZone(getZoneId());
   }
 
   @Override
@@ -23,22 +23,24 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.io.Files;
 import com.zulily.omicron.Utils;
 import com.zulily.omicron.conf.ConfigKey;
 import com.zulily.omicron.conf.Configuration;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
-import static com.zulily.omicron.Utils.COMMA_JOINER;
 import static com.zulily.omicron.Utils.error;
 import static com.zulily.omicron.Utils.info;
 import static com.zulily.omicron.Utils.warn;
@@ -55,6 +57,7 @@ public final class Crontab {
 
   private final ImmutableSet<CrontabExpression> crontabExpressions;
   private final ImmutableList<CronVariable> variableList;
+  private final VariableSubstitution variableSubstitution;
   private final ImmutableMap<Integer, Configuration> configurationOverrides;
   private final int badRowCount;
   private final long crontabTimestamp;
@@ -77,88 +80,138 @@ public final class Crontab {
     final HashSet<CrontabExpression> results = Sets.newHashSet();
 
     int bad = 0;
+    int comments = 0;
 
     this.crontabTimestamp = crontabFile.lastModified();
 
-    try {
-      int lineNumber = 0;
+    final long parseStartMs = Clock.systemUTC().millis();
 
-      final ImmutableList<String> lines = Files.asCharSource(crontabFile, Charset.defaultCharset()).readLines();
+    // Read time of every line, for the commented and malformed expression SLAs
+    final long readTimestamp = configuration.getClock().millis();
 
-      ImmutableMap<ConfigKey, String> overrideMap = null;
+    final List<String> lines = readLines(crontabFile);
 
-      for (final String line : lines) {
-        lineNumber++;
+    // Expressions don't depend on each other, so the parsing fans out over the fork/join pool
+    // Each line index is written by exactly one task, and is read only after the stream completes
+    final CronVariable[] parsedVariables = new CronVariable[lines.size()];
+    final CrontabExpression[] parsedExpressions = new CrontabExpression[lines.size()];
+    final Exception[] parseFailures = new Exception[lines.size()];
 
-        final String trimmed = line.trim();
+    IntStream.range(0, lines.size()).parallel().forEach(index -> {
 
-        if (trimmed.isEmpty()) {
-          continue;
-        }
+      final String line = lines.get(index);
+      final String trimmed = line.trim();
 
-        if (line.startsWith(OVERRIDE_KEYWORD)) {
-
-          overrideMap = getOverrideConfiguration(line);
+      if (trimmed.isEmpty() || line.startsWith(OVERRIDE_KEYWORD)) {
+        return;
+      }
 
-          continue;
-        }
+      parsedVariables[index] = getVariable(trimmed);
 
-        // If it's a variable assignment, save it in the map
-        // and skip to the next row
-        final CronVariable cronVariable = getVariable(trimmed);
+      if (parsedVariables[index] != null) {
+        return;
+      }
 
-        if (cronVariable != null) {
-          info("[Line: {0}] Found variable definition: {1} -> {2}", String.valueOf(lineNumber), cronVariable.getName(), cronVariable.getValue());
-          cronVariables.add(cronVariable);
-          continue;
-        }
+      try {
+        parsedExpressions[index] = new CrontabExpression(index + 1, trimmed, readTimestamp);
+      } catch (Exception e) {
+        parseFailures[index] = e;
+      }
+    });
 
-        try {
+    // Overrides and variables depend on the order of the rows, so they're associated in a single ordered pass
+    ImmutableMap<ConfigKey, String> overrideMap = null;
 
-          final CrontabExpression crontabExpression = new CrontabExpression(lineNumber, trimmed);
+    for (int index = 0; index < lines.size(); index++) {
+      final int lineNumber = index + 1;
 
-          if (crontabExpression.isCommented() && crontabExpression.isMalformed()) {
-            info("[Line: {0}] Skipping general comment: {1}", String.valueOf(lineNumber), line);
-            continue;
-          }
+      final String line = lines.get(index);
 
-          // crontabExpression.isCommented() || crontabExpression.isMalformed() || normal expression
-          // Commented rows that successfully parse as expressions are loaded anyways, to
-          // allow for alerting of "forgotten" disabled tasks
-          // Likewise, uncommented but malformed rows are also loaded so that malformed
-          // alerting can be done on them
+      if (line.startsWith(OVERRIDE_KEYWORD)) {
 
-          results.add(crontabExpression);
+        overrideMap = getOverrideConfiguration(line);
 
-          // The previous non-blank/commented line is an unassociated override map. Associate with this row
-          if (overrideMap != null) {
+        continue;
+      }
 
-            info("[Line: {0}] Adding schedule with config overrides \"{1}\": {2}", String.valueOf(lineNumber), getOverrideMapString(overrideMap), crontabExpression.getCommand());
+      // If it's a variable assignment, save it in the map
+      // and skip to the next row
+      if (parsedVariables[index] != null) {
+        cronVariables.add(parsedVariables[index]);
+        continue;
+      }
 
-            rawOverrideMap.put(lineNumber, configuration.withOverrides(overrideMap));
+      if (parseFailures[index] != null) {
+        bad++;
+        error("[Line: {0}] Failed to read crontab entry: {1}\n{2}", String.valueOf(lineNumber), line.trim(), Throwables.getStackTraceAsString(parseFailures[index]));
+        continue;
+      }
 
-            overrideMap = null;
-          } else {
-            info("[Line: {0}] Adding schedule: {1}", String.valueOf(lineNumber), crontabExpression.getCommand());
-          }
+      final CrontabExpression crontabExpression = parsedExpressions[index];
 
-        } catch (Exception e) {
-          bad++;
-          error("[Line: {0}] Failed to read crontab entry: {1}\n{2}", String.valueOf(lineNumber), trimmed, Throwables.getStackTraceAsString(e));
-        }
+      // Blank row
+      if (crontabExpression == null) {
+        continue;
+      }
 
+      if (crontabExpression.isCommented() && crontabExpression.isMalformed()) {
+        // General comment
+        comments++;
+        continue;
       }
 
-    } catch (IOException e) {
-      throw Throwables.propagate(e);
+      // crontabExpression.isCommented() || crontabExpression.isMalformed() || normal expression
+      // Commented rows that successfully parse as expressions are loaded anyways, to
+      // allow for alerting of "forgotten" disabled tasks
+      // Likewise, uncommented but malformed rows are also loaded so that malformed
+      // alerting can be done on them
+
+      results.add(crontabExpression);
+
+      // The previous non-blank/commented line is an unassociated override map. Associate with this row
+      if (overrideMap != null) {
+
+        rawOverrideMap.put(lineNumber, configuration.withOverrides(overrideMap));
+
+        overrideMap = null;
+      }
     }
 
+    info("Read {0} lines from {1} in {2} ms: {3} schedules, {4} with config overrides, {5} variables, {6} comments, {7} bad rows",
+      String.valueOf(lines.size()),
+      crontabFile.getAbsolutePath(),
+      String.valueOf(Clock.systemUTC().millis() - parseStartMs),
+      String.valueOf(results.size()),
+      String.valueOf(rawOverrideMap.size()),
+      String.valueOf(cronVariables.size()),
+      String.valueOf(comments),
+      String.valueOf(bad));
+
     this.badRowCount = bad;
     this.variableList = ImmutableList.copyOf(cronVariables);
+    this.variableSubstitution = new VariableSubstitution(this.variableList);
     this.crontabExpressions = ImmutableSet.copyOf(results);
     this.configurationOverrides = ImmutableMap.copyOf(rawOverrideMap);
   }
 
+  private static List<String> readLines(final File crontabFile) {
+    try (BufferedReader reader = Files.newBufferedReader(crontabFile.toPath(), Charset.defaultCharset())) {
+
+      final ArrayList<String> lines = Lists.newArrayList();
+
+      String line;
+
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+
+      return lines;
+
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
   private ImmutableMap<ConfigKey, String> getOverrideConfiguration(final String line) {
 
     // Override configuration line ->
@@ -265,18 +318,17 @@ public final class Crontab {
     return variableList;
   }
 
+  /**
+   * @return The variables defined in the crontab, ready to substitute into commands
+   */
+  public VariableSubstitution getVariableSubstitution() {
+    return variableSubstitution;
+  }
+
   /**
    * @return A map of Configuration overrides by the line number they are associated with
    */
   public ImmutableMap<Integer, Configuration> getConfigurationOverrides() {
     return configurationOverrides;
   }
-
-  private String getOverrideMapString(final ImmutableMap<ConfigKey, String> overrideMap) {
-    return COMMA_JOINER.join(overrideMap.entrySet()
-        .stream()
-        .map(entry -> entry.getKey().getRawName() + "->" + entry.getValue())
-        .collect(Collectors.toList())
-    );
-  }
 }
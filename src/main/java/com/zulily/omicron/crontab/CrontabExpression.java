@@ -18,18 +18,15 @@ package com.zulily.omicron.crontab;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ComparisonChain;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
-import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import com.zulily.omicron.Utils;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Clock;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.TreeSet;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -42,6 +39,9 @@ import static com.zulily.omicron.Utils.warn;
  * i.e.
  * 1-10/2 * * * * -> returns 1,3,5,7,9 day vals
  * <p>
+ * The run times are held as bitmasks (bit N set == value N whitelisted) so that
+ * {@link #createSchedule()} can hand them straight to {@link Schedule}
+ * <p>
  * # Example of job definition:
  * # .---------------- minute (0 - 59)
  * # |  .------------- hour (0 - 23)
@@ -51,6 +51,15 @@ import static com.zulily.omicron.Utils.warn;
  * # |  |  |  |  |
  * # *  *  *  *  * user-name  command to be executed
  * <p>
+ * HASHED VALUES
+ * H picks one value for the line from a hash of its user and command, so lines written as "H * * * *"
+ * spread over the hour instead of all starting at minute 0. The value never changes for the same user
+ * and command, and each part of the expression gets its own value:
+ * H          -> one value in the allowed range (1-28 for day of month, so every month has it)
+ * H(0-29)    -> one value in 0-29
+ * H/15       -> every 15th value, starting from a hashed offset below 15
+ * H(0-29)/10 -> every 10th value in 0-29, starting from a hashed offset
+ * <p>
  * NOTE ABOUT DAY OF WEEK
  * range specifications cannot span the end-of-week or end-of-year divide, i.e. "fri-tue"
  * but must be expressed as the equivalent lists of ranges: fri-sat,sun-tue
@@ -66,7 +75,8 @@ public final class CrontabExpression implements Comparable<CrontabExpression> {
   private final boolean malformed;
   private final long timestamp;
 
-  private final ImmutableMap<ExpressionPart, ImmutableSortedSet<Integer>> expressionRuntimes;
+  // Indexed by ExpressionPart ordinal - all zero when the expression is malformed
+  private final long[] expressionRuntimes = new long[ExpressionPart.ExecutingUser.ordinal()];
 
   /**
    * Constructor
@@ -75,16 +85,25 @@ public final class CrontabExpression implements Comparable<CrontabExpression> {
    * @param rawExpression the string value of the line as it appears in the crontab
    */
   public CrontabExpression(final int lineNumber, final String rawExpression) {
+    this(lineNumber, rawExpression, Clock.systemUTC().millis());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param lineNumber    the line number in the crontab
+   * @param rawExpression the string value of the line as it appears in the crontab
+   * @param timestamp     when the line was read
+   */
+  public CrontabExpression(final int lineNumber, final String rawExpression, final long timestamp) {
     checkNotNull(rawExpression, "rawExpression");
 
     checkArgument(lineNumber > 0, "lineNumber should be positive: %s", lineNumber);
 
-    this.timestamp = Clock.systemUTC().millis();
+    this.timestamp = timestamp;
 
     this.lineNumber = lineNumber;
 
-    final HashMap<ExpressionPart, ImmutableSortedSet<Integer>> runtimes = Maps.newHashMap();
-
     checkArgument(!rawExpression.trim().isEmpty(), "Empty expression");
 
     final String coalescedExpression = coalesceHashmarks(rawExpression.trim());
@@ -121,12 +140,20 @@ public final class CrontabExpression implements Comparable<CrontabExpression> {
           continue;
         }
 
-        runtimes.put(expressionPart, evaluateExpressionPart(expressionPart, expressionParts.get(expressionPart.ordinal())));
+        final String expression = expressionParts.get(expressionPart.ordinal());
+
+        // Hashing is only needed to resolve H, which few lines use - skip it for everything else
+        final int hash = expression.indexOf('H') < 0 ? 0 : hashFor(expressionPart, userString, commandString);
+
+        expressionRuntimes[expressionPart.ordinal()] = evaluateExpressionPart(expressionPart, expression, hash);
       }
 
       evaluationError = false;
 
     } catch (Exception e) {
+      // Do not leave a partially evaluated schedule behind
+      Arrays.fill(expressionRuntimes, 0L);
+
       if (!this.isCommented()) {
         warn("[Line: {0}] Interpretation error: {1}", String.valueOf(lineNumber), e.getMessage());
       }
@@ -135,19 +162,19 @@ public final class CrontabExpression implements Comparable<CrontabExpression> {
     this.malformed = evaluationError;
     this.executingUser = userString;
     this.command = commandString;
-    this.expressionRuntimes = ImmutableMap.copyOf(runtimes);
 
   }
 
   /**
    * Does the actual work of tearing apart the schedule expression and making them
-   * into numerical sets of runtime whitelists
+   * into numerical runtime whitelists
    *
    * @param expressionPart The current part we're working on
    * @param expression     The text expression to evaluate
-   * @return A set within the expression's possible execution range
+   * @param hash           A non-negative value to resolve H with, stable for the line
+   * @return A bitmask of the values within the expression's possible execution range
    */
-  private static ImmutableSortedSet<Integer> evaluateExpressionPart(final ExpressionPart expressionPart, final String expression) {
+  static long evaluateExpressionPart(final ExpressionPart expressionPart, final String expression, final int hash) {
     // Order of operations ->
     // 1) Split value by commas (lists) and for each csv.n:
     // 2) Split value by slashes (range/rangeStep)
@@ -159,7 +186,7 @@ public final class CrontabExpression implements Comparable<CrontabExpression> {
 
     final List<String> csvParts = Utils.COMMA_SPLITTER.splitToList(expression);
 
-    final TreeSet<Integer> results = Sets.newTreeSet();
+    long results = 0L;
 
     for (final String csvPart : csvParts) {
 
@@ -188,8 +215,23 @@ public final class CrontabExpression implements Comparable<CrontabExpression> {
       int rangeStart = allowedRange.lowerEndpoint();
       int rangeEnd = allowedRange.upperEndpoint();
 
-      // either * or 0 or 0-6, etc
-      if (!"*".equals(rangeExpression)) {
+      if (rangeExpression.startsWith("H")) {
+
+        final Range<Integer> hashRange = evaluateHashRange(expressionPart, rangeExpression, expression);
+
+        final int hashRangeSize = hashRange.upperEndpoint() - hashRange.lowerEndpoint() + 1;
+
+        if (slashParts.size() == 2) {
+          // Every rangeStep values from a hashed offset to the end of the range
+          rangeStart = hashRange.lowerEndpoint() + hash % Math.min(rangeStep, hashRangeSize);
+          rangeEnd = hashRange.upperEndpoint();
+        } else {
+          rangeStart = hashRange.lowerEndpoint() + hash % hashRangeSize;
+          rangeEnd = rangeStart;
+        }
+
+      } else if (!"*".equals(rangeExpression)) {
+        // either 0 or 0-6, etc
 
         final List<String> hyphenParts = Utils.HYPHEN_SPLITTER.splitToList(rangeExpression);
 
@@ -234,12 +276,63 @@ public final class CrontabExpression implements Comparable<CrontabExpression> {
       checkArgument(rangeStart <= rangeEnd, "Invalid cron expression for %s (range start must not be greater than range end): %s", expressionPart.name(), expression);
 
       for (int runTime = rangeStart; runTime <= rangeEnd; runTime += rangeStep) {
-        results.add(runTime);
+        results |= 1L << runTime;
       }
 
     }
 
-    return ImmutableSortedSet.copyOf(results);
+    return results;
+  }
+
+  /**
+   * @param expressionPart  The current part we're working on
+   * @param rangeExpression H or H(start-end)
+   * @param expression      The whole expression, for error messages
+   * @return The range H picks from
+   */
+  private static Range<Integer> evaluateHashRange(final ExpressionPart expressionPart, final String rangeExpression, final String expression) {
+
+    if ("H".equals(rangeExpression)) {
+      // Days 29-31 are missing from some months, so a hashed day of month would silently skip them
+      return expressionPart == ExpressionPart.DaysOfMonth ? Range.closed(1, 28) : expressionPart.getAllowedRange();
+    }
+
+    checkArgument(
+      rangeExpression.startsWith("H(") && rangeExpression.endsWith(")"),
+      "Invalid cron expression for %s (expected H or H(start-end)): %s", expressionPart.name(), expression
+    );
+
+    final List<String> hyphenParts = Utils.HYPHEN_SPLITTER.splitToList(rangeExpression.substring(2, rangeExpression.length() - 1));
+
+    checkArgument(hyphenParts.size() == 2, "Invalid cron expression for %s (expected H(start-end)): %s", expressionPart.name(), expression);
+
+    final Integer rangeStart = expressionPart.textUnitToInt(hyphenParts.get(0));
+    final Integer rangeEnd = expressionPart.textUnitToInt(hyphenParts.get(1));
+
+    checkNotNull(rangeStart, "Invalid cron expression for %s (rangeStart is not an int): %s", expressionPart.name(), expression);
+    checkNotNull(rangeEnd, "Invalid cron expression for %s (rangeEnd is not an int): %s", expressionPart.name(), expression);
+
+    checkArgument(
+      expressionPart.getAllowedRange().contains(rangeStart) && expressionPart.getAllowedRange().contains(rangeEnd),
+      "Invalid cron expression for %s (valid range is %s): %s", expressionPart.name(), expressionPart.getAllowedRange(), expression
+    );
+
+    checkArgument(rangeStart <= rangeEnd, "Invalid cron expression for %s (range start must not be greater than range end): %s", expressionPart.name(), expression);
+
+    return Range.closed(rangeStart, rangeEnd);
+  }
+
+  /**
+   * @return A non-negative hash of the user and command, different for each part of the expression
+   */
+  static int hashFor(final ExpressionPart expressionPart, final String executingUser, final String command) {
+    return Hashing.murmur3_32().newHasher()
+      .putString(executingUser, StandardCharsets.UTF_8)
+      .putChar('\0')
+      .putString(command, StandardCharsets.UTF_8)
+      .putInt(expressionPart.ordinal())
+      .hash()
+      .asInt() & Integer.MAX_VALUE;
   }
 
   public String getRawExpression() {return this.rawExpression;}
@@ -333,17 +426,15 @@ public final class CrontabExpression implements Comparable<CrontabExpression> {
   public Schedule createSchedule() {
     return new Schedule(
       getSchedulePart(ExpressionPart.Minutes),
-      getSchedulePart(ExpressionPart.Hours),
-      getSchedulePart(ExpressionPart.DaysOfMonth),
-      getSchedulePart(ExpressionPart.Months),
-      getSchedulePart(ExpressionPart.DaysOfWeek)
+      (int) getSchedulePart(ExpressionPart.Hours),
+      (int) getSchedulePart(ExpressionPart.DaysOfMonth),
+      (int) getSchedulePart(ExpressionPart.Months),
+      (int) getSchedulePart(ExpressionPart.DaysOfWeek)
     );
   }
 
-  private ImmutableSortedSet<Integer> getSchedulePart(final ExpressionPart expressionPart) {
-    ImmutableSortedSet<Integer> result = this.expressionRuntimes.get(expressionPart);
-
-    return result == null ? ImmutableSortedSet.of() : result;
+  private long getSchedulePart(final ExpressionPart expressionPart) {
+    return this.expressionRuntimes[expressionPart.ordinal()];
   }
 
 }
@@ -17,27 +17,49 @@ package com.zulily.omicron.crontab;
 
 import com.google.common.collect.ImmutableSortedSet;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.Year;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoField;
+import java.time.temporal.ChronoUnit;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Optional;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Encapsulates the cron schedule whitelists and any related scheduling logic
+ * <p>
+ * Each whitelist is compiled into a primitive bitmask where bit N is set if value N is
+ * whitelisted, i.e. "0-10/5 * * * *" sets bits 0, 5 and 10 of the minute mask
+ * <p>
+ * NOTE ABOUT DAYLIGHT SAVING TIME
+ * Schedules are evaluated against the wall clock. When computing execution times:
+ * - wall clock times skipped by a forward transition run once, at the instant the clock jumps
+ * - wall clock times repeated by a backward transition run once, at the earlier offset, unless
+ * the schedule runs every hour, in which case they run again at the later offset
  */
 public class Schedule {
-  private final ImmutableSortedSet<Integer> minutes;
-  private final ImmutableSortedSet<Integer> hours;
-  private final ImmutableSortedSet<Integer> days;
-  private final ImmutableSortedSet<Integer> months;
-  private final ImmutableSortedSet<Integer> daysOfWeek;
+  // Every day-of-week/day-of-month/month combination recurs within one 400 year Gregorian cycle
+  private static final int SEARCH_YEARS = 400;
+  private static final int ALL_HOURS = (1 << 24) - 1;
+
+  private final long minutes;
+  private final int hours;
+  private final int days;
+  private final int months;
+  private final int daysOfWeek;
 
   Schedule(
-    final ImmutableSortedSet<Integer> minutes,
-    final ImmutableSortedSet<Integer> hours,
-    final ImmutableSortedSet<Integer> days,
-    final ImmutableSortedSet<Integer> months,
-    final ImmutableSortedSet<Integer> daysOfWeek
+    final long minutes,
+    final int hours,
+    final int days,
+    final int months,
+    final int daysOfWeek
   ) {
     this.minutes = minutes;
     this.hours = hours;
@@ -47,22 +69,57 @@ public class Schedule {
   }
 
   ImmutableSortedSet<Integer> getMinutes() {
-    return minutes;
+    return toSortedSet(minutes);
   }
 
   ImmutableSortedSet<Integer> getHours() {
-    return hours;
+    return toSortedSet(hours);
   }
 
   ImmutableSortedSet<Integer> getDays() {
-    return days;
+    return toSortedSet(days);
   }
 
   ImmutableSortedSet<Integer> getMonths() {
-    return months;
+    return toSortedSet(months);
   }
 
   ImmutableSortedSet<Integer> getDaysOfWeek() {
+    return toSortedSet(daysOfWeek);
+  }
+
+  /**
+   * @return The minute whitelist - bit N is set if minute N (0 - 59) is in schedule
+   */
+  public long getMinuteMask() {
+    return minutes;
+  }
+
+  /**
+   * @return The hour whitelist - bit N is set if hour N (0 - 23) is in schedule
+   */
+  public int getHourMask() {
+    return hours;
+  }
+
+  /**
+   * @return The day of month whitelist - bit N is set if day N (1 - 31) is in schedule
+   */
+  public int getDayMask() {
+    return days;
+  }
+
+  /**
+   * @return The month whitelist - bit N is set if month N (1 - 12) is in schedule
+   */
+  public int getMonthMask() {
+    return months;
+  }
+
+  /**
+   * @return The day of week whitelist - bit N is set if day of week N (0 - 6, Sunday == 0) is in schedule
+   */
+  public int getDayOfWeekMask() {
     return daysOfWeek;
   }
 
@@ -75,17 +132,466 @@ public class Schedule {
   public boolean timeInSchedule(final ZonedDateTime zonedDateTime) {
     checkNotNull(zonedDateTime, "zonedDateTime");
 
-    return daysOfWeek.contains(convertToCronDayOfWeek(zonedDateTime.get(ChronoField.DAY_OF_WEEK)))
-      && months.contains(zonedDateTime.get(ChronoField.MONTH_OF_YEAR))
-      && days.contains(zonedDateTime.get(ChronoField.DAY_OF_MONTH))
-      && hours.contains(zonedDateTime.get(ChronoField.HOUR_OF_DAY))
-      && minutes.contains(zonedDateTime.get(ChronoField.MINUTE_OF_HOUR));
+    return timeInSchedule(
+      zonedDateTime.get(ChronoField.MINUTE_OF_HOUR),
+      zonedDateTime.get(ChronoField.HOUR_OF_DAY),
+      zonedDateTime.get(ChronoField.DAY_OF_MONTH),
+      zonedDateTime.get(ChronoField.MONTH_OF_YEAR),
+      convertToCronDayOfWeek(zonedDateTime.get(ChronoField.DAY_OF_WEEK))
+    );
+  }
+
+  /**
+   * Determines whether or not a calendar minute is whitelisted by the defined schedule
+   * <p>
+   * This is a handful of bit tests and allocates nothing, so it is safe to call for every
+   * job on every tick. Values outside of the crontab ranges are never in schedule.
+   *
+   * @param minute     The minute of the hour (0 - 59)
+   * @param hour       The hour of the day (0 - 23)
+   * @param dayOfMonth The day of the month (1 - 31)
+   * @param month      The month of the year (1 - 12)
+   * @param dayOfWeek  The crontab day of the week (0 - 6, Sunday == 0)
+   * @return True if the time is in schedule, False otherwise
+   */
+  public boolean timeInSchedule(final int minute, final int hour, final int dayOfMonth, final int month, final int dayOfWeek) {
+
+    // Shift distances are taken mod 32/64 by the JVM, so range checks are required
+    // to keep out-of-range values from aliasing onto valid bits
+    return dayOfWeek >= 0 && dayOfWeek <= 6 && (daysOfWeek & (1 << dayOfWeek)) != 0
+      && month >= 1 && month <= 12 && (months & (1 << month)) != 0
+      && dayOfMonth >= 1 && dayOfMonth <= 31 && (days & (1 << dayOfMonth)) != 0
+      && hour >= 0 && hour <= 23 && (hours & (1 << hour)) != 0
+      && minute >= 0 && minute <= 59 && (minutes & (1L << minute)) != 0;
+  }
+
+  /**
+   * Calculates the first execution of the schedule that is strictly after a given time
+   * <p>
+   * The search jumps field by field (month, day, hour, minute) instead of testing every minute,
+   * and evaluates the wall clock in the zone of the given time
+   *
+   * @param after The time to search forward from (exclusive)
+   * @return The next execution time, or absent if the schedule can never run
+   */
+  public Optional<ZonedDateTime> nextExecution(final ZonedDateTime after) {
+    checkNotNull(after, "after");
+
+    if (neverRuns()) {
+      return Optional.empty();
+    }
+
+    final ZoneId zone = after.getZone();
+    final ZoneRules rules = zone.getRules();
+    final int maxYear = after.getYear() + SEARCH_YEARS;
+
+    LocalDateTime cursor = after.toLocalDateTime().truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+
+    ZonedDateTime result = null;
+
+    while (result == null) {
+
+      final LocalDateTime local = nextLocalMatch(cursor, maxYear);
+
+      if (local == null) {
+        return Optional.empty();
+      }
+
+      // A wall clock match may have already passed when "after" is in
+      // the second half of a repeated hour - keep searching if so
+      result = firstExecutionAfter(local, rules, zone, after);
+
+      cursor = local.plusMinutes(1);
+    }
+
+    // Hourly schedules run again in the hour repeated by a backward transition,
+    // which comes before the wall clock match found above
+    final ZoneOffsetTransition transition = rules.nextTransition(after.toInstant());
+
+    if (runsHourly() && transition != null && transition.isOverlap() && transition.getInstant().isBefore(result.toInstant())) {
+
+      final LocalDateTime repeated = nextLocalMatch(transition.getDateTimeAfter(), maxYear);
+
+      if (repeated != null && repeated.isBefore(transition.getDateTimeBefore())) {
+
+        final ZonedDateTime repeatedExecution = ZonedDateTime.ofStrict(repeated, transition.getOffsetAfter(), zone);
+
+        if (repeatedExecution.isAfter(after) && repeatedExecution.isBefore(result)) {
+          result = repeatedExecution;
+        }
+      }
+    }
+
+    return Optional.of(result);
+  }
+
+  /**
+   * Calculates the last execution of the schedule that is strictly before a given time
+   * <p>
+   * The mirror of {@link #nextExecution(ZonedDateTime)}, with the same daylight saving time rules
+   *
+   * @param before The time to search backward from (exclusive)
+   * @return The previous execution time, or absent if the schedule can never run
+   */
+  public Optional<ZonedDateTime> previousExecution(final ZonedDateTime before) {
+    checkNotNull(before, "before");
+
+    if (neverRuns()) {
+      return Optional.empty();
+    }
+
+    final ZoneId zone = before.getZone();
+    final ZoneRules rules = zone.getRules();
+    final int minYear = before.getYear() - SEARCH_YEARS;
+
+    final LocalDateTime beforeLocal = before.toLocalDateTime();
+    final LocalDateTime truncated = beforeLocal.truncatedTo(ChronoUnit.MINUTES);
+
+    // A partial minute means the minute itself is already in the past
+    LocalDateTime cursor = truncated.equals(beforeLocal) ? truncated.minusMinutes(1) : truncated;
+
+    ZonedDateTime result = null;
+
+    while (result == null) {
+
+      final LocalDateTime local = previousLocalMatch(cursor, minYear);
+
+      if (local == null) {
+        return Optional.empty();
+      }
+
+      result = lastExecutionBefore(local, rules, zone, before);
+
+      cursor = local.minusMinutes(1);
+    }
+
+    // The first pass of an hour repeated by a backward transition always runs, and it
+    // comes after any wall clock match found above that precedes the repeated hour
+    final ZoneOffsetTransition transition = rules.previousTransition(before.toInstant());
+
+    if (transition != null && transition.isOverlap() && transition.getInstant().isAfter(result.toInstant())) {
+
+      final LocalDateTime repeated = previousLocalMatch(transition.getDateTimeBefore().minusMinutes(1), minYear);
+
+      if (repeated != null && !repeated.isBefore(transition.getDateTimeAfter())) {
+
+        final ZonedDateTime firstPass = ZonedDateTime.ofStrict(repeated, transition.getOffsetBefore(), zone);
+
+        if (firstPass.isBefore(before) && firstPass.isAfter(result)) {
+          result = firstPass;
+        }
+      }
+    }
+
+    return Optional.of(result);
   }
 
-  private static int convertToCronDayOfWeek(final int dayOfWeek) {
-    // joda-time uses 1-7 dayOfWeek with Sunday as 7, so convert 7 to 0 to match crontab expression range of 0-6
+  private ZonedDateTime firstExecutionAfter(final LocalDateTime local, final ZoneRules rules, final ZoneId zone, final ZonedDateTime after) {
+    final ZoneOffsetTransition transition = rules.getTransition(local);
+
+    if (transition == null) {
+      final ZonedDateTime execution = ZonedDateTime.of(local, zone);
+      return execution.isAfter(after) ? execution : null;
+    }
+
+    if (transition.isGap()) {
+      final ZonedDateTime execution = ZonedDateTime.ofInstant(transition.getInstant(), zone);
+      return execution.isAfter(after) ? execution : null;
+    }
+
+    final ZonedDateTime firstPass = ZonedDateTime.ofStrict(local, transition.getOffsetBefore(), zone);
+
+    if (firstPass.isAfter(after)) {
+      return firstPass;
+    }
+
+    if (runsHourly()) {
+      final ZonedDateTime secondPass = ZonedDateTime.ofStrict(local, transition.getOffsetAfter(), zone);
+      return secondPass.isAfter(after) ? secondPass : null;
+    }
+
+    return null;
+  }
+
+  private ZonedDateTime lastExecutionBefore(final LocalDateTime local, final ZoneRules rules, final ZoneId zone, final ZonedDateTime before) {
+    final ZoneOffsetTransition transition = rules.getTransition(local);
+
+    if (transition == null) {
+      final ZonedDateTime execution = ZonedDateTime.of(local, zone);
+      return execution.isBefore(before) ? execution : null;
+    }
+
+    if (transition.isGap()) {
+      final ZonedDateTime execution = ZonedDateTime.ofInstant(transition.getInstant(), zone);
+      return execution.isBefore(before) ? execution : null;
+    }
+
+    if (runsHourly()) {
+      final ZonedDateTime secondPass = ZonedDateTime.ofStrict(local, transition.getOffsetAfter(), zone);
+
+      if (secondPass.isBefore(before)) {
+        return secondPass;
+      }
+    }
+
+    final ZonedDateTime firstPass = ZonedDateTime.ofStrict(local, transition.getOffsetBefore(), zone);
+    return firstPass.isBefore(before) ? firstPass : null;
+  }
+
+  /**
+   * Finds the first wall clock minute at or after start that is in schedule
+   */
+  private LocalDateTime nextLocalMatch(final LocalDateTime start, final int maxYear) {
+    int year = start.getYear();
+    int month = start.getMonthValue();
+    int day = start.getDayOfMonth();
+    int hour = start.getHour();
+    int minute = start.getMinute();
+
+    // Each field that rolls over resets the fields below it to their lowest value
+    while (year <= maxYear) {
+
+      if (month > 12) {
+        year++;
+        month = 1;
+        day = 1;
+        hour = 0;
+        minute = 0;
+        continue;
+      }
+
+      final int nextMonth = nextBit(months & 0xFFFFFFFFL, month, 12);
+
+      if (nextMonth == -1) {
+        month = 13;
+        continue;
+      }
+
+      if (nextMonth != month) {
+        month = nextMonth;
+        day = 1;
+        hour = 0;
+        minute = 0;
+      }
+
+      final int nextDay = nextDay(year, month, day);
+
+      if (nextDay == -1) {
+        month++;
+        day = 1;
+        hour = 0;
+        minute = 0;
+        continue;
+      }
+
+      if (nextDay != day) {
+        day = nextDay;
+        hour = 0;
+        minute = 0;
+      }
+
+      final int nextHour = nextBit(hours & 0xFFFFFFFFL, hour, 23);
+
+      if (nextHour == -1) {
+        day++;
+        hour = 0;
+        minute = 0;
+        continue;
+      }
+
+      if (nextHour != hour) {
+        hour = nextHour;
+        minute = 0;
+      }
+
+      final int nextMinute = nextBit(minutes, minute, 59);
+
+      if (nextMinute == -1) {
+        hour++;
+        minute = 0;
+        continue;
+      }
+
+      return LocalDateTime.of(year, month, day, hour, nextMinute);
+    }
+
+    return null;
+  }
+
+  /**
+   * Finds the last wall clock minute at or before start that is in schedule
+   */
+  private LocalDateTime previousLocalMatch(final LocalDateTime start, final int minYear) {
+    int year = start.getYear();
+    int month = start.getMonthValue();
+    int day = start.getDayOfMonth();
+    int hour = start.getHour();
+    int minute = start.getMinute();
+
+    // Each field that rolls back resets the fields below it to their highest value
+    while (year >= minYear) {
+
+      if (month < 1) {
+        year--;
+        month = 12;
+        day = 31;
+        hour = 23;
+        minute = 59;
+        continue;
+      }
+
+      final int previousMonth = previousBit(months & 0xFFFFFFFFL, month);
+
+      if (previousMonth == -1) {
+        month = 0;
+        continue;
+      }
+
+      if (previousMonth != month) {
+        month = previousMonth;
+        day = 31;
+        hour = 23;
+        minute = 59;
+      }
+
+      final int previousDay = previousDay(year, month, day);
+
+      if (previousDay == -1) {
+        month--;
+        day = 31;
+        hour = 23;
+        minute = 59;
+        continue;
+      }
+
+      if (previousDay != day) {
+        day = previousDay;
+        hour = 23;
+        minute = 59;
+      }
+
+      final int previousHour = previousBit(hours & 0xFFFFFFFFL, hour);
+
+      if (previousHour == -1) {
+        day--;
+        hour = 23;
+        minute = 59;
+        continue;
+      }
+
+      if (previousHour != hour) {
+        hour = previousHour;
+        minute = 59;
+      }
+
+      final int previousMinute = previousBit(minutes, minute);
+
+      if (previousMinute == -1) {
+        hour--;
+        minute = 59;
+        continue;
+      }
+
+      return LocalDateTime.of(year, month, day, hour, previousMinute);
+    }
+
+    return null;
+  }
+
+  private int nextDay(final int year, final int month, final int fromDay) {
+    final int monthLength = Month.of(month).length(Year.isLeap(year));
+
+    if (fromDay > monthLength) {
+      return -1;
+    }
+
+    int dayOfWeek = convertToCronDayOfWeek(LocalDate.of(year, month, fromDay).getDayOfWeek().getValue());
+
+    for (int day = fromDay; day <= monthLength; day++) {
+
+      if ((days & (1 << day)) != 0 && (daysOfWeek & (1 << dayOfWeek)) != 0) {
+        return day;
+      }
+
+      dayOfWeek = dayOfWeek == 6 ? 0 : dayOfWeek + 1;
+    }
+
+    return -1;
+  }
+
+  private int previousDay(final int year, final int month, final int fromDay) {
+    if (fromDay < 1) {
+      return -1;
+    }
+
+    final int startDay = Math.min(fromDay, Month.of(month).length(Year.isLeap(year)));
+
+    int dayOfWeek = convertToCronDayOfWeek(LocalDate.of(year, month, startDay).getDayOfWeek().getValue());
+
+    for (int day = startDay; day >= 1; day--) {
+
+      if ((days & (1 << day)) != 0 && (daysOfWeek & (1 << dayOfWeek)) != 0) {
+        return day;
+      }
+
+      dayOfWeek = dayOfWeek == 0 ? 6 : dayOfWeek - 1;
+    }
+
+    return -1;
+  }
+
+  private static int nextBit(final long mask, final int from, final int max) {
+    if (from > max) {
+      return -1;
+    }
+
+    final long remaining = mask & (-1L << from);
+
+    return remaining == 0 ? -1 : Long.numberOfTrailingZeros(remaining);
+  }
+
+  private static int previousBit(final long mask, final int from) {
+    if (from < 0) {
+      return -1;
+    }
+
+    final long remaining = mask & (-1L >>> (63 - from));
+
+    return remaining == 0 ? -1 : 63 - Long.numberOfLeadingZeros(remaining);
+  }
+
+  private boolean neverRuns() {
+    return minutes == 0 || hours == 0 || days == 0 || months == 0 || daysOfWeek == 0;
+  }
+
+  private boolean runsHourly() {
+    // Like crond, schedules that run every hour are not considered to be
+    // tied to a particular wall clock time when the clock is turned back
+    return (hours & ALL_HOURS) == ALL_HOURS;
+  }
+
+  static int convertToCronDayOfWeek(final int dayOfWeek) {
+    // java.time uses 1-7 dayOfWeek with Sunday as 7, so convert 7 to 0 to match crontab expression range of 0-6
     // see evaluateExpressionPart() comments for more information
 
     return dayOfWeek == 7 ? 0 : dayOfWeek;
   }
+
+  private static ImmutableSortedSet<Integer> toSortedSet(final long mask) {
+    final ImmutableSortedSet.Builder<Integer> result = ImmutableSortedSet.naturalOrder();
+
+    long remaining = mask;
+
+    while (remaining != 0) {
+      result.add(Long.numberOfTrailingZeros(remaining));
+      remaining &= remaining - 1;
+    }
+
+    return result.build();
+  }
+
+  private static ImmutableSortedSet<Integer> toSortedSet(final int mask) {
+    // Widen without sign extension so bit 31 (day 31) survives
+    return toSortedSet(mask & 0xFFFFFFFFL);
+  }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.crontab;
+
+import com.google.common.collect.Maps;
+
+import java.util.HashMap;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Substitutes all of the crontab variables into a command in a single pass
+ * <p>
+ * A reference is a '$' followed by the whole variable name, up to the next whitespace
+ * or the end of the command - the same whole-name matching as {@link CronVariable#applySubstitution(String)}.
+ * Because a reference always runs to the next whitespace, the candidate name at each '$' is
+ * fully determined, and one hash lookup decides whether it is a variable
+ * <p>
+ * If a name is defined more than once, the first definition wins. Values are inserted
+ * literally and are not themselves searched for references
+ */
+public final class VariableSubstitution {
+  private final HashMap<String, String> values = Maps.newHashMap();
+
+  /**
+   * Constructor
+   *
+   * @param variableList The variables in the order they are defined in the crontab
+   */
+  public VariableSubstitution(final List<CronVariable> variableList) {
+    checkNotNull(variableList, "variableList");
+
+    for (final CronVariable cronVariable : variableList) {
+      values.putIfAbsent(cronVariable.getName(), cronVariable.getValue());
+    }
+  }
+
+  /**
+   * Applies every variable substitution within a cron command string
+   *
+   * @param line The cron command string to substitute variables in
+   * @return The command with substitutions made
+   */
+  public String apply(final String line) {
+    checkNotNull(line, "line");
+
+    int reference = line.indexOf('$');
+
+    if (reference == -1 || values.isEmpty()) {
+      return line;
+    }
+
+    final StringBuilder result = new StringBuilder(line.length() + 32);
+
+    int copied = 0;
+
+    while (reference != -1) {
+
+      int nameEnd = reference + 1;
+
+      while (nameEnd < line.length() && !isWhitespace(line.charAt(nameEnd))) {
+        nameEnd++;
+      }
+
+      final String value = values.get(line.substring(reference + 1, nameEnd));
+
+      if (value == null) {
+        // Not a variable - there may still be one starting at a later '$' in the same word
+        reference = line.indexOf('$', reference + 1);
+        continue;
+      }
+
+      result.append(line, copied, reference).append(value);
+
+      copied = nameEnd;
+
+      reference = line.indexOf('$', nameEnd);
+    }
+
+    return copied == 0 ? line : result.append(line, copied, line.length()).toString();
+  }
+
+  // Same character class as \s in java.util.regex
+  private static boolean isWhitespace(final char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.base.Throwables;
+import com.google.common.math.LongMath;
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.math.RoundingMode;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.zulily.omicron.Utils.error;
+import static com.zulily.omicron.Utils.info;
+
+/**
+ * Limits how many task processes run at once across all jobs, and how fast new ones are started
+ * <p>
+ * A task that arrives while either limit is reached waits in a FIFO queue, and a single admission
+ * thread launches queued tasks as running ones finish and the launch rate allows. When neither
+ * limit is set every task is launched right away on the calling thread
+ * <p>
+ * For simulated runs the admission thread is left out: queued tasks are only admitted through
+ * {@link #admitQueued()}, and the launch rate is measured on the configured clock instead of in real time
+ * <p>
+ * While the host is saturated (see {@link #setSaturated(boolean)}), tasks of deferrable jobs are
+ * held back in a separate list instead. They join the queue once the host recovers, or once
+ * they have been held for as long as their job allows
+ */
+final class AdmissionController {
+  private static final long SECOND_MICROS = TimeUnit.SECONDS.toMicros(1);
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition admissionPossible = lock.newCondition();
+  private final boolean admissionThread;
+
+  // All guarded by lock
+  private final ArrayDeque<QueuedTask> queue = new ArrayDeque<>();
+  private final ArrayDeque<QueuedTask> deferred = new ArrayDeque<>();
+  private boolean saturated = false;
+  private TaskLauncher taskLauncher;
+  private Clock clock = Clock.systemUTC();
+  private RateLimiter rateLimiter;
+  private int maxConcurrent = -1;
+  private int maxLaunchesPerSecond = -1;
+  private int runningCount = 0;
+  // When the next launch is allowed on the configured clock - only used without the admission thread
+  private long nextPermitMicros = 0L;
+
+  AdmissionController() {
+    this(true);
+  }
+
+  /**
+   * @param admissionThread false to admit queued tasks only when {@link #admitQueued()} is called,
+   *                        with the launch rate measured on the configured clock
+   */
+  AdmissionController(final boolean admissionThread) {
+    this.admissionThread = admissionThread;
+
+    if (admissionThread) {
+      final Thread thread = new Thread(this::runAdmissions, "omicron-task-admission");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Applies the limits from the current configuration
+   *
+   * @param taskLauncher         The launcher to start admitted tasks with
+   * @param clock                The time source for status timestamps and deferral limits
+   * @param maxConcurrent        The most task processes that may run at once, unlimited if not positive
+   * @param maxLaunchesPerSecond The most tasks that may be started per second, unlimited if not positive
+   */
+  void configure(final TaskLauncher taskLauncher, final Clock clock, final int maxConcurrent, final int maxLaunchesPerSecond) {
+    checkNotNull(taskLauncher, "taskLauncher");
+    checkNotNull(clock, "clock");
+
+    lock.lock();
+    try {
+
+      this.taskLauncher = taskLauncher;
+      this.clock = clock;
+
+      if (maxConcurrent != this.maxConcurrent || maxLaunchesPerSecond != this.maxLaunchesPerSecond) {
+        info(
+          "Admitting at most {0} running task(s), started at up to {1} per second",
+          maxConcurrent > 0 ? String.valueOf(maxConcurrent) : "unlimited",
+          maxLaunchesPerSecond > 0 ? String.valueOf(maxLaunchesPerSecond) : "unlimited"
+        );
+      }
+
+      this.maxConcurrent = maxConcurrent;
+
+      if (maxLaunchesPerSecond != this.maxLaunchesPerSecond) {
+        this.maxLaunchesPerSecond = maxLaunchesPerSecond;
+        this.rateLimiter = maxLaunchesPerSecond > 0 && admissionThread ? RateLimiter.create(maxLaunchesPerSecond) : null;
+      }
+
+      // Raised limits may let queued tasks through
+      admissionPossible.signal();
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records whether the host is currently saturated - called once per tick
+   * <p>
+   * Deferred tasks are released to the queue when the host is no longer saturated,
+   * or when they have been deferred for as long as their job allows
+   *
+   * @param saturated true if deferrable tasks should be held back
+   */
+  void setSaturated(final boolean saturated) {
+    lock.lock();
+    try {
+
+      this.saturated = saturated;
+
+      final long now = clock.millis();
+
+      int released = 0;
+
+      final Iterator<QueuedTask> deferredTasks = deferred.iterator();
+
+      while (deferredTasks.hasNext()) {
+        final QueuedTask deferredTask = deferredTasks.next();
+
+        if (!saturated || deferredTask.deferDeadline <= now) {
+          deferredTasks.remove();
+          queue.add(deferredTask);
+          released++;
+        }
+      }
+
+      if (released > 0) {
+        info("Releasing {0} deferred task(s){1}", String.valueOf(released), saturated ? " that reached their deferral limit" : "");
+
+        admissionPossible.signal();
+      }
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Launches a task, or queues it if a limit is reached
+   * <p>
+   * The status listener hears {@link TaskStatus#Queued} before a task is queued or deferred, and
+   * {@link TaskStatus#Started} right before it is launched, along with the time of each.
+   * The owner of the task must call {@link #taskFinished()} once it completes
+   *
+   * @param runningTask    The task to launch
+   * @param maxDeferMillis How long the task may be held back while the host is saturated - not deferrable if negative,
+   *                       and held until the host recovers if Long.MAX_VALUE
+   * @param statusListener Told when the task is queued and when it is started
+   * @return true if the task was launched right away, false if it was queued or deferred
+   */
+  boolean submit(final RunningTask runningTask, final long maxDeferMillis, final ObjLongConsumer<TaskStatus> statusListener) {
+    checkNotNull(runningTask, "runningTask");
+    checkNotNull(statusListener, "statusListener");
+
+    final TaskLauncher launcher;
+    final Clock launchClock;
+
+    lock.lock();
+    try {
+
+      if (saturated && maxDeferMillis >= 0) {
+
+        final long now = clock.millis();
+
+        statusListener.accept(TaskStatus.Queued, now);
+
+        deferred.add(new QueuedTask(runningTask, statusListener, maxDeferMillis == Long.MAX_VALUE ? Long.MAX_VALUE : now + maxDeferMillis));
+
+        return false;
+      }
+
+      // Nothing can overtake tasks that are already waiting
+      if (!queue.isEmpty() || !hasCapacity() || !tryAcquirePermit()) {
+
+        statusListener.accept(TaskStatus.Queued, clock.millis());
+
+        queue.add(new QueuedTask(runningTask, statusListener, Long.MAX_VALUE));
+
+        admissionPossible.signal();
+
+        return false;
+      }
+
+      runningCount++;
+
+      launcher = taskLauncher;
+      launchClock = clock;
+
+    } finally {
+      lock.unlock();
+    }
+
+    // Logged before the launch so a completion can never precede it in the task log
+    statusListener.accept(TaskStatus.Started, launchClock.millis());
+
+    launch(launcher, runningTask);
+
+    return true;
+  }
+
+  /**
+   * Called as each admitted task completes, whether or not its process started
+   */
+  void taskFinished() {
+    lock.lock();
+    try {
+      runningCount--;
+
+      admissionPossible.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Launches as many queued tasks as the limits allow at the configured clock's current time
+   * <p>
+   * Only needed without the admission thread, which otherwise does this as soon as it can
+   */
+  void admitQueued() {
+    checkState(!admissionThread, "Queued tasks are admitted by the admission thread");
+
+    while (true) {
+
+      final QueuedTask queuedTask;
+      final TaskLauncher launcher;
+      final Clock launchClock;
+
+      lock.lock();
+      try {
+
+        if (queue.isEmpty() || !hasCapacity() || !tryAcquirePermit()) {
+          return;
+        }
+
+        queuedTask = queue.poll();
+
+        runningCount++;
+
+        launcher = taskLauncher;
+        launchClock = clock;
+
+      } finally {
+        lock.unlock();
+      }
+
+      queuedTask.statusListener.accept(TaskStatus.Started, launchClock.millis());
+
+      launch(launcher, queuedTask.runningTask);
+    }
+  }
+
+  /**
+   * Tells a simulation when to next call {@link #admitQueued()}
+   *
+   * @return The earliest epoch millisecond at which a queued task can be admitted, or Long.MAX_VALUE
+   * if nothing is queued or a running task has to finish first
+   */
+  long getNextAdmissionMillis() {
+    lock.lock();
+    try {
+
+      if (queue.isEmpty() || !hasCapacity()) {
+        return Long.MAX_VALUE;
+      }
+
+      final long now = clock.millis();
+
+      if (maxLaunchesPerSecond <= 0) {
+        return now;
+      }
+
+      // Rounded up, since a permit is not available until the whole millisecond has passed
+      return Math.max(now, LongMath.divide(nextPermitMicros, TimeUnit.MILLISECONDS.toMicros(1), RoundingMode.CEILING));
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of tasks waiting to be launched
+   */
+  int getQueuedCount() {
+    lock.lock();
+    try {
+      return queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of tasks held back while the host is saturated
+   */
+  int getDeferredCount() {
+    lock.lock();
+    try {
+      return deferred.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean hasCapacity() {
+    return maxConcurrent <= 0 || runningCount < maxConcurrent;
+  }
+
+  /**
+   * Takes a launch permit if one is available right away - called with the lock held
+   */
+  private boolean tryAcquirePermit() {
+    if (admissionThread) {
+      return rateLimiter == null || rateLimiter.tryAcquire();
+    }
+
+    if (maxLaunchesPerSecond <= 0) {
+      return true;
+    }
+
+    final long nowMicros = TimeUnit.MILLISECONDS.toMicros(clock.millis());
+
+    if (nextPermitMicros > nowMicros) {
+      return false;
+    }
+
+    final long intervalMicros = SECOND_MICROS / maxLaunchesPerSecond;
+
+    // Like the real rate limiter, an idle period saves up at most a second's worth of launches
+    nextPermitMicros = Math.max(nextPermitMicros, nowMicros - SECOND_MICROS + intervalMicros) + intervalMicros;
+
+    return true;
+  }
+
+  private void runAdmissions() {
+
+    //noinspection InfiniteLoopStatement
+    while (true) {
+
+      QueuedTask queuedTask = null;
+
+      try {
+
+        final RateLimiter limiter;
+
+        lock.lock();
+        try {
+
+          while (queue.isEmpty() || !hasCapacity()) {
+            admissionPossible.await();
+          }
+
+          queuedTask = queue.poll();
+          limiter = rateLimiter;
+
+          runningCount++;
+
+        } finally {
+          lock.unlock();
+        }
+
+        // Waits out the launch rate without holding the lock - new submissions
+        // queue up behind this task, since their own permits are not available yet
+        if (limiter != null) {
+          limiter.acquire();
+        }
+
+        final TaskLauncher launcher;
+        final Clock launchClock;
+
+        lock.lock();
+        try {
+          launcher = taskLauncher;
+          launchClock = clock;
+        } finally {
+          lock.unlock();
+        }
+
+        queuedTask.statusListener.accept(TaskStatus.Started, launchClock.millis());
+
+        launch(launcher, queuedTask.runningTask);
+
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception e) {
+        error("Task admission failed\n{0}", Throwables.getStackTraceAsString(e));
+
+        // The task was counted as running but never launched
+        if (queuedTask != null) {
+          queuedTask.runningTask.completeWithoutLaunch();
+        }
+      }
+    }
+  }
+
+  private static void launch(final TaskLauncher launcher, final RunningTask runningTask) {
+    try {
+      launcher.launch(runningTask);
+    } catch (Exception e) {
+      error("Task launch failed: {0}\n{1}", runningTask.getCommandLine(), Throwables.getStackTraceAsString(e));
+
+      // Finishes the task through its completion listener, which frees its admission
+      // and removes it from its job's running tasks
+      runningTask.completeWithoutLaunch();
+    }
+  }
+
+  private static final class QueuedTask {
+    private final RunningTask runningTask;
+    private final ObjLongConsumer<TaskStatus> statusListener;
+    private final long deferDeadline;
+
+    private QueuedTask(final RunningTask runningTask, final ObjLongConsumer<TaskStatus> statusListener, final long deferDeadline) {
+      this.runningTask = runningTask;
+      this.statusListener = statusListener;
+      this.deferDeadline = deferDeadline;
+    }
+  }
+}
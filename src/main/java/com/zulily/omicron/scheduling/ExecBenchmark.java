@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableList;
+import com.zulily.omicron.conf.Configuration;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.zulily.omicron.Utils.WHITESPACE_SPLITTER;
+
+/**
+ * Measures what each {@link TaskLaunchStrategy} costs on this host, by launching "true" through it over and over
+ * <p>
+ * Launches run one at a time. Latency is from handing the task to its executor until its exit is reported,
+ * which for "true" is almost entirely the cost of switching user and starting it. Failed launches are counted
+ * separately and left out of the latency figures
+ * <p>
+ * CPU is the user and system time of omicron and of every process it started and reaped, from /proc/self/stat,
+ * so it covers su, PAM and the task itself. The helper is stopped before the second reading, so that its tasks
+ * are reaped and counted as well. The busy time of the whole host is not used, since on a host with few CPUs
+ * back to back launches keep it busy for about as long as they take
+ */
+public final class ExecBenchmark {
+  private static final String COMMAND = "true";
+  private static final long LAUNCH_TIMEOUT_SECONDS = 30L;
+  private static final Path PROC_SELF_STAT = Paths.get("/proc/self/stat");
+
+  // USER_HZ, which is 100 on every mainstream Linux architecture
+  private static final long MILLIS_PER_TICK = 10L;
+
+  private final String user;
+  private final int launches;
+  private final List<Result> results;
+
+  private ExecBenchmark(final String user, final int launches, final List<Result> results) {
+    this.user = user;
+    this.launches = launches;
+    this.results = results;
+  }
+
+  /**
+   * Benchmarks every launch strategy
+   *
+   * @param configuration The configuration with the paths of the launch commands
+   * @param user          The user to launch as
+   * @param launches      The number of timed launches per strategy, after one untimed launch
+   * @return The results
+   */
+  public static ExecBenchmark run(final Configuration configuration, final String user, final int launches) {
+    checkNotNull(configuration, "configuration");
+    checkNotNull(user, "user");
+    checkArgument(launches > 0, "launches must be positive: %s", launches);
+
+    final TaskTimeoutService taskTimeoutService = new TaskTimeoutService(10L, 8);
+
+    final ImmutableList.Builder<Result> results = ImmutableList.builder();
+
+    // Every launch would otherwise be logged
+    final Logger logger = Logger.getGlobal();
+    final Level previousLevel = logger.getLevel();
+
+    logger.setLevel(Level.SEVERE);
+
+    try {
+
+      for (final TaskLaunchStrategy taskLaunchStrategy : TaskLaunchStrategy.values()) {
+
+        final TaskExecutor taskExecutor = taskLaunchStrategy.executorFor(user, configuration);
+
+        // Also starts the helper, which is a one-off cost
+        if (launch(taskExecutor, user, taskTimeoutService) < 0L) {
+          results.add(new Result(taskLaunchStrategy, null, 0, -1L));
+          continue;
+        }
+
+        final long[] latencyNanos = new long[launches];
+        int succeeded = 0;
+
+        final long cpuTicksBefore = readCpuTicks();
+
+        for (int launch = 0; launch < launches; launch++) {
+          final long nanos = launch(taskExecutor, user, taskTimeoutService);
+
+          if (nanos >= 0L) {
+            latencyNanos[succeeded++] = nanos;
+          }
+        }
+
+        // The helper reaps its tasks - they only count towards omicron once the helper itself is reaped
+        if (taskExecutor instanceof HelperTaskExecutor) {
+          awaitStop((HelperTaskExecutor) taskExecutor);
+        }
+
+        final long cpuTicksAfter = readCpuTicks();
+
+        results.add(new Result(
+          taskLaunchStrategy,
+          Arrays.copyOf(latencyNanos, succeeded),
+          launches - succeeded,
+          cpuTicksBefore < 0L || cpuTicksAfter < 0L ? -1L : (cpuTicksAfter - cpuTicksBefore) * MILLIS_PER_TICK
+        ));
+      }
+
+    } finally {
+      logger.setLevel(previousLevel);
+    }
+
+    return new ExecBenchmark(user, launches, results.build());
+  }
+
+  /**
+   * @return The latency of a successful launch in nanoseconds, or -1 if it failed
+   */
+  private static long launch(final TaskExecutor taskExecutor, final String user, final TaskTimeoutService taskTimeoutService) {
+    final CompletableFuture<RunningTask> completed = new CompletableFuture<>();
+
+    final RunningTask runningTask = new RunningTask(
+      0, COMMAND, user, -1L, taskExecutor, 0L, "", -1, -1, null, Clock.systemUTC(), completed::complete
+    );
+
+    final long startNanos = System.nanoTime();
+
+    runningTask.launch(taskTimeoutService);
+
+    try {
+
+      return completed.get(LAUNCH_TIMEOUT_SECONDS, TimeUnit.SECONDS).getTaskStatus() == TaskStatus.Complete
+        ? System.nanoTime() - startNanos
+        : -1L;
+
+    } catch (Exception e) {
+      return -1L;
+    }
+  }
+
+  private static void awaitStop(final HelperTaskExecutor helperTaskExecutor) {
+    try {
+      helperTaskExecutor.stop().get(LAUNCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (Exception e) {
+      // Its tasks go uncounted
+    }
+  }
+
+  /**
+   * @return The user and system clock ticks of this process and its reaped children, or -1 if they cannot be read
+   */
+  private static long readCpuTicks() {
+    try {
+
+      final String stat = new String(Files.readAllBytes(PROC_SELF_STAT), StandardCharsets.US_ASCII);
+
+      // The command name in parentheses may contain spaces - everything after it is "state ppid ..."
+      final List<String> fields = WHITESPACE_SPLITTER.splitToList(stat.substring(stat.lastIndexOf(')') + 1).trim());
+
+      // utime stime cutime cstime are fields 14 to 17, counting from the pid
+      long ticks = 0L;
+
+      for (int field = 11; field <= 14; field++) {
+        ticks += Long.parseLong(fields.get(field));
+      }
+
+      return ticks;
+
+    } catch (IOException | RuntimeException e) {
+      return -1L;
+    }
+  }
+
+  /**
+   * @return A human readable report of the benchmark
+   */
+  public String report() {
+    final StringBuilder report = new StringBuilder();
+
+    report.append(String.format("Launching \"%s\" as %s, %d time(s) per strategy%n", COMMAND, user, launches));
+    report.append(String.format("%-12s %10s %10s %10s %14s %8s%n", "strategy", "mean ms", "p50 ms", "p99 ms", "cpu ms/launch", "failed"));
+
+    for (final Result result : results) {
+
+      if (result.latencyNanos == null) {
+        report.append(String.format("%-12s unavailable%n", result.taskLaunchStrategy.getRawName()));
+        continue;
+      }
+
+      final String cpuMillis = result.cpuMillis < 0L ? "-" : String.format("%.2f", result.cpuMillis / (double) launches);
+
+      if (result.latencyNanos.length == 0) {
+        report.append(String.format("%-12s %10s %10s %10s %14s %8d%n", result.taskLaunchStrategy.getRawName(), "-", "-", "-", cpuMillis, result.failures));
+        continue;
+      }
+
+      final long[] sortedNanos = result.latencyNanos.clone();
+
+      Arrays.sort(sortedNanos);
+
+      report.append(String.format(
+        "%-12s %10.2f %10.2f %10.2f %14s %8d%n",
+        result.taskLaunchStrategy.getRawName(),
+        toMillis(Arrays.stream(sortedNanos).sum() / (double) sortedNanos.length),
+        toMillis(sortedNanos[sortedNanos.length / 2]),
+        toMillis(sortedNanos[Math.min(sortedNanos.length - 1, (int) (sortedNanos.length * 0.99))]),
+        cpuMillis,
+        result.failures
+      ));
+    }
+
+    return report.toString();
+  }
+
+  private static double toMillis(final double nanos) {
+    return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  private static final class Result {
+    private final TaskLaunchStrategy taskLaunchStrategy;
+    // Successful timed launches only
+    private final long[] latencyNanos;
+    private final int failures;
+    // Over every timed launch, failed or not
+    private final long cpuMillis;
+
+    private Result(final TaskLaunchStrategy taskLaunchStrategy, final long[] latencyNanos, final int failures, final long cpuMillis) {
+      this.taskLaunchStrategy = taskLaunchStrategy;
+      this.latencyNanos = latencyNanos;
+      this.failures = failures;
+      this.cpuMillis = cpuMillis;
+    }
+  }
+}
@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.zulily.omicron.Utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.zulily.omicron.Utils.info;
+import static com.zulily.omicron.Utils.warn;
+
+/**
+ * A {@link TaskExecutor} that forks tasks from a long-lived helper shell of their user, so that su, PAM
+ * and the login shell run once per user instead of once per launch
+ * <p>
+ * The helper is a small POSIX shell loop started through su. Each launch is sent to it over its stdin as
+ * three lines - an id, the file to append output to (empty to use omicron's stderr) and the command line -
+ * and the helper runs the command with the user's $SHELL in the background. It reports back
+ * "started &lt;id&gt; &lt;pid&gt;" and later "exited &lt;id&gt; &lt;status&gt;" over its stdout
+ * <p>
+ * Tasks keep the environment the helper's login shell set up when it started. A helper that exits is
+ * started again with the next launch for its user. Its tasks that were still running are reported with
+ * return code 255 once their processes are gone, since their exit status is lost with the helper
+ * <p>
+ * Helpers of users that no scheduled job launches through any more are stopped and dropped on reload (see
+ * {@link #stopUnused(Set)}) - their stdin is closed, so they exit once the tasks they started have reported
+ */
+final class HelperTaskExecutor implements TaskExecutor {
+  private static final long START_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  private static final int UNKNOWN_EXIT_CODE = 255;
+  private static final Splitter SPACE_SPLITTER = Splitter.on(' ');
+
+  // Single quote free, since it is passed quoted through the user's login shell
+  static final String SCRIPT = "while IFS= read -r id && IFS= read -r out && IFS= read -r cmd; do ("
+    + " if [ -n \"$out\" ]; then \"${SHELL:-/bin/sh}\" -c \"$cmd\" </dev/null >>\"$out\" 2>&1 &"
+    + " else \"${SHELL:-/bin/sh}\" -c \"$cmd\" </dev/null >&2 & fi;"
+    + " echo \"started $id $!\"; wait $!; echo \"exited $id $?\""
+    + " ) & done";
+
+  private static final ConcurrentMap<List<String>, HelperTaskExecutor> EXECUTORS = new ConcurrentHashMap<>();
+
+  private final String suCommand;
+  private final String user;
+  private final List<String> helperCommand;
+  private final long startTimeoutMillis;
+  private final AtomicLong launchIds = new AtomicLong();
+
+  // Guarded by this
+  private Helper helper;
+  private boolean retired = false;
+
+  /**
+   * Constructor
+   *
+   * @param suCommand     The su command that starts the helper, checked before it is run - null if helperCommand does not use su
+   * @param user          The user the helper runs as
+   * @param helperCommand The command that starts the helper
+   */
+  HelperTaskExecutor(final String suCommand, final String user, final List<String> helperCommand) {
+    this(suCommand, user, helperCommand, START_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param suCommand          The su command that starts the helper, checked before it is run - null if helperCommand does not use su
+   * @param user               The user the helper runs as
+   * @param helperCommand      The command that starts the helper
+   * @param startTimeoutMillis How long the helper has to report that it started a command before it is killed
+   */
+  HelperTaskExecutor(final String suCommand, final String user, final List<String> helperCommand, final long startTimeoutMillis) {
+    this.suCommand = suCommand;
+    this.user = checkNotNull(user, "user");
+    this.helperCommand = ImmutableList.copyOf(checkNotNull(helperCommand, "helperCommand"));
+    this.startTimeoutMillis = startTimeoutMillis;
+  }
+
+  /**
+   * @param suCommand The path of the su command
+   * @param user      The user to run tasks as
+   * @return The executor of the user, shared so that every task of the user goes through one helper
+   */
+  static HelperTaskExecutor forUser(final String suCommand, final String user) {
+    return EXECUTORS.computeIfAbsent(helperCommand(suCommand, user), command -> new HelperTaskExecutor(suCommand, user, command));
+  }
+
+  /**
+   * @param suCommand The path of the su command
+   * @param user      The user to run tasks as
+   * @return The command that starts the helper of the user, which identifies its executor
+   */
+  static List<String> helperCommand(final String suCommand, final String user) {
+    checkNotNull(suCommand, "suCommand");
+    checkNotNull(user, "user");
+
+    return ImmutableList.of(suCommand, "-", user, "-c", "exec /bin/sh -c '" + SCRIPT + "'");
+  }
+
+  /**
+   * Drops the executors whose helper command is not among the given ones and stops their helpers, so
+   * their su sessions do not stay open
+   *
+   * @param helperCommandsInUse The helper commands of the scheduled jobs
+   */
+  static void stopUnused(final Set<List<String>> helperCommandsInUse) {
+    checkNotNull(helperCommandsInUse, "helperCommandsInUse");
+
+    for (final Map.Entry<List<String>, HelperTaskExecutor> entry : EXECUTORS.entrySet()) {
+      if (!helperCommandsInUse.contains(entry.getKey()) && EXECUTORS.remove(entry.getKey(), entry.getValue())) {
+        entry.getValue().retire();
+      }
+    }
+  }
+
+  /**
+   * Stops the current helper of an executor that is no longer shared - tasks created before then
+   * can still launch through it, each on a helper that is stopped right after
+   */
+  private synchronized void retire() {
+    retired = true;
+
+    stop();
+  }
+
+  /**
+   * Closes the stdin of the current helper, if any, so it exits once its running tasks have reported -
+   * the next launch starts a new one
+   *
+   * @return Completes once the stopped helper has exited, right away if there was none
+   */
+  synchronized CompletableFuture<?> stop() {
+    if (helper == null || helper.dead) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    info("Stopping launch helper for {0}", user);
+
+    helper.dead = true;
+
+    try {
+      helper.writer.close();
+    } catch (IOException e) {
+      warn("Failed to close the launch helper for {0}: {1}", user, e.getMessage());
+    }
+
+    final CompletableFuture<Process> exited = helper.process.onExit();
+
+    helper = null;
+
+    return exited;
+  }
+
+  @Override
+  public Process start(final RunningTask runningTask) throws Exception {
+    checkNotNull(runningTask, "runningTask");
+
+    if (suCommand != null) {
+
+      if (!Utils.isRunningAsRoot()) {
+
+        warn("Not running as root. Cannot execute: {0}", runningTask.getCommandLine());
+
+        return null;
+      }
+
+      if (!Utils.fileExistsAndCanRead(suCommand)) {
+
+        warn("su command does not exist as specified location: {0}", this.suCommand);
+
+        return null;
+      }
+    }
+
+    final String output = openOutput(runningTask);
+
+    final long launchId = launchIds.incrementAndGet();
+
+    final HelperTaskProcess process = new HelperTaskProcess();
+
+    final Helper current;
+
+    synchronized (this) {
+
+      final boolean reused = helper != null && !helper.dead && helper.isAlive();
+
+      if (!reused) {
+        startHelper();
+      }
+
+      try {
+
+        helper.send(launchId, output, runningTask.getCommandLine(), process);
+
+      } catch (IOException e) {
+
+        // A helper that was killed can look alive until it is reaped - only a new one is worth a retry
+        if (!reused) {
+          throw e;
+        }
+
+        startHelper();
+
+        helper.send(launchId, output, runningTask.getCommandLine(), process);
+      }
+
+      current = helper;
+
+      // The helper still reports the launch and its exit after its stdin is closed
+      if (retired) {
+        stop();
+      }
+    }
+
+    try {
+
+      process.pid = process.started.get(startTimeoutMillis, TimeUnit.MILLISECONDS);
+
+    } catch (TimeoutException | ExecutionException e) {
+
+      // A helper that cannot report a launch is of no use to later ones either
+      synchronized (this) {
+        current.kill();
+      }
+
+      throw new IOException("Launch helper for " + user + " did not start the command", e);
+    }
+
+    return process;
+  }
+
+  /**
+   * Replaces the current helper with a new one - called with the executor locked
+   */
+  private void startHelper() throws IOException {
+    helper = new Helper(new ProcessBuilder(helperCommand).redirectError(ProcessBuilder.Redirect.INHERIT).start());
+
+    info("Started launch helper for {0} as PID {1}", user, String.valueOf(helper.process.pid()));
+  }
+
+  /**
+   * @return The output file, owned by the task's user so the helper can append to it, or an empty string to use stderr
+   */
+  private String openOutput(final RunningTask runningTask) {
+    final ProcessBuilder.Redirect redirect = runningTask.openOutput();
+
+    if (redirect == null) {
+      return "";
+    }
+
+    final Path file = redirect.file().toPath();
+
+    try {
+
+      Files.setOwner(file, file.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(user));
+
+      return file.toString();
+
+    } catch (IOException | UnsupportedOperationException e) {
+      warn("Cannot give {0} to {1}, writing output to stderr instead: {2}", file.toString(), user, e.getMessage());
+
+      return "";
+    }
+  }
+
+  /**
+   * One run of the helper process, and the launches it has not yet reported the exit of
+   */
+  private final class Helper {
+    private final Process process;
+    private final Writer writer;
+    private final Map<Long, HelperTaskProcess> launches = new ConcurrentHashMap<>();
+
+    // Guarded by the executor - set once no more launches may be sent
+    private boolean dead = false;
+
+    private Helper(final Process process) {
+      this.process = process;
+      this.writer = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+
+      final Thread reader = new Thread(this::read, "omicron-launch-helper-" + user);
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    private boolean isAlive() {
+      return process.isAlive();
+    }
+
+    /**
+     * Called with the executor locked, the same lock {@link #read()} takes to mark the helper dead
+     */
+    private void send(final long launchId, final String output, final String commandLine, final HelperTaskProcess taskProcess) throws IOException {
+      if (dead) {
+        throw new IOException("launch helper for " + user + " has exited");
+      }
+
+      launches.put(launchId, taskProcess);
+
+      try {
+        writer.write(launchId + "\n" + output + "\n" + commandLine + "\n");
+        writer.flush();
+      } catch (IOException e) {
+        launches.remove(launchId);
+        kill();
+
+        throw e;
+      }
+    }
+
+    /**
+     * Called with the executor locked - closes the helper's stdin and kills it along with everything it
+     * forked, since killing su alone leaves its shell running and the reader waiting on it
+     */
+    private void kill() {
+      dead = true;
+
+      try {
+        writer.close();
+      } catch (IOException e) {
+        // The pipe is already broken
+      }
+
+      final List<ProcessHandle> processTree = Lists.newArrayList(process.toHandle());
+
+      process.descendants().forEach(processTree::add);
+
+      processTree.forEach(ProcessHandle::destroyForcibly);
+    }
+
+    private void read() {
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+
+          // Anything else is output of the user's login scripts
+          final List<String> fields = SPACE_SPLITTER.splitToList(line);
+
+          if (fields.size() != 3) {
+            continue;
+          }
+
+          try {
+
+            final long launchId = Long.parseLong(fields.get(1));
+
+            if (fields.get(0).equals("started")) {
+
+              final HelperTaskProcess taskProcess = launches.get(launchId);
+
+              if (taskProcess != null) {
+                taskProcess.started.complete(Long.parseLong(fields.get(2)));
+              }
+
+            } else if (fields.get(0).equals("exited")) {
+
+              final HelperTaskProcess taskProcess = launches.remove(launchId);
+
+              if (taskProcess != null) {
+                taskProcess.exit(Integer.parseInt(fields.get(2)));
+              }
+            }
+
+          } catch (NumberFormatException e) {
+            // Not a report
+          }
+        }
+
+      } catch (IOException e) {
+        warn("Lost the launch helper for {0}: {1}", user, e.getMessage());
+      }
+
+      process.destroyForcibly();
+
+      // Once marked dead under the executor lock no launch can be registered, so none is missed below
+      synchronized (HelperTaskExecutor.this) {
+        dead = true;
+      }
+
+      if (!launches.isEmpty()) {
+        warn("Launch helper for {0} exited with {1} task(s) unreported - it is restarted with the next launch", user, String.valueOf(launches.size()));
+      }
+
+      for (final Long launchId : launches.keySet()) {
+
+        final HelperTaskProcess taskProcess = launches.remove(launchId);
+
+        if (taskProcess != null) {
+          taskProcess.lost();
+        }
+      }
+    }
+  }
+
+  /**
+   * The {@link Process} view of a command forked by the helper - its handle is available while it runs
+   */
+  private static final class HelperTaskProcess extends Process {
+    private final CompletableFuture<Long> started = new CompletableFuture<>();
+    private final CompletableFuture<Integer> exitCode = new CompletableFuture<>();
+    private volatile long pid = -1L;
+
+    private void exit(final int code) {
+      exitCode.complete(code);
+    }
+
+    private void lost() {
+      if (!started.isDone()) {
+        started.completeExceptionally(new IOException("launch helper exited"));
+        exit(UNKNOWN_EXIT_CODE);
+        return;
+      }
+
+      final Optional<ProcessHandle> handle = ProcessHandle.of(started.join());
+
+      if (handle.isPresent()) {
+        handle.get().onExit().thenRun(() -> exit(UNKNOWN_EXIT_CODE));
+      } else {
+        exit(UNKNOWN_EXIT_CODE);
+      }
+    }
+
+    @Override
+    public long pid() {
+      return pid;
+    }
+
+    @Override
+    public ProcessHandle toHandle() {
+      if (pid < 0L || exitCode.isDone()) {
+        throw new UnsupportedOperationException("not running");
+      }
+
+      return ProcessHandle.of(pid).orElseThrow(() -> new UnsupportedOperationException("not running"));
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return OutputStream.nullOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return InputStream.nullInputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return InputStream.nullInputStream();
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+      try {
+        return exitCode.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+
+    @Override
+    public int exitValue() {
+      if (!exitCode.isDone()) {
+        throw new IllegalThreadStateException("task is still running");
+      }
+
+      return exitCode.join();
+    }
+
+    @Override
+    public boolean isAlive() {
+      return !exitCode.isDone();
+    }
+
+    @Override
+    public void destroy() {
+      try {
+        toHandle().destroy();
+      } catch (UnsupportedOperationException e) {
+        // Already gone
+      }
+    }
+
+    @Override
+    public Process destroyForcibly() {
+      try {
+        toHandle().destroyForcibly();
+      } catch (UnsupportedOperationException e) {
+        // Already gone
+      }
+
+      return this;
+    }
+
+    @Override
+    public CompletableFuture<Process> onExit() {
+      return exitCode.thenApply(code -> this);
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.zulily.omicron.crontab.Schedule;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoField;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link JobScheduler} that compiles every scheduled job into an inverted index: one bitset of
+ * job ordinals for each minute, hour, day of month, month and day of week value
+ * <p>
+ * The jobs due in a minute are the intersection of five bitsets, which costs O(jobs / 64)
+ * word operations regardless of how many jobs are due
+ * <p>
+ * Ordinals of removed jobs are recycled so the bitsets stay as dense as the job set
+ */
+final class IndexJobScheduler implements JobScheduler {
+
+  private final long[][] minuteIndex = new long[60][];
+  private final long[][] hourIndex = new long[24][];
+  private final long[][] dayIndex = new long[32][];
+  private final long[][] monthIndex = new long[13][];
+  private final long[][] dayOfWeekIndex = new long[7][];
+
+  private final IdentityHashMap<Job, Integer> ordinals = Maps.newIdentityHashMap();
+
+  private Job[] jobs = new Job[0];
+  private int[] freeOrdinals = new int[0];
+  private int freeOrdinalCount = 0;
+  private int ordinalCount = 0;
+  private int words = 0;
+
+  IndexJobScheduler() {
+    for (long[][] index : allIndexes()) {
+      Arrays.fill(index, new long[0]);
+    }
+  }
+
+  @Override
+  public void add(final Job job, final ZonedDateTime now) {
+    checkNotNull(job, "job");
+
+    if (ordinals.containsKey(job)) {
+      return;
+    }
+
+    final int ordinal = freeOrdinalCount > 0 ? freeOrdinals[--freeOrdinalCount] : ordinalCount++;
+
+    ensureCapacity(ordinal);
+
+    ordinals.put(job, ordinal);
+    jobs[ordinal] = job;
+
+    final Schedule schedule = job.getSchedule();
+
+    setBits(minuteIndex, schedule.getMinuteMask(), ordinal);
+    setBits(hourIndex, schedule.getHourMask() & 0xFFFFFFFFL, ordinal);
+    setBits(dayIndex, schedule.getDayMask() & 0xFFFFFFFFL, ordinal);
+    setBits(monthIndex, schedule.getMonthMask() & 0xFFFFFFFFL, ordinal);
+    setBits(dayOfWeekIndex, schedule.getDayOfWeekMask() & 0xFFFFFFFFL, ordinal);
+  }
+
+  @Override
+  public void remove(final Job job) {
+    final Integer ordinal = ordinals.remove(job);
+
+    if (ordinal == null) {
+      return;
+    }
+
+    final int word = ordinal >>> 6;
+    final long clearMask = ~(1L << ordinal);
+
+    for (long[][] index : allIndexes()) {
+      for (long[] bitset : index) {
+        bitset[word] &= clearMask;
+      }
+    }
+
+    jobs[ordinal] = null;
+
+    if (freeOrdinalCount == freeOrdinals.length) {
+      freeOrdinals = Arrays.copyOf(freeOrdinals, Math.max(16, freeOrdinals.length * 2));
+    }
+
+    freeOrdinals[freeOrdinalCount++] = ordinal;
+  }
+
+  @Override
+  public List<Job> dueJobs(final ZonedDateTime tick) {
+    checkNotNull(tick, "tick");
+
+    final long[] minutes = minuteIndex[tick.get(ChronoField.MINUTE_OF_HOUR)];
+    final long[] hours = hourIndex[tick.get(ChronoField.HOUR_OF_DAY)];
+    final long[] days = dayIndex[tick.get(ChronoField.DAY_OF_MONTH)];
+    final long[] months = monthIndex[tick.get(ChronoField.MONTH_OF_YEAR)];
+    final long[] daysOfWeek = dayOfWeekIndex[tick.get(ChronoField.DAY_OF_WEEK) % 7]; // crontab Sunday == 0
+
+    final ArrayList<Job> result = Lists.newArrayList();
+
+    for (int word = 0; word < words; word++) {
+
+      long due = minutes[word] & hours[word] & days[word] & months[word] & daysOfWeek[word];
+
+      while (due != 0) {
+        result.add(jobs[(word << 6) + Long.numberOfTrailingZeros(due)]);
+        due &= due - 1;
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  public int size() {
+    return ordinals.size();
+  }
+
+  private void ensureCapacity(final int ordinal) {
+    if (ordinal < jobs.length) {
+      return;
+    }
+
+    final int newWords = Math.max(words * 2, (ordinal >>> 6) + 1);
+
+    for (long[][] index : allIndexes()) {
+      for (int value = 0; value < index.length; value++) {
+        index[value] = Arrays.copyOf(index[value], newWords);
+      }
+    }
+
+    jobs = Arrays.copyOf(jobs, newWords << 6);
+    words = newWords;
+  }
+
+  private static void setBits(final long[][] index, final long valueMask, final int ordinal) {
+    long remaining = valueMask;
+
+    while (remaining != 0) {
+      index[Long.numberOfTrailingZeros(remaining)][ordinal >>> 6] |= 1L << ordinal;
+      remaining &= remaining - 1;
+    }
+  }
+
+  private long[][][] allIndexes() {
+    return new long[][][]{minuteIndex, hourIndex, dayIndex, monthIndex, dayOfWeekIndex};
+  }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.zulily.omicron.Utils.error;
+import static com.zulily.omicron.Utils.info;
+import static com.zulily.omicron.Utils.warn;
+
+/**
+ * A {@link TaskExecutor} that runs "java:" commands inside omicron's own JVM instead of starting a process
+ * <p>
+ * The command names a class with a public no-argument constructor that implements {@link Runnable} or
+ * {@link Callable}, e.g. "java:com.example.PurgeSessions". The class is loaded from a directory of classes
+ * and jars, and each task gets a new instance run on its own thread. A Runnable exits with 0, a Callable
+ * with the Integer it returns (0 for any other result), and a task that throws exits with 1
+ * <p>
+ * Tasks run as the user omicron runs as, so a line for any other user is refused. They share omicron's
+ * heap and standard streams: task output is not captured, no resource usage is recorded beyond wall time,
+ * and a timeout can only interrupt the task's thread
+ * <p>
+ * Classes are loaded once per directory and reloaded when the set of jars or their timestamps change -
+ * tasks still running keep the classes they were started with, and the replaced class loader is closed
+ * once the last of them finishes. Directories that no scheduled job uses any more are dropped on reload
+ * (see {@link #removeUnused(Set)})
+ */
+final class JavaTaskExecutor implements TaskExecutor {
+  static final String COMMAND_PREFIX = "java:";
+
+  private static final ConcurrentMap<Path, JavaTaskExecutor> EXECUTORS = new ConcurrentHashMap<>();
+
+  private final Path classpathDirectory;
+
+  // Guarded by this
+  private List<String> loadedJars = Collections.emptyList();
+  private LoadedClasses loadedClasses;
+  private boolean retired = false;
+
+  private JavaTaskExecutor(final Path classpathDirectory) {
+    this.classpathDirectory = classpathDirectory;
+  }
+
+  /**
+   * @param classpathDirectory The directory to load task classes from - classes in package directories, and jars directly in it
+   * @return The executor for the directory, shared so that classes are only loaded once
+   */
+  static JavaTaskExecutor forClasspath(final Path classpathDirectory) {
+    checkNotNull(classpathDirectory, "classpathDirectory");
+
+    return EXECUTORS.computeIfAbsent(classpathDirectory.toAbsolutePath().normalize(), JavaTaskExecutor::new);
+  }
+
+  /**
+   * Drops the executors of directories that are not among the given ones, closing their class loaders once
+   * the tasks still using them have finished
+   *
+   * @param classpathDirectoriesInUse The classpath directories of the scheduled jobs
+   */
+  static void removeUnused(final Set<Path> classpathDirectoriesInUse) {
+    checkNotNull(classpathDirectoriesInUse, "classpathDirectoriesInUse");
+
+    final Set<Path> inUse = classpathDirectoriesInUse.stream().map(path -> path.toAbsolutePath().normalize()).collect(Collectors.toSet());
+
+    for (final Map.Entry<Path, JavaTaskExecutor> entry : EXECUTORS.entrySet()) {
+      if (!inUse.contains(entry.getKey()) && EXECUTORS.remove(entry.getKey(), entry.getValue())) {
+        entry.getValue().retire();
+      }
+    }
+  }
+
+  /**
+   * Gives up the current classes of an executor that is no longer shared - tasks created before then can
+   * still start through it, each with classes that are closed once it finishes
+   */
+  private synchronized void retire() {
+    retired = true;
+
+    if (loadedClasses != null) {
+      discard(loadedClasses);
+
+      loadedClasses = null;
+      loadedJars = Collections.emptyList();
+    }
+  }
+
+  /**
+   * @param commandLine A crontab command
+   * @return true if the command is one for this executor
+   */
+  static boolean accepts(final String commandLine) {
+    return commandLine.startsWith(COMMAND_PREFIX);
+  }
+
+  @Override
+  public Process start(final RunningTask runningTask) throws Exception {
+    checkNotNull(runningTask, "runningTask");
+
+    final String className = runningTask.getCommandLine().substring(COMMAND_PREFIX.length()).trim();
+
+    checkArgument(!className.isEmpty() && className.chars().noneMatch(Character::isWhitespace), "expected a single class name after %s", COMMAND_PREFIX);
+
+    final String processUser = System.getProperty("user.name");
+
+    if (!runningTask.getExecutingUser().equals(processUser)) {
+
+      warn("java: tasks run as {0} inside omicron and cannot run as {1}: {2}", processUser, runningTask.getExecutingUser(), runningTask.getCommandLine());
+
+      return null;
+    }
+
+    final LoadedClasses classes = acquireClasses();
+
+    boolean started = false;
+
+    try {
+
+      final Object task = Class.forName(className, true, classes.classLoader).getConstructor().newInstance();
+
+      checkArgument(task instanceof Runnable || task instanceof Callable, "%s is neither a Runnable nor a Callable", className);
+
+      final JavaTaskProcess process = new JavaTaskProcess();
+
+      final Thread thread = new Thread(() -> {
+        final int exitCode;
+
+        // Released before the exit is reported, so a replaced class loader is closed by the time the task completes
+        try {
+          exitCode = call(task, runningTask.getCommandLine());
+        } finally {
+          release(classes);
+        }
+
+        process.exit(exitCode);
+      }, "omicron-java-task-" + runningTask.getTaskId());
+
+      thread.setContextClassLoader(classes.classLoader);
+      thread.setDaemon(true);
+
+      process.thread = thread;
+
+      thread.start();
+
+      started = true;
+
+      return process;
+
+    } finally {
+      if (!started) {
+        release(classes);
+      }
+    }
+  }
+
+  private static int call(final Object task, final String commandLine) {
+    try {
+
+      if (task instanceof Callable) {
+        final Object result = ((Callable<?>) task).call();
+
+        return result instanceof Integer ? (Integer) result : 0;
+      }
+
+      ((Runnable) task).run();
+
+      return 0;
+
+    } catch (Throwable e) {
+      error("java: task failed: {0}\n{1}", commandLine, Throwables.getStackTraceAsString(e));
+
+      return 1;
+    }
+  }
+
+  /**
+   * @return The current classes of the directory, counted as in use until passed to {@link #release(LoadedClasses)}
+   */
+  private synchronized LoadedClasses acquireClasses() throws IOException {
+    final List<String> jars = Lists.newArrayList();
+
+    try (DirectoryStream<Path> directory = Files.newDirectoryStream(classpathDirectory, "*.jar")) {
+      for (final Path jar : directory) {
+        jars.add(jar.getFileName() + "@" + Files.getLastModifiedTime(jar).toMillis());
+      }
+    }
+
+    Collections.sort(jars);
+
+    if (loadedClasses == null || !jars.equals(loadedJars)) {
+
+      final List<URL> urls = Lists.newArrayList(classpathDirectory.toUri().toURL());
+
+      for (final String jar : jars) {
+        urls.add(classpathDirectory.resolve(jar.substring(0, jar.lastIndexOf('@'))).toUri().toURL());
+      }
+
+      info("Loading java: tasks from {0} with {1} jar(s)", classpathDirectory.toString(), String.valueOf(jars.size()));
+
+      final LoadedClasses replaced = this.loadedClasses;
+
+      this.loadedClasses = new LoadedClasses(new URLClassLoader(urls.toArray(new URL[0]), JavaTaskExecutor.class.getClassLoader()));
+      this.loadedJars = jars;
+
+      if (replaced != null) {
+        discard(replaced);
+      }
+    }
+
+    final LoadedClasses acquired = loadedClasses;
+
+    acquired.taskCount++;
+
+    if (retired) {
+      discard(acquired);
+
+      loadedClasses = null;
+      loadedJars = Collections.emptyList();
+    }
+
+    return acquired;
+  }
+
+  /**
+   * Closes classes no later task is started with, right away or once the last task using them finishes
+   */
+  private void discard(final LoadedClasses classes) {
+    classes.replaced = true;
+
+    if (classes.taskCount == 0) {
+      classes.close();
+    }
+  }
+
+  /**
+   * Called once a task acquired through {@link #acquireClasses()} has finished, or failed to start
+   */
+  private synchronized void release(final LoadedClasses classes) {
+    classes.taskCount--;
+
+    if (classes.replaced && classes.taskCount == 0) {
+      classes.close();
+    }
+  }
+
+  /**
+   * A class loader for the directory and the number of tasks using it
+   */
+  private static final class LoadedClasses {
+    private final URLClassLoader classLoader;
+
+    // Guarded by the executor
+    private int taskCount = 0;
+    private boolean replaced = false;
+
+    private LoadedClasses(final URLClassLoader classLoader) {
+      this.classLoader = classLoader;
+    }
+
+    private void close() {
+      try {
+        classLoader.close();
+      } catch (IOException e) {
+        warn("Failed to close a replaced java: task class loader: {0}", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * The {@link Process} view of a task running on a thread of this JVM - it has no OS process, no handle and no streams
+   */
+  private static final class JavaTaskProcess extends Process {
+    private final CompletableFuture<Integer> exitCode = new CompletableFuture<>();
+    private volatile Thread thread;
+
+    private void exit(final int code) {
+      exitCode.complete(code);
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return OutputStream.nullOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return InputStream.nullInputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return InputStream.nullInputStream();
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+      try {
+        return exitCode.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+
+    @Override
+    public int exitValue() {
+      if (!exitCode.isDone()) {
+        throw new IllegalThreadStateException("java: task is still running");
+      }
+
+      return exitCode.join();
+    }
+
+    @Override
+    public boolean isAlive() {
+      return !exitCode.isDone();
+    }
+
+    @Override
+    public void destroy() {
+      final Thread taskThread = this.thread;
+
+      if (taskThread != null) {
+        taskThread.interrupt();
+      }
+    }
+
+    @Override
+    public CompletableFuture<Process> onExit() {
+      return exitCode.thenApply(code -> this);
+    }
+  }
+}
@@ -17,6 +17,7 @@ package com.zulily.omicron.scheduling;
 
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import com.zulily.omicron.EvictingTreeSet;
 import com.zulily.omicron.Utils;
 import com.zulily.omicron.conf.ConfigKey;
@@ -24,10 +25,15 @@ import com.zulily.omicron.conf.Configuration;
 import com.zulily.omicron.crontab.CrontabExpression;
 import com.zulily.omicron.crontab.Schedule;
 
-import java.time.Clock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.ZonedDateTime;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -50,14 +56,24 @@ public final class Job implements Comparable<Job> {
   private final String commandLine;
   private final String executingUser;
   private Configuration configuration;
+  // Guarded by reentrantLock - tasks complete on process exit threads
   private final LinkedList<RunningTask> runningTasks = Lists.newLinkedList();
   private final EvictingTreeSet<TaskLogEntry> taskLog = new EvictingTreeSet<>(50, true);
   private final ReentrantLock reentrantLock = new ReentrantLock(true);
+  // Guarded by reentrantLock - bumped on every task log write
+  private long taskLogVersion = 0L;
 
   private boolean active = true;
 
   private int scheduledRunCount = 0;
 
+  // Replaced when the output settings change - the previous instance stays with its running tasks
+  private volatile TaskOutput taskOutput;
+
+  // Guarded by reentrantLock - the combined usage of every task that ran to completion
+  private ResourceUsage totalResourceUsage = ResourceUsage.NONE;
+  private int finishedTaskCount = 0;
+
   /**
    * Constructor
    *
@@ -85,8 +101,10 @@ public final class Job implements Comparable<Job> {
         return false;
       }
 
-      if (runningTasks.size() >= configuration.getInt(ConfigKey.TaskMaxInstanceCount)) {
-        warn("{0} skipped execution because there are already {1} running", commandLine, String.valueOf(runningTasks.size()));
+      final int runningTaskCount = getRunningTaskCount();
+
+      if (runningTaskCount >= configuration.getInt(ConfigKey.TaskMaxInstanceCount)) {
+        warn("{0} skipped execution because there are already {1} running", commandLine, String.valueOf(runningTaskCount));
         return false;
       }
 
@@ -100,24 +118,19 @@ public final class Job implements Comparable<Job> {
   /**
    * The primary work routine for scheduled tasks.
    * <p>
-   * Evaluates the schedule against the current calendar minute
-   * Removes old references to running tasks
+   * Called by the {@link JobScheduler} for each calendar minute the job is scheduled in
+   * Launches a task unless the job is inactive or already running too many tasks
    * Calculates the operating statistics of the jobs being launched
    *
-   * @return True if a task was launched, False otherwise
+   * @param jobInstant The calendar minute being evaluated
+   * @param admissionController The controller to launch the task's process through
+   * @return True if a task was launched or queued for launch, False otherwise
    */
-  public boolean run() {
-
-    final ZonedDateTime now = ZonedDateTime.now(Clock.systemUTC());
+  boolean run(final ZonedDateTime jobInstant, final AdmissionController admissionController) {
+    checkNotNull(jobInstant, "jobInstant");
+    checkNotNull(admissionController, "admissionController");
 
-    final ZonedDateTime jobInstant = ZonedDateTime.now(configuration.getClock());
-
-    // Cleans out old process pointers and log entries
-    sweepRunningTasks();
-
-    if (!schedule.timeInSchedule(jobInstant)) {
-      return false;
-    }
+    final long now = configuration.getClock().millis();
 
     this.scheduledRunCount++;
 
@@ -127,31 +140,45 @@ public final class Job implements Comparable<Job> {
         scheduledRunCount,
         commandLine,
         executingUser,
-        configuration.getInt(ConfigKey.TaskTimeoutMinutes),
-        configuration.getString(ConfigKey.CommandSu),
-        configuration.getString(ConfigKey.CommandKill));
-
-      // Most recent run to the start of the list to
-      // allow ordered deque from the end of the list
-      runningTasks.addFirst(runningTask);
-
-      runningTask.start();
-
-      writeLogEntry(
-        new TaskLogEntry(
-          runningTask.getTaskId(),
-          TaskStatus.Started,
-          now.toInstant().toEpochMilli()
-        )
+        getTaskTimeoutMillis(),
+        getTaskExecutor(),
+        TimeUnit.SECONDS.toMillis(configuration.getInt(ConfigKey.TaskKillGraceSeconds)),
+        configuration.getString(ConfigKey.TaskCgroupRoot),
+        configuration.getInt(ConfigKey.TaskMemoryMaxMegabytes),
+        configuration.getInt(ConfigKey.TaskCpuMaxPercent),
+        getTaskOutput(),
+        configuration.getClock(),
+        task -> {
+          admissionController.taskFinished();
+          taskCompleted(task);
+        });
+
+      // Queued tasks count as running instances, so a backed up queue cannot pile up runs of the same job
+      reentrantLock.lock();
+      try {
+        runningTasks.add(runningTask);
+      } finally {
+        reentrantLock.unlock();
+      }
+
+      final boolean launched = admissionController.submit(
+        runningTask,
+        getMaxDeferMillis(),
+        (taskStatus, timestamp) -> writeLogEntry(new TaskLogEntry(runningTask.getTaskId(), taskStatus, timestamp))
       );
 
-      info("Line: {0} -> execute @ {1}", String.valueOf(crontabExpression.getLineNumber()), Utils.MESSAGE_DATETIME_FORMATTER.format(jobInstant));
+      info(
+        "Line: {0} -> {1} @ {2}",
+        String.valueOf(crontabExpression.getLineNumber()),
+        launched ? "execute" : "queued",
+        Utils.MESSAGE_DATETIME_FORMATTER.format(jobInstant)
+      );
 
       return true;
 
     } else {
 
-      writeLogEntry(new TaskLogEntry(this.scheduledRunCount, TaskStatus.Skipped, now.toInstant().toEpochMilli()));
+      writeLogEntry(new TaskLogEntry(this.scheduledRunCount, TaskStatus.Skipped, now));
 
     }
 
@@ -160,40 +187,172 @@ public final class Job implements Comparable<Job> {
   }
 
 
-  private void sweepRunningTasks() {
+  /**
+   * @return What starts this job's tasks - in omicron's JVM for java: commands when a classpath is configured,
+   * and as the executing user according to the launch strategy otherwise
+   */
+  private TaskExecutor getTaskExecutor() {
+    final Path javaClasspath = getJavaClasspath();
+
+    if (javaClasspath != null) {
+      return JavaTaskExecutor.forClasspath(javaClasspath);
+    }
+
+    return getTaskLaunchStrategy().executorFor(executingUser, configuration);
+  }
+
+  /**
+   * @return The directory this job's java: tasks are loaded from, or null if its tasks are processes
+   */
+  Path getJavaClasspath() {
+    final String classpath = configuration.getString(ConfigKey.TaskJavaClasspath).trim();
+
+    return !classpath.isEmpty() && JavaTaskExecutor.accepts(commandLine) ? Paths.get(classpath) : null;
+  }
+
+  /**
+   * @return The command of the launch helper this job's tasks are forked from, or null if they do not go through one
+   */
+  List<String> getHelperCommand() {
+    if (getJavaClasspath() != null || getTaskLaunchStrategy() != TaskLaunchStrategy.Helper) {
+      return null;
+    }
 
-    // Newer items are added to the start of the list
-    // so descending traversal results in ascending chronological
-    // order of evaluation
-    final int runningTaskCount = runningTasks.size();
+    return HelperTaskExecutor.helperCommand(configuration.getString(ConfigKey.CommandSu), executingUser);
+  }
 
-    for (int index = runningTaskCount - 1; index >= 0; index--) {
+  private TaskLaunchStrategy getTaskLaunchStrategy() {
+    final TaskLaunchStrategy taskLaunchStrategy = TaskLaunchStrategy.fromString(configuration.getString(ConfigKey.TaskLaunchStrategy));
 
-      final RunningTask runningTask = runningTasks.get(index);
+    // A task in a cgroup has to be started by omicron, which moves it into the cgroup before it runs
+    if (taskLaunchStrategy == TaskLaunchStrategy.Helper && !configuration.getString(ConfigKey.TaskCgroupRoot).trim().isEmpty()) {
+      return TaskLaunchStrategy.Su;
+    }
 
-      if (runningTask.isDone()) {
+    return taskLaunchStrategy;
+  }
 
-        runningTasks.remove(index);
+  /**
+   * @return Where the output of this job's tasks is captured, or null if tasks inherit omicron's stdout and stderr
+   */
+  private TaskOutput getTaskOutput() {
+    final String directory = configuration.getString(ConfigKey.TaskOutputDirectory).trim();
 
-        writeLogEntry(new TaskLogEntry(
-          runningTask.getTaskId(),
-          runningTask.getTaskStatus(),
-          runningTask.getEndTimeMilliseconds()));
+    if (directory.isEmpty()) {
+      return null;
+    }
 
-      }
+    // Named after the crontab line, so the file stays with the job as lines move around
+    final Path file = Paths.get(
+      directory,
+      executingUser + "-" + Hashing.murmur3_32().newHasher()
+        .putString(crontabExpression.getRawExpression(), StandardCharsets.UTF_8)
+        .putString(commandLine, StandardCharsets.UTF_8)
+        .hash() + ".log"
+    );
 
+    final long maxBytes = configuration.getInt(ConfigKey.TaskOutputMaxKilobytes) * 1024L;
+    final int backupCount = configuration.getInt(ConfigKey.TaskOutputFileCount);
+
+    final TaskOutput current = this.taskOutput;
+
+    if (current != null && current.hasSettings(file, maxBytes, backupCount)) {
+      return current;
+    }
+
+    this.taskOutput = new TaskOutput(file, maxBytes, backupCount);
+
+    return this.taskOutput;
+  }
+
+  /**
+   * @return The end of the captured output as of the last task to finish, or an empty string if output is not captured
+   */
+  public String getLastOutputTail() {
+    final TaskOutput current = this.taskOutput;
+
+    return current == null ? "" : current.getLastTail();
+  }
+
+  /**
+   * @return How long a launch may be held back while the host is under pressure, or -1 if the job is not deferrable
+   */
+  private long getMaxDeferMillis() {
+    if (!configuration.getBoolean(ConfigKey.TaskDeferrable)) {
+      return -1L;
+    }
+
+    final int deferMinutes = configuration.getInt(ConfigKey.TaskDeferMaxMinutes);
+
+    return deferMinutes < 0 ? Long.MAX_VALUE : TimeUnit.MINUTES.toMillis(deferMinutes);
+  }
+
+  /**
+   * @return The configured task timeout in milliseconds, or -1 if tasks are never killed
+   */
+  private long getTaskTimeoutMillis() {
+    final int timeoutSeconds = configuration.getInt(ConfigKey.TaskTimeoutSeconds);
+
+    if (timeoutSeconds > 0) {
+      return TimeUnit.SECONDS.toMillis(timeoutSeconds);
     }
 
+    final int timeoutMinutes = configuration.getInt(ConfigKey.TaskTimeoutMinutes);
+
+    return timeoutMinutes > 0 ? TimeUnit.MINUTES.toMillis(timeoutMinutes) : -1L;
+  }
+
+  /**
+   * Called from the process exit (or failed launch) of a task to drop the reference
+   * to it and log its final status right away
+   *
+   * @param runningTask The finished task
+   */
+  private void taskCompleted(final RunningTask runningTask) {
+    reentrantLock.lock();
+    try {
+
+      runningTasks.removeIf(task -> task == runningTask);
+
+      taskLog.add(new TaskLogEntry(
+        runningTask.getTaskId(),
+        runningTask.getTaskStatus(),
+        runningTask.getEndTimeMilliseconds(),
+        runningTask.getResourceUsage()));
+
+      taskLogVersion++;
+
+      // Tasks that never started have nothing to add
+      if (runningTask.getPid() > -1L) {
+        totalResourceUsage = totalResourceUsage.plus(runningTask.getResourceUsage());
+        finishedTaskCount++;
+      }
+
+    } finally {
+      reentrantLock.unlock();
+    }
   }
 
   public CrontabExpression getCrontabExpression() {
     return crontabExpression;
   }
 
+  Schedule getSchedule() {
+    return schedule;
+  }
+
   public Configuration getConfiguration() {
     return configuration;
   }
 
+  /**
+   * Swaps in the configuration from a reload without disturbing the job's history,
+   * running tasks or alert state
+   * <p>
+   * The new values apply from the next task launch
+   *
+   * @param configuration The potentially overridden configuration to run against
+   */
   public void setConfiguration(final Configuration configuration) {
     this.configuration = checkNotNull(configuration, "configuration");
   }
@@ -211,7 +370,16 @@ public final class Job implements Comparable<Job> {
   }
 
   public boolean isRunning() {
-    return this.runningTasks.size() > 0;
+    return getRunningTaskCount() > 0;
+  }
+
+  private int getRunningTaskCount() {
+    reentrantLock.lock();
+    try {
+      return runningTasks.size();
+    } finally {
+      reentrantLock.unlock();
+    }
   }
 
   @SuppressWarnings("NullableProblems")
@@ -232,12 +400,13 @@ public final class Job implements Comparable<Job> {
   @Override
   public boolean equals(Object o) {
 
-    // Involving the config match ensures that config updates
-    // will differentiate scheduled tasks as new revisions when the crontab
-    // is reloaded
+    // The configuration is deliberately left out so a config update
+    // carries the job's history and alert state over to the reloaded job -
+    // the substituted command line is included so a variable change
+    // still differentiates scheduled tasks as new revisions
     return o instanceof Job
       && this.crontabExpression.equals(((Job) o).crontabExpression)
-      && this.configuration.equals(((Job) o).getConfiguration());
+      && this.commandLine.equals(((Job) o).commandLine);
   }
 
   @Override
@@ -255,6 +424,71 @@ public final class Job implements Comparable<Job> {
     reentrantLock.lock();
     try {
       taskLog.add(taskLogEntry);
+      taskLogVersion++;
+    } finally {
+      reentrantLock.unlock();
+    }
+  }
+
+  /**
+   * @return The combined resource usage of every task of this job that has finished since it was scheduled
+   */
+  public ResourceUsage getTotalResourceUsage() {
+    reentrantLock.lock();
+    try {
+      return totalResourceUsage;
+    } finally {
+      reentrantLock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of tasks included in {@link #getTotalResourceUsage()}
+   */
+  public int getFinishedTaskCount() {
+    reentrantLock.lock();
+    try {
+      return finishedTaskCount;
+    } finally {
+      reentrantLock.unlock();
+    }
+  }
+
+  /**
+   * @return A number that changes whenever an entry is written to the task log - read it
+   * before {@link #filterLog(Set)} to tell whether a filtered view may be out of date
+   */
+  public long getTaskLogVersion() {
+    reentrantLock.lock();
+    try {
+      return taskLogVersion;
+    } finally {
+      reentrantLock.unlock();
+    }
+  }
+
+  /**
+   * @param statusFilter The statuses to look for
+   * @return The latest task log entry with one of the given statuses, or null if there is none
+   */
+  public TaskLogEntry lastLogEntry(final Set<TaskStatus> statusFilter) {
+    checkNotNull(statusFilter, "statusFilter");
+
+    reentrantLock.lock();
+    try {
+
+      final Iterator<TaskLogEntry> entries = taskLog.descendingIterator();
+
+      while (entries.hasNext()) {
+        final TaskLogEntry entry = entries.next();
+
+        if (statusFilter.contains(entry.getTaskStatus())) {
+          return entry;
+        }
+      }
+
+      return null;
+
     } finally {
       reentrantLock.unlock();
     }
@@ -19,43 +19,98 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.zulily.omicron.alert.AlertManager;
+import com.zulily.omicron.conf.ConfigKey;
 import com.zulily.omicron.conf.Configuration;
-import com.zulily.omicron.crontab.CronVariable;
 import com.zulily.omicron.crontab.Crontab;
-import com.zulily.omicron.crontab.CrontabExpression;
 
 import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.zulily.omicron.Utils.error;
 import static com.zulily.omicron.Utils.info;
+import static com.zulily.omicron.Utils.warn;
 
 /**
  * The container class for scheduled tasks, and the logical engine for launching tasks
  * and triggering alert SLA evaluation.
  */
 public final class JobManager {
+  private static final long MAX_LAUNCH_LAG_MS = 1000L;
+
+  // How many of the most CPU hungry jobs are listed in the hourly resource usage report
+  private static final int RESOURCE_REPORT_SIZE = 5;
+
   private final ArrayList<Job> retiredJobs = Lists.newArrayList();
+  private final TaskTimeoutService taskTimeoutService = new TaskTimeoutService();
+  private final AdmissionController admissionController;
+  private final Function<TaskExecutionMode, TaskLauncher> taskLauncherFactory;
+
   private HashSet<Job> jobSet = Sets.newHashSet();
   private AlertManager alertManager;
+  private Configuration configuration;
+  private SchedulerMode schedulerMode;
+  private JobScheduler jobScheduler;
+  private TaskExecutionMode taskExecutionMode;
+  private TaskLauncher taskLauncher;
+  private boolean saturated = false;
+  private int lastDueCount = 0;
+  private int lastExecuteCount = 0;
 
   public JobManager(final Configuration configuration, final Crontab crontab) {
     checkNotNull(configuration, "configuration");
     checkNotNull(crontab, "crontab");
 
+    this.taskLauncherFactory = mode -> new ThreadTaskLauncher(mode, taskTimeoutService);
+    this.admissionController = new AdmissionController();
+
     alertManager = new AlertManager(configuration);
 
-    updateConfiguration(configuration, crontab);
+    updateConfiguration(new JobSetUpdate(configuration, crontab));
+
+  }
+
+  /**
+   * Constructor for running jobs through a launcher other than the process launching one
+   * <p>
+   * Queued tasks are only admitted when {@link AdmissionController#admitQueued()} is called
+   * on {@link #getAdmissionController()}, so a simulated clock decides when they launch
+   *
+   * @param configuration       The loaded global configuration
+   * @param crontab             The crontab to build jobs from
+   * @param alertManager        The alert manager to evaluate SLAs with
+   * @param taskLauncherFactory Creates the launcher for a configured execution mode
+   */
+  JobManager(
+    final Configuration configuration,
+    final Crontab crontab,
+    final AlertManager alertManager,
+    final Function<TaskExecutionMode, TaskLauncher> taskLauncherFactory
+  ) {
+    checkNotNull(configuration, "configuration");
+    checkNotNull(crontab, "crontab");
+
+    this.taskLauncherFactory = checkNotNull(taskLauncherFactory, "taskLauncherFactory");
+    this.alertManager = checkNotNull(alertManager, "alertManager");
+    this.admissionController = new AdmissionController(false);
 
+    updateConfiguration(new JobSetUpdate(configuration, crontab));
   }
 
   /**
    * The main "work" routine in taskmanager
    * <p>
-   * Loops through the task list and attempts to run each
+   * Asks the scheduler for the jobs due in the current calendar minute
+   * and attempts to run each - finished tasks report back on their own
    * <p>
    * After tasks are run, the alert manager is triggered
    * to evaluate the subsequent state of the tasks and send
@@ -63,16 +118,32 @@ public final class JobManager {
    */
   public void run() {
 
-
     final long taskEvaluationStartMs = Clock.systemUTC().millis();
 
+    final ZonedDateTime tick = ZonedDateTime.now(configuration.getClock()).truncatedTo(ChronoUnit.MINUTES);
+
+    int dueCount = 0;
     int executeCount = 0;
 
-    for (final Job job : jobSet) {
+    // Time from the minute boundary to the first task launch
+    long launchLagMs = -1L;
+
+    updatePressure();
+
+    for (final Job job : jobScheduler.dueJobs(tick)) {
+
+      dueCount++;
 
       try {
 
-        if (job.run()) {
+        final long launchMs = configuration.getClock().millis();
+
+        if (job.run(tick, admissionController)) {
+
+          if (executeCount == 0) {
+            launchLagMs = launchMs - tick.toInstant().toEpochMilli();
+          }
+
           executeCount++;
         }
 
@@ -83,8 +154,28 @@ public final class JobManager {
 
     }
 
+    this.lastDueCount = dueCount;
+    this.lastExecuteCount = executeCount;
+
     if (executeCount > 0) {
-      info("Task evaluation took {0} ms: running {1} task(s)", String.valueOf(Clock.systemUTC().millis() - taskEvaluationStartMs), String.valueOf(executeCount));
+      info("Task evaluation took {0} ms: running {1} task(s), first launched {2} ms after the minute boundary",
+        String.valueOf(Clock.systemUTC().millis() - taskEvaluationStartMs), String.valueOf(executeCount), String.valueOf(launchLagMs));
+
+      if (launchLagMs > MAX_LAUNCH_LAG_MS) {
+        warn("Tasks launched {0} ms after the minute boundary", String.valueOf(launchLagMs));
+      }
+    }
+
+    final int queuedCount = admissionController.getQueuedCount();
+
+    if (queuedCount > 0) {
+      warn("{0} task(s) waiting for admission", String.valueOf(queuedCount));
+    }
+
+    final int deferredCount = admissionController.getDeferredCount();
+
+    if (deferredCount > 0) {
+      warn("{0} deferrable task(s) held back by system pressure", String.valueOf(deferredCount));
     }
 
     try {
@@ -98,6 +189,10 @@ public final class JobManager {
       // against retired tasks
       alertManager.sendAlerts(jobSet);
 
+      if (tick.getMinute() == 0) {
+        logResourceUsage();
+      }
+
     } catch (Exception e) {
       // This function should not throw exceptions that cause the outer timed loop to break
       error("Exception while retiring old tasks or sending notifications\n{0}", Throwables.getStackTraceAsString(e));
@@ -107,47 +202,98 @@ public final class JobManager {
 
   /**
    * Updates the scheduled tasks and alert manager with any changes from the config or crontab
+   * <p>
+   * The jobs are already built, so this only diffs them against the current
+   * job set and reschedules what changed
    *
-   * @param configuration The more current global configuration instance
-   * @param crontab       The more current crontab
+   * @param jobSetUpdate The more current configuration and the jobs built from its crontab
    */
-  public void updateConfiguration(final Configuration configuration, final Crontab crontab) {
-    checkNotNull(configuration, "configuration");
-    checkNotNull(crontab, "crontab");
+  public void updateConfiguration(final JobSetUpdate jobSetUpdate) {
+    checkNotNull(jobSetUpdate, "jobSetUpdate");
     checkNotNull(alertManager, "alertManager");
 
+    final Configuration configuration = jobSetUpdate.getConfiguration();
+
     this.alertManager.updateConfiguration(configuration);
 
-    final HashSet<Job> result = Sets.newHashSet();
+    final Configuration previousConfiguration = this.configuration;
+
+    this.configuration = configuration;
+
+    final ZonedDateTime now = ZonedDateTime.now(configuration.getClock());
 
-    final HashSet<Job> jobUpdates = Sets.newHashSet();
+    final SchedulerMode configuredMode = SchedulerMode.fromString(configuration.getString(ConfigKey.SchedulerMode));
 
-    for (final CrontabExpression crontabExpression : crontab.getCrontabExpressions()) {
+    // Queued execution times are computed in the configured timezone
+    final boolean timeZoneChanged = previousConfiguration != null && !previousConfiguration.getZoneId().equals(configuration.getZoneId());
 
-      // If there are overrides in the crontab for this expression, get them and apply them
-      final Configuration configurationOverride = crontab.getConfigurationOverrides().get(crontabExpression.getLineNumber());
+    if (configuredMode != schedulerMode || timeZoneChanged) {
 
-      final Job job = new Job(
-        crontabExpression,
-        substituteVariables(crontabExpression.getCommand(), crontab.getVariables()),
-        configurationOverride == null ? configuration : configurationOverride);
+      info("CRON UPDATE: Using {0} scheduler", configuredMode.name());
 
-      jobUpdates.add(job);
+      // Reschedule every job that is already active under the new mode or timezone
+      final JobScheduler previousScheduler = jobScheduler;
+
+      this.schedulerMode = configuredMode;
+      this.jobScheduler = configuredMode.createScheduler();
+
+      if (previousScheduler != null) {
+        jobSet.stream().filter(job -> job.isActive() && job.isRunnable()).forEach(job -> jobScheduler.add(job, now));
+      }
     }
 
-    // This is a view containing old scheduled tasks that have been removed or
-    // reconfigured
-    final Sets.SetView<Job> oldJobs = Sets.difference(jobSet, jobUpdates);
+    final TaskExecutionMode configuredExecutionMode = TaskExecutionMode.fromString(configuration.getString(ConfigKey.TaskExecutionMode));
 
-    info("CRON UPDATE: {0} tasks no longer scheduled or out of date", String.valueOf(oldJobs.size()));
+    TaskLauncher previousLauncher = null;
+
+    if (configuredExecutionMode != taskExecutionMode) {
+      previousLauncher = taskLauncher;
+
+      this.taskExecutionMode = configuredExecutionMode;
+      this.taskLauncher = taskLauncherFactory.apply(configuredExecutionMode);
+    }
+
+    admissionController.configure(
+      taskLauncher,
+      configuration.getClock(),
+      configuration.getInt(ConfigKey.TaskMaxConcurrent),
+      configuration.getInt(ConfigKey.TaskMaxLaunchRate)
+    );
+
+    // Only shut down once admissions can no longer pick it up - tasks already started
+    // keep running and report back through it
+    if (previousLauncher != null) {
+      previousLauncher.shutdown();
+    }
+
+    final HashSet<Job> result = Sets.newHashSet();
+
+    final Set<Job> jobUpdates = jobSetUpdate.getJobs();
+
+    // Partition the current jobs in a single pass rather than through set views,
+    // which repeat their lookups on every call
 
-    // This is a view of scheduled tasks that will not be updated by the cron reload
-    final Sets.SetView<Job> existingJobs = Sets.intersection(jobSet, jobUpdates);
+    // Old scheduled tasks that have been removed or reconfigured
+    final List<Job> oldJobs = Lists.newArrayList();
 
-    info("CRON UPDATE: {0} tasks unchanged", String.valueOf(existingJobs.size()));
+    // Scheduled tasks whose crontab line and command are unchanged - these keep their
+    // history, running tasks and alert state and only pick up the reloaded configuration
+    final List<Job> existingJobs = Lists.newArrayList();
 
-    // This is a view of scheduled tasks that are new or have been changed
-    final Sets.SetView<Job> newJobs = Sets.difference(jobUpdates, jobSet);
+    for (final Job job : jobSet) {
+      if (jobUpdates.contains(job)) {
+        existingJobs.add(job);
+      } else {
+        oldJobs.add(job);
+      }
+    }
+
+    // Scheduled tasks that are new or have been changed
+    final List<Job> newJobs = jobUpdates.stream().filter(job -> !jobSet.contains(job)).collect(Collectors.toList());
+
+    info("CRON UPDATE: {0} tasks no longer scheduled or out of date", String.valueOf(oldJobs.size()));
+
+    info("CRON UPDATE: {0} tasks unchanged or reconfigured", String.valueOf(existingJobs.size()));
 
     info("CRON UPDATE: {0} tasks are new or updated", String.valueOf(newJobs.size()));
 
@@ -156,30 +302,121 @@ public final class JobManager {
     // and transfer instances that haven't changed
     result.addAll(newJobs);
 
-    for (final Job job : jobSet) {
+    newJobs.stream().filter(Job::isRunnable).forEach(job -> jobScheduler.add(job, now));
+
+    for (final Job job : oldJobs) {
 
-      if (oldJobs.contains(job) && job.isRunning()) {
+      jobScheduler.remove(job);
 
+      if (job.isRunning()) {
         job.setActive(false);
         result.add(job);
 
         retiredJobs.add(job);
       }
+    }
 
-      if (existingJobs.contains(job)) {
+    for (final Job job : existingJobs) {
 
-        if (!job.isActive()) {
-          // Did someone re-add a task that was running and then removed?
-          // For whatever reason, it's now set to run again so just re-activate the instance
-          info("CRON UPDATE: Reactivating {0}", job.toString());
-          job.setActive(true);
-        }
+      job.setConfiguration(jobSetUpdate.getJob(job).getConfiguration());
 
-        result.add(job);
+      if (!job.isActive()) {
+        // Did someone re-add a task that was running and then removed?
+        // For whatever reason, it's now set to run again so just re-activate the instance
+        info("CRON UPDATE: Reactivating {0}", job.toString());
+        job.setActive(true);
+
+        // Otherwise it is dropped from the job set once its running task exits, while still being scheduled
+        retiredJobs.remove(job);
+
+        if (job.isRunnable()) {
+          jobScheduler.add(job, now);
+        }
       }
+
+      result.add(job);
     }
 
     this.jobSet = result;
+
+    // Helpers of users whose jobs were all removed or moved to another launch strategy would otherwise keep their su sessions,
+    // and class loaders of classpaths no job uses any more would stay open
+    HelperTaskExecutor.stopUnused(
+      result.stream().filter(Job::isActive).map(Job::getHelperCommand).filter(Objects::nonNull).collect(Collectors.toSet())
+    );
+
+    JavaTaskExecutor.removeUnused(
+      result.stream().filter(Job::isActive).map(Job::getJavaClasspath).filter(Objects::nonNull).collect(Collectors.toSet())
+    );
+  }
+
+  /**
+   * @return The number of jobs that were due in the last evaluated minute
+   */
+  int getLastDueCount() {
+    return lastDueCount;
+  }
+
+  /**
+   * @return The number of due jobs that launched or queued a task in the last evaluated minute - the rest were skipped
+   */
+  int getLastExecuteCount() {
+    return lastExecuteCount;
+  }
+
+  /**
+   * @return The admission controller tasks are launched through
+   */
+  AdmissionController getAdmissionController() {
+    return admissionController;
+  }
+
+  /**
+   * Reads the system pressure once per tick, if any threshold is configured, and tells the
+   * admission controller whether deferrable launches should be held back
+   */
+  private void updatePressure() {
+    final int maxCpuPressure = configuration.getInt(ConfigKey.PressureCpuMax);
+    final int maxMemoryPressure = configuration.getInt(ConfigKey.PressureMemoryMax);
+    final int maxLoadAverage = configuration.getInt(ConfigKey.PressureLoadMax);
+
+    boolean nowSaturated = false;
+
+    if (maxCpuPressure >= 0 || maxMemoryPressure >= 0 || maxLoadAverage >= 0) {
+
+      final SystemPressure systemPressure = SystemPressure.read();
+
+      nowSaturated = systemPressure.exceeds(maxCpuPressure, maxMemoryPressure, maxLoadAverage);
+
+      if (nowSaturated != saturated) {
+        if (nowSaturated) {
+          warn("Host under pressure ({0}), holding back deferrable tasks", systemPressure.toString());
+        } else {
+          info("Host pressure back under thresholds ({0})", systemPressure.toString());
+        }
+      }
+    }
+
+    this.saturated = nowSaturated;
+
+    admissionController.setSaturated(nowSaturated);
+  }
+
+  /**
+   * Logs the jobs whose tasks have used the most CPU since they were scheduled
+   */
+  private void logResourceUsage() {
+    jobSet
+      .stream()
+      .filter(job -> job.getFinishedTaskCount() > 0)
+      .sorted(Comparator.comparingLong((Job job) -> job.getTotalResourceUsage().getCpuMicros()).reversed())
+      .limit(RESOURCE_REPORT_SIZE)
+      .forEach(job -> info(
+        "Resource usage of line {0} over {1} task(s): {2}",
+        String.valueOf(job.getCrontabExpression().getLineNumber()),
+        String.valueOf(job.getFinishedTaskCount()),
+        job.getTotalResourceUsage().toString()
+      ));
   }
 
   private void retireOldTasks() {
@@ -192,19 +429,9 @@ public final class JobManager {
         info("Retiring inactive task: {0}", retiredTask.toString());
         retiredJobs.remove(index);
         jobSet.remove(retiredTask);
+        jobScheduler.remove(retiredTask);
       }
     }
   }
 
-  private static String substituteVariables(final String line, final List<CronVariable> variableList) {
-    String substituted = line;
-
-    for (final CronVariable cronVariable : variableList) {
-      substituted = cronVariable.applySubstitution(substituted);
-    }
-
-    return substituted;
-  }
-
-
 }
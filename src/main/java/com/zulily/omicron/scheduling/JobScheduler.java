@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+/**
+ * Tracks the active, runnable {@link Job} instances and determines which of them
+ * are due to run in a given calendar minute
+ * <p>
+ * Implementations are only accessed from the {@link JobManager} thread
+ */
+interface JobScheduler {
+
+  /**
+   * Starts scheduling a job
+   *
+   * @param job The job to schedule
+   * @param now The current time in the schedule evaluation timezone
+   */
+  void add(final Job job, final ZonedDateTime now);
+
+  /**
+   * Stops scheduling a job. Does nothing if the job is not scheduled.
+   *
+   * @param job The job to remove
+   */
+  void remove(final Job job);
+
+  /**
+   * Finds the jobs due in the given calendar minute
+   *
+   * @param tick The calendar minute being evaluated, truncated to the minute in the schedule evaluation timezone
+   * @return The due jobs
+   */
+  List<Job> dueJobs(final ZonedDateTime tick);
+
+  /**
+   * @return The number of scheduled jobs
+   */
+  int size();
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.Maps;
+import com.zulily.omicron.conf.Configuration;
+import com.zulily.omicron.crontab.Crontab;
+import com.zulily.omicron.crontab.CrontabExpression;
+import com.zulily.omicron.crontab.VariableSubstitution;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The complete set of jobs described by a configuration and crontab
+ * <p>
+ * Building the jobs (variable substitution, schedule compilation) is done when
+ * the instance is created, so it can happen away from the thread evaluating tasks.
+ * {@link JobManager#updateConfiguration(JobSetUpdate)} then only has to diff and swap
+ */
+public final class JobSetUpdate {
+  private final Configuration configuration;
+  private final Map<Job, Job> jobs;
+
+  /**
+   * Constructor
+   *
+   * @param configuration The global configuration the crontab was loaded with
+   * @param crontab       The crontab to build jobs from
+   */
+  public JobSetUpdate(final Configuration configuration, final Crontab crontab) {
+    this.configuration = checkNotNull(configuration, "configuration");
+    checkNotNull(crontab, "crontab");
+
+    // Keyed by itself so an equal, already scheduled job can find its replacement
+    final HashMap<Job, Job> result = Maps.newHashMap();
+
+    final VariableSubstitution variableSubstitution = crontab.getVariableSubstitution();
+
+    for (final CrontabExpression crontabExpression : crontab.getCrontabExpressions()) {
+
+      // If there are overrides in the crontab for this expression, get them and apply them
+      final Configuration configurationOverride = crontab.getConfigurationOverrides().get(crontabExpression.getLineNumber());
+
+      final Job job = new Job(
+        crontabExpression,
+        variableSubstitution.apply(crontabExpression.getCommand()),
+        configurationOverride == null ? configuration : configurationOverride);
+
+      result.put(job, job);
+    }
+
+    this.jobs = Collections.unmodifiableMap(result);
+  }
+
+  Configuration getConfiguration() {
+    return configuration;
+  }
+
+  Set<Job> getJobs() {
+    return jobs.keySet();
+  }
+
+  /**
+   * @param job A currently scheduled job
+   * @return The equal job built by this update, or null if the job is no longer scheduled
+   */
+  Job getJob(final Job job) {
+    return jobs.get(job);
+  }
+}
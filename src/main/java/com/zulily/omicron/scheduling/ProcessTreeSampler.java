@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.zulily.omicron.Utils.WHITESPACE_SPLITTER;
+
+/**
+ * Estimates the resources used by a task that does not run in a cgroup by sampling procfs
+ * <p>
+ * Every sample sums CPU time and IO over the task's live process tree. The stat and io files of
+ * a process also include its reaped children, so work done by short lived descendants is still
+ * counted once they have been waited on. The highest sum seen is kept, which makes the result a
+ * lower bound: whatever happens after the last sample, or in processes that detach from the tree,
+ * is missed. Run tasks in cgroups (task.cgroup.root) for exact numbers
+ */
+final class ProcessTreeSampler {
+  // /proc/<pid>/stat reports times in USER_HZ, which is 100 on every mainstream Linux architecture
+  private static final long MICROS_PER_TICK = 10_000L;
+
+  // Fields of /proc/<pid>/stat, counted from the state field that follows the command name
+  private static final int UTIME_FIELD = 11;
+  private static final int STIME_FIELD = 12;
+  private static final int CUTIME_FIELD = 13;
+  private static final int CSTIME_FIELD = 14;
+
+  private static final Path PROC = Paths.get("/proc");
+
+  // Guarded by this - samples run on the timeout service thread, the result is read on exit
+  private ResourceUsage usage = ResourceUsage.NONE;
+
+  /**
+   * Reads the current counters of a process and all of its descendants
+   *
+   * @param root The top of the process tree
+   */
+  void sample(final ProcessHandle root) {
+    checkNotNull(root, "root");
+
+    final List<ProcessHandle> processTree = Lists.newArrayList(root);
+
+    root.descendants().forEach(processTree::add);
+
+    long userCpuMicros = ResourceUsage.UNKNOWN;
+    long systemCpuMicros = ResourceUsage.UNKNOWN;
+    long peakMemoryBytes = ResourceUsage.UNKNOWN;
+    long readBytes = ResourceUsage.UNKNOWN;
+    long writeBytes = ResourceUsage.UNKNOWN;
+
+    for (final ProcessHandle processHandle : processTree) {
+
+      // Any of these can disappear part way through when the process exits
+      final Path processDirectory = PROC.resolve(String.valueOf(processHandle.pid()));
+
+      try {
+        final long[] times = parseStatTimes(new String(Files.readAllBytes(processDirectory.resolve("stat")), StandardCharsets.US_ASCII));
+
+        if (times != null) {
+          userCpuMicros = ResourceUsage.add(userCpuMicros, times[0]);
+          systemCpuMicros = ResourceUsage.add(systemCpuMicros, times[1]);
+        }
+      } catch (IOException e) {
+        // Skip this process
+      }
+
+      try {
+        final long maxRssKilobytes = TaskCgroup.sumField(Files.readAllLines(processDirectory.resolve("status"), StandardCharsets.US_ASCII), "VmHWM:");
+
+        if (maxRssKilobytes != ResourceUsage.UNKNOWN) {
+          peakMemoryBytes = Math.max(peakMemoryBytes, maxRssKilobytes * 1024L);
+        }
+      } catch (IOException e) {
+        // Skip this process
+      }
+
+      try {
+        final List<String> io = Files.readAllLines(processDirectory.resolve("io"), StandardCharsets.US_ASCII);
+
+        readBytes = ResourceUsage.add(readBytes, TaskCgroup.sumField(io, "read_bytes:"));
+        writeBytes = ResourceUsage.add(writeBytes, TaskCgroup.sumField(io, "write_bytes:"));
+      } catch (IOException e) {
+        // Skip this process
+      }
+    }
+
+    final ResourceUsage sampled = new ResourceUsage(ResourceUsage.UNKNOWN, userCpuMicros, systemCpuMicros, peakMemoryBytes, readBytes, writeBytes);
+
+    synchronized (this) {
+      usage = usage.max(sampled);
+    }
+  }
+
+  /**
+   * @return The highest counters seen over all samples so far
+   */
+  synchronized ResourceUsage getUsage() {
+    return usage;
+  }
+
+  /**
+   * @param stat The contents of /proc/[pid]/stat
+   * @return User and system CPU microseconds of the process and its reaped children, or null if the line is malformed
+   */
+  static long[] parseStatTimes(final String stat) {
+    checkNotNull(stat, "stat");
+
+    // The command name is in parentheses and may itself contain spaces and parentheses
+    final int commandEnd = stat.lastIndexOf(')');
+
+    if (commandEnd == -1) {
+      return null;
+    }
+
+    final List<String> fields = WHITESPACE_SPLITTER.splitToList(stat.substring(commandEnd + 1));
+
+    if (fields.size() <= CSTIME_FIELD) {
+      return null;
+    }
+
+    try {
+      return new long[]{
+        (Long.parseLong(fields.get(UTIME_FIELD)) + Long.parseLong(fields.get(CUTIME_FIELD))) * MICROS_PER_TICK,
+        (Long.parseLong(fields.get(STIME_FIELD)) + Long.parseLong(fields.get(CSTIME_FIELD))) * MICROS_PER_TICK
+      };
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link JobScheduler} that keeps jobs in a min-heap keyed by their next execution time
+ * (see {@link com.zulily.omicron.crontab.Schedule#nextExecution(ZonedDateTime)}), so evaluating
+ * a calendar minute only touches the jobs that are due in it
+ * <p>
+ * Removal is lazy: a removed job's heap entry is discarded when it reaches the top of the heap
+ * <p>
+ * Unlike a scan, an execution that is late (i.e. a minute was missed) still runs once in the
+ * next evaluated minute
+ */
+final class QueueJobScheduler implements JobScheduler {
+
+  private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+
+  // The current heap entry of each scheduled job - anything else in the heap is stale
+  private final IdentityHashMap<Job, Entry> scheduled = Maps.newIdentityHashMap();
+
+  @Override
+  public void add(final Job job, final ZonedDateTime now) {
+    checkNotNull(job, "job");
+    checkNotNull(now, "now");
+
+    enqueue(job, now);
+  }
+
+  @Override
+  public void remove(final Job job) {
+    scheduled.remove(job);
+  }
+
+  @Override
+  public List<Job> dueJobs(final ZonedDateTime tick) {
+    checkNotNull(tick, "tick");
+
+    final long tickMillis = tick.toInstant().toEpochMilli();
+
+    final ArrayList<Job> result = Lists.newArrayList();
+
+    while (!queue.isEmpty() && queue.peek().executionMillis <= tickMillis) {
+
+      final Entry entry = queue.poll();
+
+      if (scheduled.get(entry.job) != entry) {
+        continue;
+      }
+
+      result.add(entry.job);
+
+      enqueue(entry.job, tick);
+    }
+
+    // Discard stale entries that would otherwise stay on top of the heap
+    while (!queue.isEmpty() && scheduled.get(queue.peek().job) != queue.peek()) {
+      queue.poll();
+    }
+
+    return result;
+  }
+
+  @Override
+  public int size() {
+    return scheduled.size();
+  }
+
+  private void enqueue(final Job job, final ZonedDateTime after) {
+    final Optional<ZonedDateTime> nextExecution = job.getSchedule().nextExecution(after);
+
+    if (!nextExecution.isPresent()) {
+      // Schedules like "0 0 31 2 *" never run
+      scheduled.remove(job);
+      return;
+    }
+
+    final Entry entry = new Entry(job, nextExecution.get().toInstant().toEpochMilli());
+
+    scheduled.put(job, entry);
+    queue.add(entry);
+  }
+
+  private static final class Entry implements Comparable<Entry> {
+    private final Job job;
+    private final long executionMillis;
+
+    Entry(final Job job, final long executionMillis) {
+      this.job = job;
+      this.executionMillis = executionMillis;
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public int compareTo(final Entry o) {
+      return Long.compare(executionMillis, o.executionMillis);
+    }
+  }
+}
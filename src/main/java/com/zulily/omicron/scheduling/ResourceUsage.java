@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The resources consumed by a finished task, or summed over many tasks
+ * <p>
+ * Peak memory is the largest single process's max RSS, or the cgroup's memory.peak
+ * when the task ran in a cgroup. Any counter that could not be read is {@link #UNKNOWN}
+ */
+public final class ResourceUsage {
+  public static final long UNKNOWN = -1L;
+
+  static final ResourceUsage NONE = new ResourceUsage(UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN);
+
+  private final long wallTimeMillis;
+  private final long userCpuMicros;
+  private final long systemCpuMicros;
+  private final long peakMemoryBytes;
+  private final long readBytes;
+  private final long writeBytes;
+
+  ResourceUsage(
+    final long wallTimeMillis,
+    final long userCpuMicros,
+    final long systemCpuMicros,
+    final long peakMemoryBytes,
+    final long readBytes,
+    final long writeBytes
+  ) {
+    this.wallTimeMillis = wallTimeMillis;
+    this.userCpuMicros = userCpuMicros;
+    this.systemCpuMicros = systemCpuMicros;
+    this.peakMemoryBytes = peakMemoryBytes;
+    this.readBytes = readBytes;
+    this.writeBytes = writeBytes;
+  }
+
+  ResourceUsage withWallTimeMillis(final long wallTimeMillis) {
+    return new ResourceUsage(wallTimeMillis, userCpuMicros, systemCpuMicros, peakMemoryBytes, readBytes, writeBytes);
+  }
+
+  /**
+   * @param other The usage of another task
+   * @return The combined usage of both - times and IO are summed, and the higher peak memory is kept
+   */
+  ResourceUsage plus(final ResourceUsage other) {
+    return new ResourceUsage(
+      add(wallTimeMillis, other.wallTimeMillis),
+      add(userCpuMicros, other.userCpuMicros),
+      add(systemCpuMicros, other.systemCpuMicros),
+      Math.max(peakMemoryBytes, other.peakMemoryBytes),
+      add(readBytes, other.readBytes),
+      add(writeBytes, other.writeBytes)
+    );
+  }
+
+  /**
+   * @param other A later reading of the same counters
+   * @return The highest value seen for every counter
+   */
+  ResourceUsage max(final ResourceUsage other) {
+    return new ResourceUsage(
+      Math.max(wallTimeMillis, other.wallTimeMillis),
+      Math.max(userCpuMicros, other.userCpuMicros),
+      Math.max(systemCpuMicros, other.systemCpuMicros),
+      Math.max(peakMemoryBytes, other.peakMemoryBytes),
+      Math.max(readBytes, other.readBytes),
+      Math.max(writeBytes, other.writeBytes)
+    );
+  }
+
+  /**
+   * @return The sum of two counters, either of which may be unknown
+   */
+  static long add(final long first, final long second) {
+    if (first == UNKNOWN) {
+      return second;
+    }
+
+    return second == UNKNOWN ? first : first + second;
+  }
+
+  public long getWallTimeMillis() {
+    return wallTimeMillis;
+  }
+
+  public long getUserCpuMicros() {
+    return userCpuMicros;
+  }
+
+  public long getSystemCpuMicros() {
+    return systemCpuMicros;
+  }
+
+  /**
+   * @return User plus system CPU time
+   */
+  public long getCpuMicros() {
+    return add(userCpuMicros, systemCpuMicros);
+  }
+
+  public long getPeakMemoryBytes() {
+    return peakMemoryBytes;
+  }
+
+  public long getReadBytes() {
+    return readBytes;
+  }
+
+  public long getWriteBytes() {
+    return writeBytes;
+  }
+
+  /**
+   * @return A short human readable summary of the known counters, or an empty string if none are known
+   */
+  @Override
+  public String toString() {
+    final List<String> parts = Lists.newArrayList();
+
+    if (wallTimeMillis != UNKNOWN) {
+      parts.add(String.format("wall %.1fs", wallTimeMillis / (double) TimeUnit.SECONDS.toMillis(1)));
+    }
+
+    if (userCpuMicros != UNKNOWN) {
+      parts.add(String.format("user cpu %.2fs", userCpuMicros / (double) TimeUnit.SECONDS.toMicros(1)));
+    }
+
+    if (systemCpuMicros != UNKNOWN) {
+      parts.add(String.format("sys cpu %.2fs", systemCpuMicros / (double) TimeUnit.SECONDS.toMicros(1)));
+    }
+
+    if (peakMemoryBytes != UNKNOWN) {
+      parts.add(String.format("peak memory %.1f MB", toMegabytes(peakMemoryBytes)));
+    }
+
+    if (readBytes != UNKNOWN) {
+      parts.add(String.format("read %.1f MB", toMegabytes(readBytes)));
+    }
+
+    if (writeBytes != UNKNOWN) {
+      parts.add(String.format("written %.1f MB", toMegabytes(writeBytes)));
+    }
+
+    return Joiner.on(", ").join(parts);
+  }
+
+  private static double toMegabytes(final long bytes) {
+    return bytes / (1024.0 * 1024.0);
+  }
+}
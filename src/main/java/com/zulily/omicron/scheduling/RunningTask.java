@@ -15,22 +15,22 @@
  */
 package com.zulily.omicron.scheduling;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ComparisonChain;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
-import com.google.common.io.Files;
-import com.zulily.omicron.Utils;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 
-import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.nio.charset.Charset;
 import java.time.Clock;
-import java.util.HashSet;
-import java.util.Set;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.zulily.omicron.Utils.COMMA_JOINER;
@@ -40,85 +40,207 @@ import static com.zulily.omicron.Utils.warn;
 
 /**
  * A running task is a single running instance of a {@link Job}
- * which is launched as the specified user using 'su'.
+ * which is started by a {@link TaskExecutor} - as the specified user using 'su' by default.
+ * <p>
+ * The task is launched by a {@link TaskLauncher}. Either no thread waits on it afterwards and
+ * completion arrives through {@link Process#onExit()}, or a virtual thread waits on it -
+ * both ways, completion is handed straight to the owning job
  * <p>
  * TODO: platform specific
  */
-final class RunningTask implements Runnable, Comparable<RunningTask> {
+final class RunningTask implements Comparable<RunningTask> {
+  // Output size is checked every second, and tasks outside of cgroups are sampled from procfs
+  // on the first check and every fifth one after - early enough to see short tasks, sparse enough to stay cheap
+  private static final long CHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+  private static final int CHECKS_PER_SAMPLE = 5;
 
   private final long launchTimeMilliseconds;
   private final String commandLine;
   private final String executingUser;
-  private final Thread thread;
   private final int taskId;
-  private final int taskTimeoutMinutes;
-  private final String suCommand;
-  private final String killCommand;
-
-  // These values are read by the parent thread to track execution
-  private AtomicLong endTimeMilliseconds = new AtomicLong(-1L);
-  private AtomicInteger returnCode = new AtomicInteger(255);
-  private AtomicLong pid = new AtomicLong(-1L);
-  private TaskStatus taskStatus = TaskStatus.FailedStart;
+  private final long taskTimeoutMillis;
+  private final TaskExecutor taskExecutor;
+  private final long killGraceMillis;
+  private final String cgroupRoot;
+  private final int memoryMaxMegabytes;
+  private final int cpuMaxPercent;
+  private final TaskOutput taskOutput;
+  private final Clock clock;
+  private final Consumer<RunningTask> completionListener;
+
+  // These values are written by the launcher, timeout and process exit threads
+  private final AtomicLong endTimeMilliseconds = new AtomicLong(-1L);
+  private final AtomicInteger returnCode = new AtomicInteger(255);
+  private final AtomicLong pid = new AtomicLong(-1L);
+  private final AtomicInteger killCount = new AtomicInteger();
+  private volatile TaskStatus taskStatus = TaskStatus.FailedStart;
+  private final ProcessTreeSampler processTreeSampler = new ProcessTreeSampler();
+  private volatile TaskTimeoutService.Timeout timeout;
+  private volatile TaskTimeoutService.Timeout check;
+  private volatile TaskCgroup cgroup;
+  private volatile ResourceUsage resourceUsage = ResourceUsage.NONE;
 
   RunningTask(
     final int taskId,
     final String commandLine,
     final String executingUser,
-    final int taskTimeoutMinutes,
-    final String suCommand,
-    final String killCommand
+    final long taskTimeoutMillis,
+    final TaskExecutor taskExecutor,
+    final long killGraceMillis,
+    final String cgroupRoot,
+    final int memoryMaxMegabytes,
+    final int cpuMaxPercent,
+    final TaskOutput taskOutput,
+    final Clock clock,
+    final Consumer<RunningTask> completionListener
   ) {
 
     this.taskId = taskId;
     this.commandLine = checkNotNull(commandLine, "commandLine");
     this.executingUser = checkNotNull(executingUser, "executingUser");
-    this.suCommand = checkNotNull(suCommand, "suCommand");
-    this.killCommand = checkNotNull(killCommand, "killCommand");
-    this.launchTimeMilliseconds = Clock.systemUTC().millis();
-    this.thread = new Thread(this);
-    this.taskTimeoutMinutes = taskTimeoutMinutes;
+    this.taskExecutor = checkNotNull(taskExecutor, "taskExecutor");
+    this.killGraceMillis = killGraceMillis;
+    this.cgroupRoot = checkNotNull(cgroupRoot, "cgroupRoot").trim();
+    this.memoryMaxMegabytes = memoryMaxMegabytes;
+    this.cpuMaxPercent = cpuMaxPercent;
+    this.taskOutput = taskOutput;
+    this.clock = checkNotNull(clock, "clock");
+    this.completionListener = checkNotNull(completionListener, "completionListener");
+    this.launchTimeMilliseconds = clock.millis();
+    this.taskTimeoutMillis = taskTimeoutMillis;
   }
 
-  @Override
-  public void run() {
+  /**
+   * Starts the process and returns right away - completion is handled by a callback
+   * <p>
+   * The completion listener is called exactly once, either when the process exits
+   * or as soon as it is known that it could not be started
+   *
+   * @param timeoutService The service to enforce the task timeout with
+   */
+  void launch(final TaskTimeoutService timeoutService) {
+    final Process process = startProcess();
+
+    if (process == null) {
+      return;
+    }
+
+    scheduleTimeout(timeoutService, process);
+
+    if (cgroup == null || taskOutput != null) {
+      scheduleCheck(timeoutService, process, 0);
+    }
+
+    process.onExit().thenAccept(this::exited);
+  }
+
+  /**
+   * Starts the process and blocks the calling thread until it exits
+   * <p>
+   * Intended for virtual threads: the wait parks on the exit future rather than
+   * pinning a carrier thread in {@link Process#waitFor()}
+   * <p>
+   * The completion listener is called exactly once, as with {@link #launch(TaskTimeoutService)}
+   *
+   * @param timeoutService The service to enforce the task timeout with
+   */
+  void launchAndWait(final TaskTimeoutService timeoutService) {
+    final Process process = startProcess();
+
+    if (process == null) {
+      return;
+    }
+
+    scheduleTimeout(timeoutService, process);
+
+    if (cgroup == null || taskOutput != null) {
+      scheduleCheck(timeoutService, process, 0);
+    }
+
+    final CompletableFuture<Process> exit = process.onExit();
+
     try {
 
-      if (!Utils.isRunningAsRoot()) {
+      exit.get();
 
-        warn("Not running as root. Cannot execute: {0}", this.commandLine);
+    } catch (InterruptedException | ExecutionException e) {
+      warn("Stopped waiting on command: {0}\nreason-> {1}", commandLine, e.getMessage());
 
-        this.endTimeMilliseconds.set(Clock.systemUTC().millis());
+      // Still report the task once the process does exit
+      exit.thenAccept(this::exited);
 
-        return;
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
       }
 
-      if (!Utils.fileExistsAndCanRead(suCommand)) {
+      return;
+    }
 
-        warn("su command does not exist as specified location: {0}", this.suCommand);
+    exited(process);
+  }
 
-        this.endTimeMilliseconds.set(Clock.systemUTC().millis());
+  private void scheduleTimeout(final TaskTimeoutService timeoutService, final Process process) {
 
-        return;
-      }
+    // If a timeout is set, the kill is re-issued every timeout period
+    // for as long as the process stays alive, otherwise the unkillable
+    // process may pile up on the host
+    if (taskTimeoutMillis > 0) {
+      this.timeout = timeoutService.schedule(taskTimeoutMillis, () -> {
 
-      if (!Utils.fileExistsAndCanRead(killCommand)) {
+        if (timedOut(process, timeoutService)) {
+          scheduleTimeout(timeoutService, process);
+        }
 
-        warn("kill command does not exist as specified location: {0}", this.killCommand);
+      });
+    }
+  }
 
-        this.endTimeMilliseconds.set(Clock.systemUTC().millis());
+  private void scheduleCheck(final TaskTimeoutService timeoutService, final Process process, final int checkCount) {
+    this.check = timeoutService.schedule(CHECK_INTERVAL_MILLIS, () -> {
 
+      if (!process.isAlive()) {
         return;
       }
 
+      final ProcessHandle processHandle = handleOf(process);
 
-      final ProcessBuilder processBuilder = new ProcessBuilder(suCommand, "-", executingUser, "-c", commandLine);
+      if (cgroup == null && processHandle != null && checkCount % CHECKS_PER_SAMPLE == 0) {
+        processTreeSampler.sample(processHandle);
+      }
 
-      processBuilder.inheritIO();
+      if (taskOutput != null) {
+        try {
+          taskOutput.rotateIfFull();
+        } catch (IOException e) {
+          warn("Failed to rotate {0}: {1}", taskOutput.getFile().toString(), e.getMessage());
+        }
+      }
+
+      scheduleCheck(timeoutService, process, checkCount + 1);
+
+    });
+  }
 
-      final Process process = processBuilder.start();
+  /**
+   * @return The started process, or null if it could not be started (completion has then already been reported)
+   */
+  private Process startProcess() {
+    try {
+
+      final Process process = taskExecutor.start(this);
 
-      this.pid.set(determinePid(process));
+      if (process == null) {
+
+        complete();
+
+        return null;
+      }
+
+      try {
+        this.pid.set(process.pid());
+      } catch (UnsupportedOperationException e) {
+        // Not an OS process
+      }
 
       info(
         "PID {0} -> STARTED: {1}",
@@ -126,109 +248,228 @@ final class RunningTask implements Runnable, Comparable<RunningTask> {
         commandLine
       );
 
-      // If a timeout is set, then we must enter an isAlive loop test
-      // after the kill command is issued otherwise the unkillable
-      // process may pile up on the host
-      if (taskTimeoutMinutes > 0) {
+      return process;
 
-        int killCount = 0;
+    } catch (Exception e) {
+      error("Command failed: {0}\nerror message-> {1}", commandLine, e.getMessage());
 
-        while (process.isAlive()) {
+      if (cgroup != null) {
+        cgroup.remove();
+      }
 
-          if (killCount > 1) {
-            error(
-              "{0} attempts to kill process after timeout have failed: {0}",
-              String.valueOf(killCount),
-              commandLine
-            );
-          }
+      complete();
 
-          boolean finished = process.waitFor(taskTimeoutMinutes, TimeUnit.MINUTES);
+      return null;
+    }
+  }
 
-          if (finished) {
+  /**
+   * Starts an OS process for the task - in the task's cgroup and writing to its captured output, when those are set up
+   * <p>
+   * For {@link TaskExecutor} implementations that run the task as a command
+   *
+   * @param taskCommand The command and its arguments
+   * @return The started process
+   * @throws IOException If the process could not be started
+   */
+  Process startCommand(final List<String> taskCommand) throws IOException {
+    checkNotNull(taskCommand, "taskCommand");
+
+    List<String> command = taskCommand;
+
+    if (!cgroupRoot.isEmpty()) {
+      try {
 
-            this.returnCode.set(Math.abs(process.exitValue()));
+        this.cgroup = TaskCgroup.create(cgroupRoot, memoryMaxMegabytes, cpuMaxPercent);
 
-          } else {
+        command = cgroup.wrap(command);
 
-            kill();
+      } catch (Exception e) {
+        warn("Cannot create a cgroup under {0}, running without one: {1}\nerror message-> {2}", cgroupRoot, commandLine, e.getMessage());
+      }
+    }
 
-            this.taskStatus = TaskStatus.Killed;
+    final ProcessBuilder processBuilder = new ProcessBuilder(command);
 
-            killCount++;
-          }
+    processBuilder.inheritIO();
 
-        }
+    final ProcessBuilder.Redirect output = openOutput();
 
-      } else {
-        this.returnCode.set(Math.abs(process.waitFor()));
-      }
+    if (output != null) {
+      processBuilder
+        .redirectErrorStream(true)
+        .redirectOutput(output);
+    }
 
-      // Don't overwrite killed state
-      if (taskStatus == TaskStatus.FailedStart) {
-        this.taskStatus = this.getReturnCode() == 0 ? TaskStatus.Complete : TaskStatus.Error;
-      }
+    return processBuilder.start();
+  }
 
-      this.endTimeMilliseconds.set(Clock.systemUTC().millis());
+  /**
+   * Starts this launch's section of the captured output
+   *
+   * @return The redirect to append the task's output with, or null if output is not captured or cannot be written
+   */
+  ProcessBuilder.Redirect openOutput() {
+    if (taskOutput == null) {
+      return null;
+    }
 
-      info(
-        "PID {0} -> TERMINATED: {1} [duration of {2} minutes]",
-        String.valueOf(getPid()),
-        commandLine,
-        String.valueOf(TimeUnit.MILLISECONDS.toMinutes(this.getEndTimeMilliseconds() - this.launchTimeMilliseconds))
-      );
+    try {
 
+      return taskOutput.open("==== " + Instant.ofEpochMilli(launchTimeMilliseconds) + " task " + taskId + ": " + commandLine);
 
-    } catch (InterruptedException e) {
-      warn("Command was interrupted: {0}\ninterruption reason-> {1}", commandLine, e.getMessage());
-    } catch (Exception e) {
-      error("Command failed: {0}\nerror message-> {1}", commandLine, e.getMessage());
+    } catch (IOException e) {
+      warn("Cannot write output to {0}, inheriting it instead: {1}\nerror message-> {2}", taskOutput.getFile().toString(), commandLine, e.getMessage());
+
+      return null;
+    }
+  }
+
+  /**
+   * @return The handle of the process, or null if it is not an OS process
+   */
+  private static ProcessHandle handleOf(final Process process) {
+    try {
+      return process.toHandle();
+    } catch (UnsupportedOperationException e) {
+      return null;
     }
   }
 
-  static long determinePid(final Process process) {
+  /**
+   * @return true if the process was still alive and a kill was issued
+   */
+  private boolean timedOut(final Process process, final TaskTimeoutService timeoutService) {
+    if (!process.isAlive()) {
+      return false;
+    }
+
+    final int previousKills = killCount.getAndIncrement();
+
+    if (previousKills > 0) {
+      error(
+        "{0} attempts to kill process after timeout have failed: {1}",
+        String.valueOf(previousKills),
+        commandLine
+      );
+    }
 
-    /*
-    get the PID on unix/linux systems
+    // Set before killing so the exit callback cannot see the process end as an error
+    this.taskStatus = TaskStatus.Killed;
 
-    Currently, the platform-specific subclasses for java.lang.Process are not accessible. There are bugs open to oracle
-    to add an easier way to get this data without such a hack.
+    try {
 
-    http://bugs.java.com/bugdatabase/view_bug.do;jsessionid=a4867002d972460f4acf3239dc0a?bug_id=4250622
+      final ProcessHandle processHandle = handleOf(process);
 
-    The dupe request referred to in the bug is no longer accessible
+      // The cgroup also holds processes that were re-parented away from the task's process tree
+      final List<Long> pids;
 
-    */
+      if (cgroup != null) {
+        pids = cgroup.kill(killGraceMillis, timeoutService);
+      } else if (processHandle != null) {
+        pids = killProcessTree(processHandle, killGraceMillis, timeoutService);
+      } else {
+        process.destroyForcibly();
+        pids = ImmutableList.of();
+      }
 
+      warn(
+        "Task timeout after {0} seconds. Terminated PID tree [{1}], killing survivors after {2} seconds: {3}",
+        String.valueOf(TimeUnit.MILLISECONDS.toSeconds(taskTimeoutMillis)),
+        COMMA_JOINER.join(pids),
+        String.valueOf(TimeUnit.MILLISECONDS.toSeconds(Math.max(0L, killGraceMillis))),
+        commandLine
+      );
 
-    final Class<? extends Process> processClass = process.getClass();
+    } catch (Exception e) {
+      error("Failed to kill timed out command: {0}\nerror message-> {1}", commandLine, e.getMessage());
+    }
 
-    if (processClass.getName().equals("java.lang.UNIXProcess")) {
+    return true;
+  }
 
-      try {
+  private void exited(final Process process) {
+    final TaskTimeoutService.Timeout pendingTimeout = this.timeout;
 
-        final Field pidField = processClass.getDeclaredField("pid");
+    if (pendingTimeout != null) {
+      pendingTimeout.cancel();
+    }
 
-        pidField.setAccessible(true);
+    final TaskTimeoutService.Timeout pendingCheck = this.check;
 
-        final Object pidValue = pidField.get(process);
+    if (pendingCheck != null) {
+      pendingCheck.cancel();
+    }
 
-        if (pidValue instanceof Integer) {
+    if (taskOutput != null) {
+      taskOutput.taskFinished();
+    }
 
-          return ((Integer) pidValue).longValue();
+    this.returnCode.set(Math.abs(process.exitValue()));
 
-        } else if (pidValue instanceof Long) {
+    // Don't overwrite killed state
+    if (taskStatus == TaskStatus.FailedStart) {
+      this.taskStatus = this.getReturnCode() == 0 ? TaskStatus.Complete : TaskStatus.Error;
+    }
 
-          return (Long) pidValue;
+    final TaskCgroup taskCgroup = this.cgroup;
 
-        }
+    if (taskCgroup == null) {
+      this.resourceUsage = processTreeSampler.getUsage();
+    } else {
+      this.resourceUsage = taskCgroup.readUsage();
 
-      } catch (Throwable e) {
-        info("Failed to get pid for task because: {0}", e.getMessage());
+      if (!taskCgroup.remove()) {
+        info("PID {0} -> processes left running in {1}: {2}", String.valueOf(getPid()), taskCgroup.getPath().toString(), commandLine);
       }
     }
 
-    return -1L;
+    complete();
+
+    final String usage = resourceUsage.toString();
+
+    info(
+      "PID {0} -> TERMINATED: {1} [duration of {2} minutes{3}]",
+      String.valueOf(getPid()),
+      commandLine,
+      String.valueOf(TimeUnit.MILLISECONDS.toMinutes(this.getEndTimeMilliseconds() - this.launchTimeMilliseconds)),
+      usage.isEmpty() ? "" : ", " + usage
+    );
+  }
+
+  /**
+   * Completes the task as if its process had exited with the given code at the current time of the
+   * task's clock, without starting one - for simulated runs
+   *
+   * @param exitCode The exit code to report
+   */
+  void completeWithoutProcess(final int exitCode) {
+    this.returnCode.set(Math.abs(exitCode));
+    this.taskStatus = exitCode == 0 ? TaskStatus.Complete : TaskStatus.Error;
+
+    complete();
+  }
+
+  /**
+   * Completes the task as a failed start when it could not be handed to a launcher at all, so
+   * its job stops counting it as running
+   */
+  void completeWithoutLaunch() {
+    this.taskStatus = TaskStatus.FailedStart;
+
+    complete();
+  }
+
+  private void complete() {
+    this.endTimeMilliseconds.set(clock.millis());
+
+    this.resourceUsage = resourceUsage.withWallTimeMillis(getEndTimeMilliseconds() - launchTimeMilliseconds);
+
+    try {
+      completionListener.accept(this);
+    } catch (Exception e) {
+      error("Task completion failed: {0}\n{1}", commandLine, Throwables.getStackTraceAsString(e));
+    }
   }
 
   @SuppressWarnings("NullableProblems")
@@ -236,8 +477,7 @@ final class RunningTask implements Runnable, Comparable<RunningTask> {
   public int compareTo(final RunningTask o) {
     checkNotNull(o, "cannot compare null values");
 
-    // This ordering in intended to be used for the
-    // chronologically-dependent loop in ScheduledTask.sweepRunningTasks
+    // Orders tasks chronologically by launch
     return ComparisonChain.start()
       .compare(this.launchTimeMilliseconds, o.launchTimeMilliseconds)
       .compare(this.commandLine, o.commandLine)
@@ -261,6 +501,14 @@ final class RunningTask implements Runnable, Comparable<RunningTask> {
     return this.commandLine.hashCode();
   }
 
+  String getCommandLine() {
+    return commandLine;
+  }
+
+  String getExecutingUser() {
+    return executingUser;
+  }
+
   public int getReturnCode() {
     return returnCode.get();
   }
@@ -273,16 +521,6 @@ final class RunningTask implements Runnable, Comparable<RunningTask> {
     return endTimeMilliseconds.get() > -1L;
   }
 
-  private boolean canStart() {
-    return Utils.isRunningAsRoot()
-      && (new File(killCommand)).exists()
-      && (new File(suCommand)).exists();
-  }
-
-  public void start() {
-    this.thread.start();
-  }
-
   public long getPid() {
     return pid.get();
   }
@@ -295,76 +533,50 @@ final class RunningTask implements Runnable, Comparable<RunningTask> {
     return taskStatus;
   }
 
-  private void kill() throws IOException, InterruptedException {
-    if (getPid() > -1L) {
-      // The JVM cannot kill children of child processes - only external kill will work
-
-      final Set<Long> pidList = recursivelyFindAllChildren(getPid());
-
-      warn(
-        "Task timeout after {0} minutes. Killing PID tree [{1}]: {2}",
-        String.valueOf(taskTimeoutMinutes),
-        COMMA_JOINER.join(pidList),
-        commandLine
-      );
-
-      // Throw a kill -9 at the task and all of its children
-      //
-      // Note: there is SOME risk that this will kill the wrong process.
-      //
-      // A PID can be recycled by the OS in the time it takes to kill a process
-      // and it's remaining children. The likelihood is low, as most OSes attempt
-      // to avoid recycling PIDs so quickly, but the risk is there.
-      for (Long pid : pidList) {
-        new ProcessBuilder(killCommand, "-9", String.valueOf(pid)).start();
-      }
-
-    } else {
-      warn("Could not kill task {0} since the pid could not be retrieved", commandLine);
-    }
+  /**
+   * @return The resources used by the task, known once it is done - exact when it ran in a cgroup, sampled otherwise
+   */
+  ResourceUsage getResourceUsage() {
+    return resourceUsage;
   }
 
-  private static Set<Long> getProcFsChildren(long pid) {
-    try {
-      File childrenFile = new File(String.format("/proc/%s/task/%s/children", pid, pid));
-
-      HashSet<Long> result = Sets.newHashSet();
-
-      if (Utils.fileExistsAndCanRead(childrenFile)) {
-
-        Files.readLines(childrenFile, Charset.defaultCharset())
-          .stream()
-          .filter(line -> !Utils.isNullOrEmpty(line))
-          .map(Utils.WHITESPACE_SPLITTER::splitToList)
-          .forEach(list -> list
-            .stream()
-            .map(Long::parseLong)
-            .forEach(result::add));
-      }
-
-      return result;
+  /**
+   * Terminates a process and all of its descendants without forking any external commands
+   * <p>
+   * Every process in the tree is sent SIGTERM. Whatever is still alive after the grace period
+   * is then killed with SIGKILL by the timeout service
+   * <p>
+   * The tree is captured before any signal is sent, since a child whose parent has exited is
+   * re-parented and no longer shows up as a descendant. Process handles also guard against
+   * signalling a pid that was recycled by the OS in the meantime
+   *
+   * @param root           The top of the process tree
+   * @param killGraceMillis How long to wait after SIGTERM before SIGKILL - SIGKILL is sent right away if not positive
+   * @param timeoutService The service to schedule the escalation with
+   * @return The pids that were signalled
+   */
+  static List<Long> killProcessTree(final ProcessHandle root, final long killGraceMillis, final TaskTimeoutService timeoutService) {
+    checkNotNull(root, "root");
+    checkNotNull(timeoutService, "timeoutService");
+
+    final List<ProcessHandle> processTree = Lists.newArrayList(root);
+
+    root.descendants().forEach(processTree::add);
+
+    if (killGraceMillis > 0) {
+
+      processTree.forEach(ProcessHandle::destroy);
+
+      timeoutService.schedule(killGraceMillis, () -> processTree
+        .stream()
+        .filter(ProcessHandle::isAlive)
+        .forEach(ProcessHandle::destroyForcibly));
 
-    } catch (Exception ignored) {
+    } else {
+      processTree.forEach(ProcessHandle::destroyForcibly);
     }
 
-    return ImmutableSet.of();
-  }
-
-  static Set<Long> recursivelyFindAllChildren(final long pid) {
-
-    Set<Long> result = Sets.newHashSet();
-
-    Set<Long> immediateChildren = getProcFsChildren(pid);
-
-    result.addAll(immediateChildren);
-
-    immediateChildren
-      .forEach(child -> result.addAll(recursivelyFindAllChildren(child)));
-
-    result.add(pid);
-
-    return result;
-
+    return processTree.stream().map(ProcessHandle::pid).collect(Collectors.toList());
   }
 
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoField;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link JobScheduler} that tests every job schedule against every calendar minute, like crond
+ */
+final class ScanJobScheduler implements JobScheduler {
+
+  // Kept in the order jobs were added, so due jobs are submitted for launch in the same order every run
+  private final Set<Job> jobs = Sets.newLinkedHashSet();
+
+  @Override
+  public void add(final Job job, final ZonedDateTime now) {
+    jobs.add(checkNotNull(job, "job"));
+  }
+
+  @Override
+  public void remove(final Job job) {
+    jobs.remove(job);
+  }
+
+  @Override
+  public List<Job> dueJobs(final ZonedDateTime tick) {
+    checkNotNull(tick, "tick");
+
+    final int minute = tick.get(ChronoField.MINUTE_OF_HOUR);
+    final int hour = tick.get(ChronoField.HOUR_OF_DAY);
+    final int dayOfMonth = tick.get(ChronoField.DAY_OF_MONTH);
+    final int month = tick.get(ChronoField.MONTH_OF_YEAR);
+    final int dayOfWeek = tick.get(ChronoField.DAY_OF_WEEK) % 7; // crontab Sunday == 0
+
+    final ArrayList<Job> result = Lists.newArrayList();
+
+    for (final Job job : jobs) {
+      if (job.getSchedule().timeInSchedule(minute, hour, dayOfMonth, month, dayOfWeek)) {
+        result.add(job);
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  public int size() {
+    return jobs.size();
+  }
+}
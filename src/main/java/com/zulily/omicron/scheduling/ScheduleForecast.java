@@ -0,0 +1,489 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.zulily.omicron.conf.Configuration;
+import com.zulily.omicron.crontab.Crontab;
+import com.zulily.omicron.crontab.CrontabExpression;
+import com.zulily.omicron.crontab.Schedule;
+import com.zulily.omicron.crontab.VariableSubstitution;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An offline forecast of the launches a crontab will make over a number of days
+ * <p>
+ * Every runnable line is expanded day by day: a line either runs on a date or it doesn't, and on the
+ * dates it runs its launches are the cross product of its hour and minute bitmasks. The cost is one
+ * day check per line per day plus one counter increment per launch, so a week of 50k lines takes seconds
+ * <p>
+ * Concurrency is estimated by keeping each launch running for the average wall time of its command,
+ * as recorded by TERMINATED entries in omicron's log. Commands without history are assumed to finish
+ * within the minute they start, and tasks launched before the forecast starts are not counted
+ */
+public final class ScheduleForecast {
+  private static final int MINUTES_PER_DAY = 1440;
+  private static final int HOT_MINUTE_COUNT = 10;
+  private static final int COLLIDING_LINE_COUNT = 10;
+
+  // Matches the TERMINATED entry that RunningTask logs, e.g.
+  // PID 42 -> TERMINATED: /opt/report.sh [duration of 0 minutes, wall 12.5s, user cpu 1.20s]
+  private static final Pattern TERMINATED_PATTERN = Pattern.compile("-> TERMINATED: (.*) \\[duration of (\\d+) minutes(?:, wall (\\d+(?:\\.\\d+)?)s)?.*]\\s*$");
+
+  private static final DateTimeFormatter MINUTE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+  private final ZonedDateTime start;
+  private final int days;
+  private final int lineCount;
+  private final int linesWithHistory;
+  private final int[] launches;
+  private final int[] running;
+  private final long totalLaunches;
+  private final long computeMillis;
+  private final ImmutableList<Integer> hotMinutes;
+  private final ImmutableList<CollidingLine> collidingLines;
+
+  /**
+   * Constructor
+   *
+   * @param lines The runnable lines to forecast
+   * @param start The first minute of the forecast - the zone of which is the zone schedules are evaluated in
+   * @param days  The number of days to forecast
+   */
+  ScheduleForecast(final List<Line> lines, final ZonedDateTime start, final int days) {
+    checkNotNull(lines, "lines");
+    checkNotNull(start, "start");
+    checkArgument(days > 0, "days must be positive: %s", days);
+
+    final long computeStartMillis = Clock.systemUTC().millis();
+
+    this.start = start.truncatedTo(ChronoUnit.MINUTES);
+    this.days = days;
+    this.lineCount = lines.size();
+
+    final int minutes = days * MINUTES_PER_DAY;
+
+    this.launches = new int[minutes];
+
+    // Launches add one at their start minute and remove one after their duration
+    final int[] runningChanges = new int[minutes + 1];
+
+    // The forecast usually starts part way through a day, so the last day is covered by one more date
+    final int dates = days + 1;
+
+    final LocalDate firstDate = this.start.toLocalDate();
+    final long[][] hourOffsets = hourOffsets(firstDate, dates);
+
+    final long[] lineLaunches = new long[lines.size()];
+
+    long launchTotal = 0L;
+    int withHistory = 0;
+
+    for (int lineIndex = 0; lineIndex < lines.size(); lineIndex++) {
+
+      final Line line = lines.get(lineIndex);
+
+      if (line.durationMillis >= 0) {
+        withHistory++;
+      }
+
+      final long minuteMask = line.schedule.getMinuteMask();
+      final int hourMask = line.schedule.getHourMask();
+
+      if (minuteMask == 0L || hourMask == 0) {
+        continue;
+      }
+
+      final long durationMinutes = line.getDurationMinutes();
+
+      for (int date = 0; date < dates; date++) {
+
+        final LocalDate localDate = firstDate.plusDays(date);
+
+        if (!runsOn(line.schedule, localDate)) {
+          continue;
+        }
+
+        for (int hours = hourMask; hours != 0; hours &= hours - 1) {
+
+          final long hourOffset = hourOffsets[date][Integer.numberOfTrailingZeros(hours)];
+
+          // The hour is skipped by a daylight saving transition
+          if (hourOffset == Long.MIN_VALUE) {
+            continue;
+          }
+
+          for (long minuteBits = minuteMask; minuteBits != 0L; minuteBits &= minuteBits - 1L) {
+
+            final long minute = hourOffset + Long.numberOfTrailingZeros(minuteBits);
+
+            if (minute < 0L || minute >= minutes) {
+              continue;
+            }
+
+            launches[(int) minute]++;
+            runningChanges[(int) minute]++;
+            runningChanges[(int) Math.min(minutes, minute + durationMinutes)]--;
+
+            lineLaunches[lineIndex]++;
+          }
+        }
+      }
+    }
+
+    for (final long launchCount : lineLaunches) {
+      launchTotal += launchCount;
+    }
+
+    this.running = new int[minutes];
+
+    int current = 0;
+
+    for (int minute = 0; minute < minutes; minute++) {
+      current += runningChanges[minute];
+      running[minute] = current;
+    }
+
+    this.totalLaunches = launchTotal;
+    this.linesWithHistory = withHistory;
+    this.hotMinutes = findHotMinutes();
+    this.collidingLines = findCollidingLines(lines, lineLaunches);
+    this.computeMillis = Clock.systemUTC().millis() - computeStartMillis;
+  }
+
+  /**
+   * Forecasts the runnable lines of a crontab, starting at the next minute
+   *
+   * @param configuration The global configuration, for the time zone
+   * @param crontab       The crontab to forecast
+   * @param days          The number of days to forecast
+   * @param durations     Average wall time in milliseconds by command line, see {@link #readDurations(Path)}
+   * @return The forecast
+   */
+  public static ScheduleForecast forecast(final Configuration configuration, final Crontab crontab, final int days, final Map<String, Long> durations) {
+    checkNotNull(configuration, "configuration");
+    checkNotNull(crontab, "crontab");
+    checkNotNull(durations, "durations");
+
+    final VariableSubstitution variableSubstitution = crontab.getVariableSubstitution();
+
+    final List<Line> lines = Lists.newArrayList();
+
+    for (final CrontabExpression crontabExpression : crontab.getCrontabExpressions()) {
+
+      if (crontabExpression.isCommented() || crontabExpression.isMalformed()) {
+        continue;
+      }
+
+      final String commandLine = variableSubstitution.apply(crontabExpression.getCommand());
+
+      lines.add(new Line(crontabExpression, durations.getOrDefault(commandLine, -1L)));
+    }
+
+    return new ScheduleForecast(lines, ZonedDateTime.now(configuration.getClock()).plusMinutes(1), days);
+  }
+
+  /**
+   * Reads the average wall time of each command from omicron's log
+   * <p>
+   * Entries logged before wall times were recorded fall back to their whole minute duration
+   *
+   * @param logFile An omicron log file
+   * @return Average wall time in milliseconds by command line
+   * @throws IOException If the file cannot be read
+   */
+  public static Map<String, Long> readDurations(final Path logFile) throws IOException {
+    checkNotNull(logFile, "logFile");
+
+    // command line -> [total millis, count]
+    final HashMap<String, long[]> totals = Maps.newHashMap();
+
+    try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+
+      String line;
+
+      while ((line = reader.readLine()) != null) {
+
+        final Matcher matcher = TERMINATED_PATTERN.matcher(line);
+
+        if (!matcher.find()) {
+          continue;
+        }
+
+        final long durationMillis = matcher.group(3) != null
+          ? (long) (Double.parseDouble(matcher.group(3)) * TimeUnit.SECONDS.toMillis(1))
+          : TimeUnit.MINUTES.toMillis(Long.parseLong(matcher.group(2)));
+
+        final long[] total = totals.computeIfAbsent(matcher.group(1), commandLine -> new long[2]);
+
+        total[0] += durationMillis;
+        total[1]++;
+      }
+    }
+
+    final HashMap<String, Long> result = Maps.newHashMapWithExpectedSize(totals.size());
+
+    totals.forEach((commandLine, total) -> result.put(commandLine, total[0] / total[1]));
+
+    return result;
+  }
+
+  public long getTotalLaunches() {
+    return totalLaunches;
+  }
+
+  /**
+   * @return The most launches in any one minute
+   */
+  public int getPeakLaunches() {
+    return hotMinutes.isEmpty() ? 0 : launches[hotMinutes.get(0)];
+  }
+
+  /**
+   * @return The most tasks estimated to be running in any one minute
+   */
+  public int getPeakConcurrency() {
+    return running[peakConcurrencyMinute()];
+  }
+
+  /**
+   * @return The lines that launch most often in the busiest minutes, busiest first
+   */
+  ImmutableList<CrontabExpression> getCollidingLines() {
+    final ImmutableList.Builder<CrontabExpression> result = ImmutableList.builder();
+
+    for (final CollidingLine collidingLine : collidingLines) {
+      result.add(collidingLine.crontabExpression);
+    }
+
+    return result.build();
+  }
+
+  /**
+   * @return A human readable report of the forecast
+   */
+  public String report() {
+    final StringBuilder report = new StringBuilder();
+
+    report.append(String.format(
+      "Forecast of %d runnable lines over %d day(s) from %s, computed in %d ms%n",
+      lineCount, days, start.format(DateTimeFormatter.ISO_ZONED_DATE_TIME), computeMillis
+    ));
+
+    report.append(String.format(
+      "Launches: %d total, %.1f per minute on average, peak of %d%s%n",
+      totalLaunches, totalLaunches / (double) launches.length, getPeakLaunches(),
+      hotMinutes.isEmpty() ? "" : " at " + format(hotMinutes.get(0))
+    ));
+
+    final int peakConcurrencyMinute = peakConcurrencyMinute();
+
+    report.append(String.format(
+      "Peak concurrency: %d running at %s (durations known for %d of %d lines, the rest assumed to finish within the minute)%n",
+      running[peakConcurrencyMinute], format(peakConcurrencyMinute), linesWithHistory, lineCount
+    ));
+
+    report.append(String.format("%nLaunches by minute of the hour:%n"));
+
+    final long[] byMinuteOfHour = new long[60];
+
+    for (int minute = 0; minute < launches.length; minute++) {
+      byMinuteOfHour[start.plusMinutes(minute).getMinute()] += launches[minute];
+    }
+
+    for (int minute = 0; minute < byMinuteOfHour.length; minute++) {
+      report.append(String.format("%02d:%8d%s", minute, byMinuteOfHour[minute], minute % 6 == 5 ? System.lineSeparator() : "  "));
+    }
+
+    report.append(String.format("%nBusiest minutes:%n"));
+
+    for (final int minute : hotMinutes) {
+      report.append(String.format("  %s  %d launches, %d running%n", format(minute), launches[minute], running[minute]));
+    }
+
+    report.append(String.format("%nLines colliding in the busiest minutes (busiest minutes launched in, total launches):%n"));
+
+    for (final CollidingLine collidingLine : collidingLines) {
+      report.append(String.format("  %2d of %d  %8d  %s%n", collidingLine.hotLaunches, hotMinutes.size(), collidingLine.launches, collidingLine.crontabExpression));
+    }
+
+    return report.toString();
+  }
+
+  private String format(final int minute) {
+    return start.plusMinutes(minute).format(MINUTE_FORMAT);
+  }
+
+  private int peakConcurrencyMinute() {
+    int peak = 0;
+
+    for (int minute = 1; minute < running.length; minute++) {
+      if (running[minute] > running[peak]) {
+        peak = minute;
+      }
+    }
+
+    return peak;
+  }
+
+  /**
+   * @return For each date and hour, the offset in minutes of its first minute from the start
+   * of the forecast, or Long.MIN_VALUE if daylight saving time skips the hour
+   */
+  private long[][] hourOffsets(final LocalDate firstDate, final int dates) {
+    final long[][] hourOffsets = new long[dates][24];
+
+    final long startEpochMinute = TimeUnit.SECONDS.toMinutes(start.toEpochSecond());
+
+    for (int date = 0; date < dates; date++) {
+      for (int hour = 0; hour < 24; hour++) {
+
+        final LocalDateTime localDateTime = firstDate.plusDays(date).atTime(hour, 0);
+        final ZonedDateTime zonedDateTime = ZonedDateTime.of(localDateTime, start.getZone());
+
+        hourOffsets[date][hour] = zonedDateTime.toLocalDateTime().equals(localDateTime)
+          ? TimeUnit.SECONDS.toMinutes(zonedDateTime.toEpochSecond()) - startEpochMinute
+          : Long.MIN_VALUE;
+      }
+    }
+
+    return hourOffsets;
+  }
+
+  private ImmutableList<Integer> findHotMinutes() {
+    final Integer[] minutes = new Integer[launches.length];
+
+    for (int minute = 0; minute < minutes.length; minute++) {
+      minutes[minute] = minute;
+    }
+
+    // Busiest first, earliest first among equals
+    Arrays.sort(minutes, Comparator.comparingInt((Integer minute) -> -launches[minute]).thenComparingInt(minute -> minute));
+
+    final ImmutableList.Builder<Integer> result = ImmutableList.builder();
+
+    for (int index = 0; index < Math.min(HOT_MINUTE_COUNT, minutes.length) && launches[minutes[index]] > 0; index++) {
+      result.add(minutes[index]);
+    }
+
+    return result.build();
+  }
+
+  /**
+   * Ranks the lines that launch in the busiest minutes - lines that launch there but rarely
+   * anywhere else come first, since they are the ones that make the minutes busy
+   */
+  private ImmutableList<CollidingLine> findCollidingLines(final List<Line> lines, final long[] lineLaunches) {
+    final List<CollidingLine> result = Lists.newArrayList();
+
+    for (int lineIndex = 0; lineIndex < lines.size(); lineIndex++) {
+
+      final Line line = lines.get(lineIndex);
+
+      int hotLaunches = 0;
+
+      for (final int minute : hotMinutes) {
+        if (line.schedule.timeInSchedule(start.plusMinutes(minute))) {
+          hotLaunches++;
+        }
+      }
+
+      if (hotLaunches > 0) {
+        result.add(new CollidingLine(line.crontabExpression, hotLaunches, lineLaunches[lineIndex]));
+      }
+    }
+
+    result.sort(
+      Comparator.comparingInt((CollidingLine collidingLine) -> -collidingLine.hotLaunches)
+        .thenComparingLong(collidingLine -> collidingLine.launches)
+        .thenComparing(collidingLine -> collidingLine.crontabExpression)
+    );
+
+    return ImmutableList.copyOf(result.subList(0, Math.min(COLLIDING_LINE_COUNT, result.size())));
+  }
+
+  private static boolean runsOn(final Schedule schedule, final LocalDate localDate) {
+    final int dayOfWeek = localDate.getDayOfWeek().getValue() % 7;
+
+    return (schedule.getDayMask() & (1 << localDate.getDayOfMonth())) != 0
+      && (schedule.getMonthMask() & (1 << localDate.getMonthValue())) != 0
+      && (schedule.getDayOfWeekMask() & (1 << dayOfWeek)) != 0;
+  }
+
+  /**
+   * A crontab line and the average wall time of its command
+   */
+  static final class Line {
+    private final CrontabExpression crontabExpression;
+    private final Schedule schedule;
+    private final long durationMillis;
+
+    /**
+     * Constructor
+     *
+     * @param crontabExpression The line
+     * @param durationMillis    The average wall time of its command, or -1 if unknown
+     */
+    Line(final CrontabExpression crontabExpression, final long durationMillis) {
+      this.crontabExpression = checkNotNull(crontabExpression, "crontabExpression");
+      this.schedule = crontabExpression.createSchedule();
+      this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return The number of minutes a launch is counted as running, including the one it starts in
+     */
+    private long getDurationMinutes() {
+      return durationMillis <= 0L ? 1L : (durationMillis + TimeUnit.MINUTES.toMillis(1) - 1L) / TimeUnit.MINUTES.toMillis(1);
+    }
+  }
+
+  private static final class CollidingLine {
+    private final CrontabExpression crontabExpression;
+    private final int hotLaunches;
+    private final long launches;
+
+    private CollidingLine(final CrontabExpression crontabExpression, final int hotLaunches, final long launches) {
+      this.crontabExpression = crontabExpression;
+      this.hotLaunches = hotLaunches;
+      this.launches = launches;
+    }
+  }
+}
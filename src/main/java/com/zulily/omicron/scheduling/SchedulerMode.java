@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import static com.zulily.omicron.Utils.warn;
+
+/**
+ * The strategies available to {@link JobManager} for finding the jobs that are due in a calendar minute
+ */
+enum SchedulerMode {
+
+  // Test every job schedule against every minute
+  Scan("scan"),
+
+  // Keep jobs in a min-heap keyed by their next execution time
+  Queue("queue"),
+
+  // Intersect per-field bitsets of job ordinals
+  Index("index");
+
+  private final String rawName;
+
+  SchedulerMode(final String rawName) {
+    this.rawName = rawName;
+  }
+
+  /**
+   * Returns the SchedulerMode that matches the provided config value
+   * or Scan if the value is not recognized
+   *
+   * @param rawName The config value
+   * @return A SchedulerMode value
+   */
+  static SchedulerMode fromString(final String rawName) {
+    if (rawName != null) {
+
+      final String trimmed = rawName.trim();
+
+      for (SchedulerMode schedulerMode : SchedulerMode.values()) {
+
+        if (schedulerMode.rawName.equalsIgnoreCase(trimmed)) {
+          return schedulerMode;
+        }
+
+      }
+
+    }
+
+    warn("Unknown scheduler mode {0}, defaulting to {1}", String.valueOf(rawName), Scan.rawName);
+
+    return Scan;
+  }
+
+  JobScheduler createScheduler() {
+    switch (this) {
+      case Queue:
+        return new QueueJobScheduler();
+      case Index:
+        return new IndexJobScheduler();
+      default:
+        return new ScanJobScheduler();
+    }
+  }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.zulily.omicron.alert.Alert;
+import com.zulily.omicron.alert.AlertManager;
+import com.zulily.omicron.alert.AlertStatus;
+import com.zulily.omicron.conf.Configuration;
+import com.zulily.omicron.crontab.Crontab;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs the scheduler over simulated days as fast as it can, without starting any processes
+ * <p>
+ * The configuration and crontab are loaded with a clock that only moves when the simulation moves it, and
+ * {@link JobManager} runs every minute of the simulated days in turn. Tasks are handed to a launcher that
+ * completes each one successfully after the average wall time of its command (see
+ * {@link ScheduleForecast#readDurations(java.nio.file.Path)}), or a second if its command has no history.
+ * SLA alerts are collected instead of emailed
+ * <p>
+ * The real task admission, instance limits and SLA policies are used. Queued tasks are admitted on the simulated
+ * clock as running ones finish and the launch rate allows, so limits give the same results on every run. System
+ * pressure is the exception - it is read from the real host
+ */
+public final class Simulation {
+  private static final long DEFAULT_DURATION_MILLIS = TimeUnit.SECONDS.toMillis(1);
+  private static final int ALERT_SAMPLE_COUNT = 10;
+  private static final Splitter LINE_SPLITTER = Splitter.on('\n');
+  private static final DateTimeFormatter MINUTE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+  private final ZonedDateTime start;
+  private final int days;
+  private final int jobCount;
+  private final long[] tickNanos;
+  private final long launches;
+  private final long skips;
+  private final int peakLaunches;
+  private final ZonedDateTime peakLaunchTick;
+  private final int failureAlerts;
+  private final int successAlerts;
+  private final List<String> alertSamples;
+  private final long wallMillis;
+
+  private Simulation(
+    final ZonedDateTime start,
+    final int days,
+    final int jobCount,
+    final long[] tickNanos,
+    final long launches,
+    final long skips,
+    final int peakLaunches,
+    final ZonedDateTime peakLaunchTick,
+    final int failureAlerts,
+    final int successAlerts,
+    final List<String> alertSamples,
+    final long wallMillis
+  ) {
+    this.start = start;
+    this.days = days;
+    this.jobCount = jobCount;
+    this.tickNanos = tickNanos;
+    this.launches = launches;
+    this.skips = skips;
+    this.peakLaunches = peakLaunches;
+    this.peakLaunchTick = peakLaunchTick;
+    this.failureAlerts = failureAlerts;
+    this.successAlerts = successAlerts;
+    this.alertSamples = alertSamples;
+    this.wallMillis = wallMillis;
+  }
+
+  /**
+   * Simulates the scheduler, starting at the next minute
+   *
+   * @param configFilePath The omicron config to load
+   * @param days           The number of days to simulate
+   * @param durations      Average wall time in milliseconds by command line
+   * @return The results of the simulation
+   */
+  public static Simulation simulate(final String configFilePath, final int days, final Map<String, Long> durations) {
+    checkNotNull(configFilePath, "configFilePath");
+    checkArgument(days > 0, "days must be positive: %s", days);
+    checkNotNull(durations, "durations");
+
+    final long startMillis = Clock.systemUTC().instant().truncatedTo(ChronoUnit.MINUTES).plus(1, ChronoUnit.MINUTES).toEpochMilli();
+
+    final SimulatedClock clock = new SimulatedClock(new AtomicLong(startMillis), ZoneOffset.UTC);
+
+    final Configuration configuration = new Configuration(configFilePath, clock);
+    final Crontab crontab = new Crontab(configuration);
+
+    final SimulatedTaskLauncher taskLauncher = new SimulatedTaskLauncher(clock, durations);
+
+    final List<String> alertSamples = Lists.newArrayList();
+    final int[] alertCounts = new int[2];
+
+    final AlertManager alertManager = new AlertManager(configuration, alerts -> {
+      for (final Alert alert : alerts) {
+
+        if (alert.getAlertStatus() == AlertStatus.Failure) {
+          alertCounts[0]++;
+        } else {
+          alertCounts[1]++;
+        }
+
+        if (alertSamples.size() < ALERT_SAMPLE_COUNT) {
+          alertSamples.add(String.format(
+            "%s  %s: %s  %s",
+            Instant.ofEpochMilli(alert.getCreateTimestamp()).atZone(configuration.getZoneId()).format(MINUTE_FORMAT),
+            alert.getAlertStatus() == AlertStatus.Failure ? "FAIL" : "SUCCESS",
+            Iterables.getFirst(LINE_SPLITTER.split(alert.getMessage()), ""),
+            alert.getJob().getCrontabExpression()
+          ));
+        }
+      }
+    });
+
+    final JobManager jobManager = new JobManager(configuration, crontab, alertManager, mode -> taskLauncher);
+
+    final int jobCount = (int) crontab.getCrontabExpressions().stream().filter(expression -> !expression.isCommented() && !expression.isMalformed()).count();
+
+    final int ticks = (int) TimeUnit.DAYS.toMinutes(days);
+    final long[] tickNanos = new long[ticks];
+
+    long launches = 0L;
+    long skips = 0L;
+    int peakLaunches = 0;
+    long peakLaunchMillis = startMillis;
+
+    // Every launch, skip and alert would otherwise be logged
+    final Logger logger = Logger.getGlobal();
+    final Level previousLevel = logger.getLevel();
+
+    logger.setLevel(Level.SEVERE);
+
+    final long wallStartMillis = Clock.systemUTC().millis();
+
+    try {
+
+      for (int tick = 0; tick < ticks; tick++) {
+
+        final long tickMillis = startMillis + TimeUnit.MINUTES.toMillis(tick);
+
+        taskLauncher.completeUntil(tickMillis, jobManager.getAdmissionController());
+
+        final long tickStartNanos = System.nanoTime();
+
+        jobManager.run();
+
+        tickNanos[tick] = System.nanoTime() - tickStartNanos;
+
+        launches += jobManager.getLastExecuteCount();
+        skips += jobManager.getLastDueCount() - jobManager.getLastExecuteCount();
+
+        if (jobManager.getLastExecuteCount() > peakLaunches) {
+          peakLaunches = jobManager.getLastExecuteCount();
+          peakLaunchMillis = tickMillis;
+        }
+      }
+
+    } finally {
+      logger.setLevel(previousLevel);
+    }
+
+    return new Simulation(
+      Instant.ofEpochMilli(startMillis).atZone(configuration.getZoneId()),
+      days,
+      jobCount,
+      tickNanos,
+      launches,
+      skips,
+      peakLaunches,
+      Instant.ofEpochMilli(peakLaunchMillis).atZone(configuration.getZoneId()),
+      alertCounts[0],
+      alertCounts[1],
+      alertSamples,
+      Clock.systemUTC().millis() - wallStartMillis
+    );
+  }
+
+  public long getLaunches() {
+    return launches;
+  }
+
+  public long getSkips() {
+    return skips;
+  }
+
+  public int getFailureAlerts() {
+    return failureAlerts;
+  }
+
+  public int getSuccessAlerts() {
+    return successAlerts;
+  }
+
+  /**
+   * @return A human readable report of the simulation
+   */
+  public String report() {
+    final StringBuilder report = new StringBuilder();
+
+    report.append(String.format(
+      "Simulated %d day(s) of %d runnable lines from %s in %d ms%n",
+      days, jobCount, start.format(DateTimeFormatter.ISO_ZONED_DATE_TIME), wallMillis
+    ));
+
+    report.append(String.format(
+      "Launches: %d, peak of %d at %s%n",
+      launches, peakLaunches, peakLaunchTick.format(MINUTE_FORMAT)
+    ));
+
+    report.append(String.format("Skips: %d (already running up to task.max.instance.count)%n", skips));
+
+    final long[] sortedNanos = tickNanos.clone();
+
+    Arrays.sort(sortedNanos);
+
+    report.append(String.format(
+      "Tick latency: mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms over %d ticks%n",
+      toMillis(Arrays.stream(sortedNanos).sum() / (double) sortedNanos.length),
+      toMillis(percentile(sortedNanos, 0.50)),
+      toMillis(percentile(sortedNanos, 0.99)),
+      toMillis(sortedNanos[sortedNanos.length - 1]),
+      sortedNanos.length
+    ));
+
+    report.append(String.format("SLA alerts: %d failures, %d successes%n", failureAlerts, successAlerts));
+
+    for (final String alertSample : alertSamples) {
+      report.append("  ").append(alertSample).append(System.lineSeparator());
+    }
+
+    return report.toString();
+  }
+
+  private static double percentile(final long[] sorted, final double percentile) {
+    return sorted[(int) Math.min(sorted.length - 1, Math.floor(percentile * sorted.length))];
+  }
+
+  private static double toMillis(final double nanos) {
+    return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  /**
+   * A clock that stands still until it is set - every zone view of it shares the same time
+   */
+  static final class SimulatedClock extends Clock {
+    private final AtomicLong millis;
+    private final ZoneId zone;
+
+    SimulatedClock(final AtomicLong millis, final ZoneId zone) {
+      this.millis = checkNotNull(millis, "millis");
+      this.zone = checkNotNull(zone, "zone");
+    }
+
+    void setMillis(final long millis) {
+      this.millis.set(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return zone;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+      return new SimulatedClock(millis, zone);
+    }
+
+    @Override
+    public long millis() {
+      return millis.get();
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(millis.get());
+    }
+  }
+
+  /**
+   * {@link TaskLauncher} that starts nothing and completes each task once the simulation reaches its end time
+   */
+  static final class SimulatedTaskLauncher implements TaskLauncher {
+    private final SimulatedClock clock;
+    private final Map<String, Long> durations;
+
+    // Guarded by this
+    private final PriorityQueue<SimulatedTask> runningTasks = new PriorityQueue<>();
+    private long launchCount = 0L;
+
+    SimulatedTaskLauncher(final SimulatedClock clock, final Map<String, Long> durations) {
+      this.clock = checkNotNull(clock, "clock");
+      this.durations = checkNotNull(durations, "durations");
+    }
+
+    @Override
+    public synchronized void launch(final RunningTask runningTask) {
+      checkNotNull(runningTask, "runningTask");
+
+      final long durationMillis = durations.getOrDefault(runningTask.getCommandLine(), DEFAULT_DURATION_MILLIS);
+
+      runningTasks.add(new SimulatedTask(runningTask, clock.millis() + Math.max(0L, durationMillis), launchCount++));
+    }
+
+    @Override
+    public void shutdown() {
+      // Nothing to stop
+    }
+
+    /**
+     * Completes every task that ends by the given time and admits queued tasks as the limits allow, each at
+     * its own time, and leaves the clock there
+     *
+     * @param millis              The epoch millisecond to advance the clock to
+     * @param admissionController The admission controller queued tasks wait in
+     */
+    void completeUntil(final long millis, final AdmissionController admissionController) {
+      checkNotNull(admissionController, "admissionController");
+
+      while (true) {
+
+        final long nextEndMillis = nextEndMillis();
+        final long nextAdmissionMillis = admissionController.getNextAdmissionMillis();
+
+        if (Math.min(nextEndMillis, nextAdmissionMillis) > millis) {
+          break;
+        }
+
+        // A task ending at the same time as an admission frees its slot first
+        if (nextEndMillis <= nextAdmissionMillis) {
+
+          final SimulatedTask simulatedTask = poll();
+
+          clock.setMillis(Math.max(clock.millis(), simulatedTask.endMillis));
+
+          simulatedTask.runningTask.completeWithoutProcess(0);
+
+        } else {
+
+          clock.setMillis(Math.max(clock.millis(), nextAdmissionMillis));
+
+          admissionController.admitQueued();
+        }
+      }
+
+      clock.setMillis(millis);
+    }
+
+    private synchronized long nextEndMillis() {
+      final SimulatedTask next = runningTasks.peek();
+
+      return next != null ? next.endMillis : Long.MAX_VALUE;
+    }
+
+    private synchronized SimulatedTask poll() {
+      return runningTasks.poll();
+    }
+  }
+
+  private static final class SimulatedTask implements Comparable<SimulatedTask> {
+    private final RunningTask runningTask;
+    private final long endMillis;
+    private final long launchOrder;
+
+    private SimulatedTask(final RunningTask runningTask, final long endMillis, final long launchOrder) {
+      this.runningTask = runningTask;
+      this.endMillis = endMillis;
+      this.launchOrder = launchOrder;
+    }
+
+    @SuppressWarnings("NullableProblems")
+    @Override
+    public int compareTo(final SimulatedTask o) {
+      return ComparisonChain.start()
+        .compare(endMillis, o.endMillis)
+        .compare(launchOrder, o.launchOrder)
+        .result();
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CharStreams;
+import com.zulily.omicron.Utils;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.zulily.omicron.Utils.WHITESPACE_SPLITTER;
+import static com.zulily.omicron.Utils.warn;
+
+/**
+ * A {@link TaskExecutor} that starts every task as a new process, switching to the task's user with
+ * su, runuser or setpriv according to its {@link TaskLaunchStrategy}
+ * <p>
+ * Linux only: tasks are started through su, or through the util-linux runuser or setpriv, and the
+ * setpriv and direct strategies look up the user's primary group with id -g. Omicron has to run as
+ * root for any of them to switch user
+ */
+final class SwitchUserTaskExecutor implements TaskExecutor {
+  private static final String SHELL = "/bin/sh";
+
+  // Anything the shell would interpret - commands without these can be split on whitespace and run directly
+  private static final CharMatcher SHELL_METACHARACTERS = CharMatcher.anyOf("|&;<>()$`\\\"'*?[]#~=%{}!\n");
+
+  // Looked up once per user with id(1), for setpriv
+  private static final ConcurrentMap<String, String> GROUP_IDS = new ConcurrentHashMap<>();
+
+  private final TaskLaunchStrategy taskLaunchStrategy;
+  private final String switchCommand;
+
+  /**
+   * Constructor
+   *
+   * @param taskLaunchStrategy How to switch to the task's user - any strategy that starts a process per task
+   * @param switchCommand      The path of the su, runuser or setpriv command the strategy uses
+   */
+  SwitchUserTaskExecutor(final TaskLaunchStrategy taskLaunchStrategy, final String switchCommand) {
+    this.taskLaunchStrategy = checkNotNull(taskLaunchStrategy, "taskLaunchStrategy");
+    this.switchCommand = checkNotNull(switchCommand, "switchCommand");
+
+    checkArgument(taskLaunchStrategy != TaskLaunchStrategy.Helper, "helpers are started by HelperTaskExecutor");
+  }
+
+  @Override
+  public Process start(final RunningTask runningTask) throws IOException {
+    checkNotNull(runningTask, "runningTask");
+
+    if (!Utils.isRunningAsRoot()) {
+
+      warn("Not running as root. Cannot execute: {0}", runningTask.getCommandLine());
+
+      return null;
+    }
+
+    if (!Utils.fileExistsAndCanRead(switchCommand)) {
+
+      warn("{0} command does not exist as specified location: {1}", taskLaunchStrategy.getRawName(), this.switchCommand);
+
+      return null;
+    }
+
+    return runningTask.startCommand(command(runningTask.getExecutingUser(), runningTask.getCommandLine()));
+  }
+
+  /**
+   * @param user        The user to run the command as
+   * @param commandLine The crontab command
+   * @return The process arguments that run the command as the user
+   * @throws IOException If the user's group cannot be looked up
+   */
+  List<String> command(final String user, final String commandLine) throws IOException {
+    switch (taskLaunchStrategy) {
+
+      case SuNoLogin:
+        return ImmutableList.of(switchCommand, "-s", SHELL, user, "-c", commandLine);
+
+      case Runuser:
+        return ImmutableList.of(switchCommand, "-u", user, "--", SHELL, "-c", commandLine);
+
+      case Setpriv:
+      case Direct:
+
+        final ImmutableList.Builder<String> command = ImmutableList.<String>builder()
+          .add(switchCommand, "--reuid=" + user, "--regid=" + groupIdOf(user), "--init-groups", "--reset-env", "--");
+
+        if (taskLaunchStrategy == TaskLaunchStrategy.Direct && SHELL_METACHARACTERS.matchesNoneOf(commandLine)) {
+          return command.addAll(WHITESPACE_SPLITTER.split(commandLine)).build();
+        }
+
+        return command.add(SHELL, "-c", commandLine).build();
+
+      default:
+        return ImmutableList.of(switchCommand, "-", user, "-c", commandLine);
+    }
+  }
+
+  private static String groupIdOf(final String user) throws IOException {
+    final String cached = GROUP_IDS.get(user);
+
+    if (cached != null) {
+      return cached;
+    }
+
+    final Process process = new ProcessBuilder("id", "-g", "--", user).redirectErrorStream(true).start();
+
+    final String output;
+
+    try (InputStreamReader reader = new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII)) {
+      output = CharStreams.toString(reader).trim();
+    }
+
+    try {
+      if (process.waitFor() != 0 || !CharMatcher.DIGIT.matchesAllOf(output) || output.isEmpty()) {
+        throw new IOException("Cannot look up the group of " + user + ": " + output);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted looking up the group of " + user, e);
+    }
+
+    GROUP_IDS.putIfAbsent(user, output);
+
+    return output;
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.zulily.omicron.Utils.WHITESPACE_SPLITTER;
+
+/**
+ * A reading of how saturated the host is
+ * <p>
+ * CPU and memory pressure are the "some avg10" values of Linux pressure stall information (PSI): the
+ * percentage of the last 10 seconds in which at least one task was stalled waiting on that resource.
+ * The load average is the 1 minute value from /proc/loadavg. PSI needs Linux 4.20 or later - any value
+ * that cannot be read is {@link #UNKNOWN} and never counts as exceeded
+ */
+final class SystemPressure {
+  static final double UNKNOWN = -1.0;
+
+  private static final Path PROC = Paths.get("/proc");
+
+  private final double cpuPressure;
+  private final double memoryPressure;
+  private final double loadAverage;
+
+  SystemPressure(final double cpuPressure, final double memoryPressure, final double loadAverage) {
+    this.cpuPressure = cpuPressure;
+    this.memoryPressure = memoryPressure;
+    this.loadAverage = loadAverage;
+  }
+
+  /**
+   * @return The current pressure of this host
+   */
+  static SystemPressure read() {
+    return read(PROC);
+  }
+
+  /**
+   * @param procRoot Where procfs is mounted
+   * @return The current pressure as reported under procRoot
+   */
+  static SystemPressure read(final Path procRoot) {
+    checkNotNull(procRoot, "procRoot");
+
+    return new SystemPressure(
+      readPressure(procRoot.resolve("pressure").resolve("cpu")),
+      readPressure(procRoot.resolve("pressure").resolve("memory")),
+      readLoadAverage(procRoot.resolve("loadavg"))
+    );
+  }
+
+  /**
+   * @param maxCpuPressure    The highest acceptable CPU pressure, ignored if negative
+   * @param maxMemoryPressure The highest acceptable memory pressure, ignored if negative
+   * @param maxLoadAverage    The highest acceptable 1 minute load average, ignored if negative
+   * @return true if any known value is over its threshold
+   */
+  boolean exceeds(final int maxCpuPressure, final int maxMemoryPressure, final int maxLoadAverage) {
+    return exceeds(cpuPressure, maxCpuPressure)
+      || exceeds(memoryPressure, maxMemoryPressure)
+      || exceeds(loadAverage, maxLoadAverage);
+  }
+
+  double getCpuPressure() {
+    return cpuPressure;
+  }
+
+  double getMemoryPressure() {
+    return memoryPressure;
+  }
+
+  double getLoadAverage() {
+    return loadAverage;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("cpu pressure %.2f%%, memory pressure %.2f%%, load average %.2f", cpuPressure, memoryPressure, loadAverage);
+  }
+
+  /**
+   * @param lines The contents of a /proc/pressure file
+   * @return The "some avg10" percentage, or {@link #UNKNOWN} if it is not present
+   */
+  static double parsePressure(final List<String> lines) {
+    checkNotNull(lines, "lines");
+
+    for (final String line : lines) {
+
+      final List<String> fields = WHITESPACE_SPLITTER.splitToList(line);
+
+      if (fields.isEmpty() || !fields.get(0).equals("some")) {
+        continue;
+      }
+
+      for (final String field : fields) {
+        if (field.startsWith("avg10=")) {
+          try {
+            return Double.parseDouble(field.substring("avg10=".length()));
+          } catch (NumberFormatException e) {
+            return UNKNOWN;
+          }
+        }
+      }
+    }
+
+    return UNKNOWN;
+  }
+
+  private static boolean exceeds(final double value, final int threshold) {
+    return threshold >= 0 && value != UNKNOWN && value > threshold;
+  }
+
+  private static double readPressure(final Path file) {
+    try {
+      return parsePressure(Files.readAllLines(file, StandardCharsets.US_ASCII));
+    } catch (IOException e) {
+      return UNKNOWN;
+    }
+  }
+
+  private static double readLoadAverage(final Path file) {
+    try {
+      final List<String> fields = WHITESPACE_SPLITTER.splitToList(new String(Files.readAllBytes(file), StandardCharsets.US_ASCII));
+
+      return fields.isEmpty() ? UNKNOWN : Double.parseDouble(fields.get(0));
+    } catch (IOException | NumberFormatException e) {
+      return UNKNOWN;
+    }
+  }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.zulily.omicron.Utils.COMMA_JOINER;
+import static com.zulily.omicron.Utils.WHITESPACE_SPLITTER;
+import static com.zulily.omicron.Utils.warn;
+
+/**
+ * A cgroup v2 leaf holding every process of a single {@link RunningTask}
+ * <p>
+ * The task enters the cgroup through a small shell wrapper that writes its own pid to
+ * cgroup.procs and then execs su in place. Every descendant is created inside the cgroup,
+ * including ones that daemonize or are re-parented to init, so the cgroup is the authority on
+ * what belongs to a task: a kill is one write to cgroup.kill, and CPU, memory and IO usage are
+ * read from the cgroup's own counters when the task exits
+ * <p>
+ * Leaves are created under an omicron-owned parent cgroup, which gets the cpu, memory and io
+ * controllers enabled for its children where the system makes them available
+ */
+final class TaskCgroup {
+  private static final String LEAF_PREFIX = "task-";
+  private static final long CPU_PERIOD_MICROS = 100_000L;
+  private static final Set<String> CONTROLLERS = ImmutableSet.of("cpu", "memory", "io");
+
+  // Writes the shell's pid to the file passed as $0, then replaces the shell with the task command
+  private static final String ENTER_SCRIPT = "echo $$ > \"$0\" && exec \"$@\"";
+
+  private static final AtomicLong SEQUENCE = new AtomicLong();
+  private static final Set<Path> PREPARED_ROOTS = ConcurrentHashMap.newKeySet();
+
+  // Leaves whose processes outlived their task - removal is retried as new tasks launch
+  private static final Queue<Path> LINGERING = new ConcurrentLinkedQueue<>();
+
+  private final Path path;
+
+  private TaskCgroup(final Path path) {
+    this.path = path;
+  }
+
+  /**
+   * Creates a new, empty leaf cgroup for a task
+   *
+   * @param root               The omicron-owned parent cgroup, created if it does not exist
+   * @param memoryMaxMegabytes The memory limit for the task, not set if not positive
+   * @param cpuMaxPercent      The share of a single CPU the task may use, not set if not positive
+   * @return The new cgroup
+   * @throws IOException If the cgroup cannot be created
+   */
+  static TaskCgroup create(final String root, final int memoryMaxMegabytes, final int cpuMaxPercent) throws IOException {
+    checkNotNull(root, "root");
+    checkArgument(!root.trim().isEmpty(), "root cannot be empty");
+
+    final Path rootPath = Paths.get(root.trim()).toAbsolutePath().normalize();
+
+    prepareRoot(rootPath);
+
+    removeLingering();
+
+    final TaskCgroup taskCgroup = new TaskCgroup(
+      Files.createDirectory(rootPath.resolve(LEAF_PREFIX + ProcessHandle.current().pid() + "-" + SEQUENCE.incrementAndGet()))
+    );
+
+    // A limit that cannot be applied (controller not delegated, old kernel) leaves the task unlimited rather than unlaunched
+    if (memoryMaxMegabytes > 0) {
+      taskCgroup.setLimit("memory.max", String.valueOf(memoryMaxMegabytes * 1024L * 1024L));
+    }
+
+    if (cpuMaxPercent > 0) {
+      taskCgroup.setLimit("cpu.max", (CPU_PERIOD_MICROS * cpuMaxPercent / 100L) + " " + CPU_PERIOD_MICROS);
+    }
+
+    return taskCgroup;
+  }
+
+  /**
+   * @param command The command that starts the task
+   * @return The command prefixed with the wrapper that moves it into this cgroup before it runs
+   */
+  List<String> wrap(final List<String> command) {
+    return ImmutableList.<String>builder()
+      .add("/bin/sh", "-c", ENTER_SCRIPT, path.resolve("cgroup.procs").toString())
+      .addAll(command)
+      .build();
+  }
+
+  /**
+   * @return Every process currently in the cgroup
+   * @throws IOException If cgroup.procs cannot be read
+   */
+  List<ProcessHandle> processes() throws IOException {
+    return Files.readAllLines(path.resolve("cgroup.procs"), StandardCharsets.US_ASCII)
+      .stream()
+      .map(String::trim)
+      .filter(line -> !line.isEmpty())
+      .map(Long::parseLong)
+      .map(ProcessHandle::of)
+      .filter(Optional::isPresent)
+      .map(Optional::get)
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Sends SIGTERM to every process in the cgroup, then SIGKILL to whatever is left after the grace period
+   * <p>
+   * SIGKILL goes through cgroup.kill, so processes forked or re-parented during the grace period
+   * are caught as well
+   *
+   * @param killGraceMillis How long to wait after SIGTERM before SIGKILL - SIGKILL is sent right away if not positive
+   * @param timeoutService  The service to schedule the escalation with
+   * @return The pids that were sent SIGTERM
+   * @throws IOException If the cgroup cannot be read or written
+   */
+  List<Long> kill(final long killGraceMillis, final TaskTimeoutService timeoutService) throws IOException {
+    checkNotNull(timeoutService, "timeoutService");
+
+    final List<ProcessHandle> processes = processes();
+
+    if (killGraceMillis > 0) {
+
+      processes.forEach(ProcessHandle::destroy);
+
+      timeoutService.schedule(killGraceMillis, () -> {
+        try {
+          killAll();
+        } catch (IOException e) {
+          // The task exited within the grace period and the cgroup is already gone
+          if (Files.exists(path)) {
+            warn("Failed to kill the processes in {0}: {1}", path.toString(), e.getMessage());
+          }
+        }
+      });
+
+    } else {
+      killAll();
+    }
+
+    return processes.stream().map(ProcessHandle::pid).collect(Collectors.toList());
+  }
+
+  /**
+   * Sends SIGKILL to every process in the cgroup
+   *
+   * @throws IOException If the cgroup cannot be read or written
+   */
+  void killAll() throws IOException {
+    final Path cgroupKill = path.resolve("cgroup.kill");
+
+    if (Files.exists(cgroupKill)) {
+      write(cgroupKill, "1");
+    } else {
+      // cgroup.kill arrived in Linux 5.14
+      processes().forEach(ProcessHandle::destroyForcibly);
+    }
+  }
+
+  /**
+   * @return The resources used by everything that ran in the cgroup so far
+   */
+  ResourceUsage readUsage() {
+    long userCpuMicros = ResourceUsage.UNKNOWN;
+    long systemCpuMicros = ResourceUsage.UNKNOWN;
+    long peakMemoryBytes = ResourceUsage.UNKNOWN;
+    long readBytes = ResourceUsage.UNKNOWN;
+    long writeBytes = ResourceUsage.UNKNOWN;
+
+    try {
+      final List<String> cpuStat = Files.readAllLines(path.resolve("cpu.stat"), StandardCharsets.US_ASCII);
+
+      userCpuMicros = sumField(cpuStat, "user_usec");
+      systemCpuMicros = sumField(cpuStat, "system_usec");
+    } catch (IOException e) {
+      // Leave as unknown
+    }
+
+    try {
+      // memory.peak arrived in Linux 5.19
+      peakMemoryBytes = Long.parseLong(new String(Files.readAllBytes(path.resolve("memory.peak")), StandardCharsets.US_ASCII).trim());
+    } catch (IOException | NumberFormatException e) {
+      // Leave as unknown
+    }
+
+    try {
+      final List<String> ioStat = Files.readAllLines(path.resolve("io.stat"), StandardCharsets.US_ASCII);
+
+      readBytes = sumField(ioStat, "rbytes");
+      writeBytes = sumField(ioStat, "wbytes");
+    } catch (IOException e) {
+      // Leave as unknown
+    }
+
+    return new ResourceUsage(ResourceUsage.UNKNOWN, userCpuMicros, systemCpuMicros, peakMemoryBytes, readBytes, writeBytes);
+  }
+
+  /**
+   * Removes the cgroup once the task has exited
+   * <p>
+   * If any of the task's processes are still running (e.g. it started something in the background)
+   * the cgroup is kept, and removal is retried as later tasks launch
+   *
+   * @return true if the cgroup was removed
+   */
+  boolean remove() {
+    if (tryRemove(path)) {
+      return true;
+    }
+
+    LINGERING.add(path);
+
+    return false;
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  /**
+   * Sums a counter from a cgroup stat file
+   * <p>
+   * Handles both the flat "key value" format (cpu.stat) and the per-device "device key=value ..." format (io.stat)
+   *
+   * @param lines The lines of the stat file
+   * @param key   The counter to sum
+   * @return The total, or {@link ResourceUsage#UNKNOWN} if the counter does not appear
+   */
+  static long sumField(final List<String> lines, final String key) {
+    checkNotNull(lines, "lines");
+    checkNotNull(key, "key");
+
+    long total = ResourceUsage.UNKNOWN;
+
+    for (final String line : lines) {
+
+      final List<String> fields = WHITESPACE_SPLITTER.splitToList(line);
+
+      for (int index = 0; index < fields.size(); index++) {
+
+        final String field = fields.get(index);
+
+        String value = null;
+
+        if (field.equals(key) && index + 1 < fields.size()) {
+          value = fields.get(index + 1);
+        } else if (field.startsWith(key + "=")) {
+          value = field.substring(key.length() + 1);
+        }
+
+        if (value != null) {
+          try {
+            total = Math.max(total, 0L) + Long.parseLong(value);
+          } catch (NumberFormatException e) {
+            // Not a counter
+          }
+        }
+      }
+    }
+
+    return total;
+  }
+
+  private void setLimit(final String file, final String value) {
+    try {
+      write(path.resolve(file), value);
+    } catch (IOException e) {
+      warn("Cannot set {0} to {1} for {2}, running without the limit: {3}", file, value, path.toString(), e.getMessage());
+    }
+  }
+
+  private static void prepareRoot(final Path rootPath) throws IOException {
+    if (!PREPARED_ROOTS.add(rootPath)) {
+      return;
+    }
+
+    Files.createDirectories(rootPath);
+
+    // Clean up after a previous run - anything still populated is kept
+    try (final Stream<Path> leaves = Files.list(rootPath)) {
+      leaves
+        .filter(leaf -> leaf.getFileName().toString().startsWith(LEAF_PREFIX))
+        .forEach(TaskCgroup::tryRemove);
+    }
+
+    final Path controllersFile = rootPath.resolve("cgroup.controllers");
+
+    final Set<String> available = Files.exists(controllersFile)
+      ? ImmutableSet.copyOf(WHITESPACE_SPLITTER.split(new String(Files.readAllBytes(controllersFile), StandardCharsets.US_ASCII)))
+      : ImmutableSet.of();
+
+    final List<String> enabled = CONTROLLERS.stream().filter(available::contains).collect(Collectors.toList());
+
+    if (enabled.size() < CONTROLLERS.size()) {
+      warn(
+        "Only [{0}] of the cpu, memory and io cgroup controllers are available in {1}. Task limits and usage counters need them delegated.",
+        COMMA_JOINER.join(enabled),
+        rootPath.toString()
+      );
+    }
+
+    for (final String controller : enabled) {
+      try {
+        write(rootPath.resolve("cgroup.subtree_control"), "+" + controller);
+      } catch (IOException e) {
+        warn("Cannot enable the {0} controller for tasks in {1}: {2}", controller, rootPath.toString(), e.getMessage());
+      }
+    }
+  }
+
+  private static void removeLingering() {
+    final Iterator<Path> lingering = LINGERING.iterator();
+
+    while (lingering.hasNext()) {
+      if (tryRemove(lingering.next())) {
+        lingering.remove();
+      }
+    }
+  }
+
+  private static boolean tryRemove(final Path leaf) {
+    try {
+      // rmdir succeeds on a cgroup with no processes, despite its interface files
+      Files.deleteIfExists(leaf);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static void write(final Path file, final String value) throws IOException {
+    // cgroup interface files exist already and must not be created or truncated
+    Files.write(file, value.getBytes(StandardCharsets.US_ASCII), StandardOpenOption.WRITE);
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import static com.zulily.omicron.Utils.warn;
+
+/**
+ * The ways {@link TaskLauncher} can run the launch, wait and timeout of a task
+ */
+enum TaskExecutionMode {
+
+  // A small pool of platform threads starts processes - completions and timeouts are callbacks
+  Platform("platform"),
+
+  // A virtual thread per task starts the process and waits on it (Java 21+)
+  Virtual("virtual");
+
+  private final String rawName;
+
+  TaskExecutionMode(final String rawName) {
+    this.rawName = rawName;
+  }
+
+  /**
+   * Returns the TaskExecutionMode that matches the provided config value
+   * or Platform if the value is not recognized
+   *
+   * @param rawName The config value
+   * @return A TaskExecutionMode value
+   */
+  static TaskExecutionMode fromString(final String rawName) {
+    if (rawName != null) {
+
+      final String trimmed = rawName.trim();
+
+      for (TaskExecutionMode taskExecutionMode : TaskExecutionMode.values()) {
+
+        if (taskExecutionMode.rawName.equalsIgnoreCase(trimmed)) {
+          return taskExecutionMode;
+        }
+
+      }
+
+    }
+
+    warn("Unknown task execution mode {0}, defaulting to {1}", String.valueOf(rawName), Platform.rawName);
+
+    return Platform;
+  }
+}
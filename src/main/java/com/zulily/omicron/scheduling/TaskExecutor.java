@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+/**
+ * Starts whatever carries out the command of a {@link RunningTask}
+ * <p>
+ * An executor that does not start an OS process returns a {@link Process} whose {@link Process#toHandle()}
+ * throws {@link UnsupportedOperationException}. Such tasks are not sampled from procfs, and on timeout
+ * they are stopped with {@link Process#destroyForcibly()} instead of having a process tree killed
+ */
+interface TaskExecutor {
+
+  /**
+   * @param runningTask The task to start
+   * @return The started process, or null if it cannot be started - the reason has then already been logged
+   * @throws Exception If starting the task failed
+   */
+  Process start(final RunningTask runningTask) throws Exception;
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.zulily.omicron.conf.ConfigKey;
+import com.zulily.omicron.conf.Configuration;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.zulily.omicron.Utils.warn;
+
+/**
+ * The ways a task's command is started as its user - see {@link TaskExecutor}
+ */
+enum TaskLaunchStrategy {
+
+  // su runs a login shell of the user for every launch
+  Su("su"),
+
+  // su runs /bin/sh without a login - PAM still runs, the user's profile does not
+  SuNoLogin("su-nologin"),
+
+  // runuser switches user without authenticating and runs /bin/sh
+  Runuser("runuser"),
+
+  // setpriv switches uid, gid and groups without PAM and runs /bin/sh with a reset environment
+  Setpriv("setpriv"),
+
+  // As setpriv, but commands without shell metacharacters are run without a shell
+  Direct("direct"),
+
+  // A long-lived helper shell per user, started once through su, forks every launch
+  Helper("helper");
+
+  private final String rawName;
+
+  TaskLaunchStrategy(final String rawName) {
+    this.rawName = rawName;
+  }
+
+  String getRawName() {
+    return rawName;
+  }
+
+  /**
+   * @param user          The user to start tasks as
+   * @param configuration The configuration with the paths of the launch commands
+   * @return The executor that starts the user's tasks this way
+   */
+  TaskExecutor executorFor(final String user, final Configuration configuration) {
+    checkNotNull(user, "user");
+    checkNotNull(configuration, "configuration");
+
+    switch (this) {
+
+      case Helper:
+        return HelperTaskExecutor.forUser(configuration.getString(ConfigKey.CommandSu), user);
+
+      case Runuser:
+        return new SwitchUserTaskExecutor(this, configuration.getString(ConfigKey.CommandRunuser));
+
+      case Setpriv:
+      case Direct:
+        return new SwitchUserTaskExecutor(this, configuration.getString(ConfigKey.CommandSetpriv));
+
+      default:
+        return new SwitchUserTaskExecutor(this, configuration.getString(ConfigKey.CommandSu));
+    }
+  }
+
+  /**
+   * Returns the TaskLaunchStrategy that matches the provided config value
+   * or Su if the value is not recognized
+   *
+   * @param rawName The config value
+   * @return A TaskLaunchStrategy value
+   */
+  static TaskLaunchStrategy fromString(final String rawName) {
+    if (rawName != null) {
+
+      final String trimmed = rawName.trim();
+
+      for (TaskLaunchStrategy taskLaunchStrategy : TaskLaunchStrategy.values()) {
+
+        if (taskLaunchStrategy.rawName.equalsIgnoreCase(trimmed)) {
+          return taskLaunchStrategy;
+        }
+
+      }
+
+    }
+
+    warn("Unknown task launch strategy {0}, defaulting to {1}", String.valueOf(rawName), Su.rawName);
+
+    return Su;
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+/**
+ * Starts the processes of admitted {@link RunningTask} instances
+ */
+interface TaskLauncher {
+
+  /**
+   * Starts the task - the task reports its own completion
+   *
+   * @param runningTask The task to start
+   */
+  void launch(final RunningTask runningTask);
+
+  /**
+   * Stops accepting new tasks - tasks already started keep running and still report completion
+   */
+  void shutdown();
+}
@@ -27,11 +27,17 @@ public class TaskLogEntry extends LogEntry {
 
   private final int taskId;
   private final TaskStatus taskStatus;
+  private final ResourceUsage resourceUsage;
 
   TaskLogEntry(final int taskId, final TaskStatus taskStatus, final long timestamp) {
+    this(taskId, taskStatus, timestamp, ResourceUsage.NONE);
+  }
+
+  TaskLogEntry(final int taskId, final TaskStatus taskStatus, final long timestamp, final ResourceUsage resourceUsage) {
     super(timestamp);
     this.taskId = taskId;
     this.taskStatus = checkNotNull(taskStatus, "taskStatus");
+    this.resourceUsage = checkNotNull(resourceUsage, "resourceUsage");
   }
 
   public int getTaskId() {
@@ -42,6 +48,13 @@ public class TaskLogEntry extends LogEntry {
     return taskStatus;
   }
 
+  /**
+   * @return The resources used by the task - only known for entries logged when a task finishes
+   */
+  public ResourceUsage getResourceUsage() {
+    return resourceUsage;
+  }
+
   @Override
   public String toString() {
     return String.valueOf(getTimestamp()) + ":" + String.valueOf(taskId) + ":" + taskStatus;
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The captured stdout and stderr of a {@link Job}'s tasks, kept in a size capped file with numbered backups
+ * <p>
+ * Output goes straight from the task to the file: both streams of the process are redirected to it in
+ * append mode, so omicron copies nothing while the task runs and needs no thread per stream
+ * <p>
+ * The size cap is checked before every launch and every second while tasks run. Running tasks hold
+ * the file open, so a full file is rotated by copying it to the first backup with
+ * {@link FileChannel#transferTo} and truncating it in place. As with logrotate's copytruncate,
+ * output written between the copy and the truncate is lost
+ * <p>
+ * The end of the file is kept in memory each time a task finishes, for alerts and inspection
+ */
+final class TaskOutput {
+  static final int TAIL_BYTES = 4096;
+
+  private final Path file;
+  private final long maxBytes;
+  private final int backupCount;
+
+  private volatile String lastTail = "";
+
+  /**
+   * Constructor
+   *
+   * @param file        The file to write output to
+   * @param maxBytes    The size at which the file is rotated, never rotated if not positive
+   * @param backupCount The number of rotated files to keep
+   */
+  TaskOutput(final Path file, final long maxBytes, final int backupCount) {
+    this.file = checkNotNull(file, "file");
+    this.maxBytes = maxBytes;
+    this.backupCount = Math.max(0, backupCount);
+  }
+
+  /**
+   * Prepares the file for a task that is about to start
+   *
+   * @param header A line to separate the task's output from the output before it
+   * @return The redirect to start the task's process with
+   * @throws IOException If the file cannot be written
+   */
+  synchronized ProcessBuilder.Redirect open(final String header) throws IOException {
+    checkNotNull(header, "header");
+
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+
+    rotateIfFull();
+
+    Files.write(file, (header + '\n').getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+    return ProcessBuilder.Redirect.appendTo(file.toFile());
+  }
+
+  /**
+   * Rotates the file if it has reached the size cap
+   *
+   * @throws IOException If the file or its backups cannot be written
+   */
+  synchronized void rotateIfFull() throws IOException {
+    if (maxBytes <= 0 || !Files.exists(file) || Files.size(file) < maxBytes) {
+      return;
+    }
+
+    if (backupCount > 0) {
+
+      Files.deleteIfExists(backup(backupCount));
+
+      for (int index = backupCount - 1; index > 0; index--) {
+        if (Files.exists(backup(index))) {
+          Files.move(backup(index), backup(index + 1));
+        }
+      }
+    }
+
+    try (final FileChannel source = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+      if (backupCount > 0) {
+        try (final FileChannel target = FileChannel.open(backup(1), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+
+          final long size = source.size();
+
+          long position = 0L;
+
+          while (position < size) {
+            position += source.transferTo(position, size - position, target);
+          }
+        }
+      }
+
+      source.truncate(0L);
+    }
+  }
+
+  /**
+   * Called as each task finishes to keep the end of its output in memory
+   */
+  void taskFinished() {
+    try {
+      this.lastTail = readTail();
+    } catch (IOException e) {
+      this.lastTail = "";
+    }
+  }
+
+  /**
+   * @return Up to {@link #TAIL_BYTES} of the output at the time the last task finished
+   */
+  String getLastTail() {
+    return lastTail;
+  }
+
+  Path getFile() {
+    return file;
+  }
+
+  /**
+   * @return true if this instance writes to the same file with the same limits
+   */
+  boolean hasSettings(final Path file, final long maxBytes, final int backupCount) {
+    return this.file.equals(file) && this.maxBytes == maxBytes && this.backupCount == Math.max(0, backupCount);
+  }
+
+  private String readTail() throws IOException {
+    if (!Files.exists(file)) {
+      return "";
+    }
+
+    try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+      final long size = channel.size();
+      final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, TAIL_BYTES));
+
+      channel.position(size - buffer.capacity());
+
+      while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+        // Keep reading
+      }
+
+      final String tail = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+
+      // Start at a line boundary rather than part way through a line (or a multi-byte character)
+      final int firstLineEnd = tail.indexOf('\n');
+
+      return size > buffer.capacity() && firstLineEnd > -1 ? tail.substring(firstLineEnd + 1) : tail;
+    }
+  }
+
+  private Path backup(final int index) {
+    return file.resolveSibling(file.getFileName() + "." + index);
+  }
+}
@@ -22,6 +22,7 @@ public enum TaskStatus {
   Skipped,
   Started,
   FailedStart,
-  Killed
+  Killed,
+  Queued // Waiting for the admission controller - followed by Started once launched
 
 }
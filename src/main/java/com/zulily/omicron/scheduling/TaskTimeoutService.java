@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.zulily.omicron.Utils.error;
+
+/**
+ * Tracks the timeout deadlines of all running tasks on a single thread using a hashed timer wheel
+ * <p>
+ * Deadlines are hashed into a fixed ring of buckets by the tick they expire on. Each tick the
+ * timer thread visits one bucket, so scheduling and cancelling are O(1) and a tick only touches
+ * the timeouts that share its bucket. Deadlines further out than one revolution of the wheel
+ * wait out their remaining rounds in the bucket
+ * <p>
+ * New timeouts are handed over through a concurrent queue and placed on the wheel by the timer thread,
+ * and cancelled timeouts are dropped the next time their bucket comes up
+ * <p>
+ * The timer thread never runs an action itself - expired timeouts are handed to a small pool of worker
+ * threads, so kills, procfs sampling, cgroup writes and output rotation cannot hold up the wheel
+ */
+final class TaskTimeoutService {
+  private static final long DEFAULT_TICK_MILLIS = TimeUnit.SECONDS.toMillis(1);
+  private static final int DEFAULT_WHEEL_SIZE = 512;
+  private static final int WORKER_COUNT = 4;
+
+  private final long tickMillis;
+  private final ArrayList<ArrayList<Timeout>> wheel;
+  private final int mask;
+  private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+  private final long startMillis;
+  private final ExecutorService workers = Executors.newFixedThreadPool(
+    WORKER_COUNT,
+    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("omicron-task-work-%d").build()
+  );
+
+  // Only touched by the timer thread
+  private long tick = 0L;
+
+  TaskTimeoutService() {
+    this(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param tickMillis The resolution of the wheel
+   * @param wheelSize  The number of buckets - must be a power of two
+   */
+  TaskTimeoutService(final long tickMillis, final int wheelSize) {
+    checkArgument(tickMillis > 0, "tickMillis must be positive");
+    checkArgument(wheelSize > 0 && Integer.bitCount(wheelSize) == 1, "wheelSize must be a power of two: %s", wheelSize);
+
+    this.tickMillis = tickMillis;
+    this.mask = wheelSize - 1;
+    this.wheel = new ArrayList<>(wheelSize);
+
+    for (int index = 0; index < wheelSize; index++) {
+      wheel.add(new ArrayList<>());
+    }
+
+    this.startMillis = System.nanoTime() / 1000000L;
+
+    final Thread thread = new Thread(this::runTimer, "omicron-task-timeout");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Schedules an action to run once the delay has passed, rounded up to the next tick
+   *
+   * @param delayMillis The delay before the action fires
+   * @param action      The action to run on a worker thread - it may block, but holds up other expired actions while it does
+   * @return A handle to cancel the timeout with
+   */
+  Timeout schedule(final long delayMillis, final Runnable action) {
+    checkNotNull(action, "action");
+
+    final Timeout timeout = new Timeout(elapsedMillis() + Math.max(0L, delayMillis), action);
+
+    pendingTimeouts.add(timeout);
+
+    return timeout;
+  }
+
+  private long elapsedMillis() {
+    return System.nanoTime() / 1000000L - startMillis;
+  }
+
+  private void runTimer() {
+
+    //noinspection InfiniteLoopStatement
+    while (true) {
+
+      // Wait for the end of the current tick
+      final long tickDeadline = (tick + 1) * tickMillis;
+
+      long remainingMillis = tickDeadline - elapsedMillis();
+
+      while (remainingMillis > 0) {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(remainingMillis));
+        remainingMillis = tickDeadline - elapsedMillis();
+      }
+
+      placePendingTimeouts();
+
+      expireBucket(wheel.get((int) (tick & mask)));
+
+      tick++;
+    }
+  }
+
+  private void placePendingTimeouts() {
+    Timeout timeout;
+
+    while ((timeout = pendingTimeouts.poll()) != null) {
+
+      if (timeout.cancelled) {
+        continue;
+      }
+
+      // The tick whose end is the first at or after the deadline - never one already passed
+      final long expiryTick = Math.max(tick, (timeout.deadlineMillis + tickMillis - 1) / tickMillis - 1);
+
+      timeout.remainingRounds = (expiryTick - tick) / wheel.size();
+
+      wheel.get((int) (expiryTick & mask)).add(timeout);
+    }
+  }
+
+  private void expireBucket(final ArrayList<Timeout> bucket) {
+    final Iterator<Timeout> iterator = bucket.iterator();
+
+    while (iterator.hasNext()) {
+      final Timeout timeout = iterator.next();
+
+      if (timeout.cancelled) {
+        iterator.remove();
+        continue;
+      }
+
+      if (timeout.remainingRounds > 0) {
+        timeout.remainingRounds--;
+        continue;
+      }
+
+      iterator.remove();
+
+      workers.execute(() -> fire(timeout));
+    }
+  }
+
+  private static void fire(final Timeout timeout) {
+    // Cancelled while waiting for a worker
+    if (timeout.cancelled) {
+      return;
+    }
+
+    try {
+      timeout.action.run();
+    } catch (Exception e) {
+      error("Task timeout action failed\n{0}", Throwables.getStackTraceAsString(e));
+    }
+  }
+
+  /**
+   * A scheduled timeout on the wheel
+   */
+  static final class Timeout {
+    private final long deadlineMillis;
+    private final Runnable action;
+    private volatile boolean cancelled = false;
+
+    // Only touched by the timer thread
+    private long remainingRounds;
+
+    private Timeout(final long deadlineMillis, final Runnable action) {
+      this.deadlineMillis = deadlineMillis;
+      this.action = action;
+    }
+
+    /**
+     * Prevents the action from running if it has not already
+     */
+    void cancel() {
+      this.cancelled = true;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.zulily.omicron.Utils.info;
+import static com.zulily.omicron.Utils.warn;
+
+/**
+ * {@link TaskLauncher} that runs {@link RunningTask} instances according to a {@link TaskExecutionMode}
+ * <p>
+ * In platform mode, a pool sized to the host only starts processes and nothing waits on them.
+ * In virtual mode, every task gets its own virtual thread that starts the process and then
+ * blocks until it exits or times out - blocking is cheap there, and a burst of launches never
+ * allocates platform stacks
+ */
+final class ThreadTaskLauncher implements TaskLauncher {
+  private final TaskExecutionMode taskExecutionMode;
+  private final ExecutorService executorService;
+  private final TaskTimeoutService taskTimeoutService;
+
+  /**
+   * Constructor
+   *
+   * @param requestedMode      The configured execution mode - virtual falls back to platform
+   *                           when the runtime does not support virtual threads
+   * @param taskTimeoutService The service enforcing task timeouts in either mode
+   */
+  ThreadTaskLauncher(final TaskExecutionMode requestedMode, final TaskTimeoutService taskTimeoutService) {
+    checkNotNull(requestedMode, "requestedMode");
+    this.taskTimeoutService = checkNotNull(taskTimeoutService, "taskTimeoutService");
+
+    final ExecutorService virtualExecutor = requestedMode == TaskExecutionMode.Virtual ? newVirtualThreadPerTaskExecutor() : null;
+
+    if (virtualExecutor != null) {
+      this.taskExecutionMode = TaskExecutionMode.Virtual;
+      this.executorService = virtualExecutor;
+    } else {
+      this.taskExecutionMode = TaskExecutionMode.Platform;
+      this.executorService = Executors.newFixedThreadPool(
+        Math.max(2, Runtime.getRuntime().availableProcessors()),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("omicron-task-launcher-%d").build()
+      );
+    }
+
+    info("Launching tasks on {0} threads", taskExecutionMode.name().toLowerCase());
+  }
+
+  @Override
+  public void launch(final RunningTask runningTask) {
+    checkNotNull(runningTask, "runningTask");
+
+    if (taskExecutionMode == TaskExecutionMode.Virtual) {
+      executorService.execute(() -> runningTask.launchAndWait(taskTimeoutService));
+    } else {
+      executorService.execute(() -> runningTask.launch(taskTimeoutService));
+    }
+  }
+
+  /**
+   * @return The mode actually in use, which may differ from the requested one
+   */
+  TaskExecutionMode getTaskExecutionMode() {
+    return taskExecutionMode;
+  }
+
+  @Override
+  public void shutdown() {
+    executorService.shutdown();
+  }
+
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    // Looked up reflectively so the build can keep targeting Java 11
+    try {
+
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+
+    } catch (ReflectiveOperationException e) {
+      warn("Virtual threads require Java 21 or later (running {0}), using platform threads", System.getProperty("java.version"));
+      return null;
+    }
+  }
+}
@@ -21,7 +21,6 @@ import com.zulily.omicron.conf.ConfigKey;
 import com.zulily.omicron.crontab.CrontabExpression;
 import com.zulily.omicron.scheduling.Job;
 
-import java.time.Clock;
 import java.util.concurrent.TimeUnit;
 
 public class CommentedExpression extends Policy {
@@ -42,7 +41,7 @@ public class CommentedExpression extends Policy {
 
     final long crontabReadTimestamp = crontabExpression.getTimestamp();
 
-    final long currentTimestamp = Clock.systemUTC().millis();
+    final long currentTimestamp = job.getConfiguration().getClock().millis();
 
     final int minutesCommented = (int) TimeUnit.MILLISECONDS.toMinutes(currentTimestamp - crontabReadTimestamp);
 
@@ -21,7 +21,6 @@ import com.zulily.omicron.conf.ConfigKey;
 import com.zulily.omicron.crontab.CrontabExpression;
 import com.zulily.omicron.scheduling.Job;
 
-import java.time.Clock;
 import java.util.concurrent.TimeUnit;
 
 public class MalformedExpression extends Policy {
@@ -47,7 +46,7 @@ public class MalformedExpression extends Policy {
 
     final long crontabReadTimestamp = crontabExpression.getTimestamp();
 
-    final long currentTimestamp = Clock.systemUTC().millis();
+    final long currentTimestamp = job.getConfiguration().getClock().millis();
 
     final int minutesMalformed = (int) TimeUnit.MILLISECONDS.toMinutes(currentTimestamp - crontabReadTimestamp);
 
@@ -24,7 +24,6 @@ import com.zulily.omicron.conf.ConfigKey;
 import com.zulily.omicron.conf.TimeInterval;
 import com.zulily.omicron.scheduling.Job;
 
-import java.time.Clock;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -109,7 +108,7 @@ public abstract class Policy {
         continue;
       }
 
-      lastAlertLog.put(job.getJobId(), new AlertLogEntry(job.getJobId(), alert.getAlertStatus()));
+      lastAlertLog.put(job.getJobId(), new AlertLogEntry(job.getJobId(), alert.getAlertStatus(), alert.getCreateTimestamp()));
 
       result.add(alert);
 
@@ -120,12 +119,24 @@ public abstract class Policy {
 
     inactiveAlertJobIds.forEach(lastAlertLog::remove);
 
+    retainJobs(activeJobIds);
+
     return result;
   }
 
+  /**
+   * Called at the end of each evaluation so policies can drop any per job state of their own
+   * for jobs that were removed, inactive, disabled or in downtime
+   *
+   * @param activeJobIds The ids of the jobs that were evaluated
+   */
+  protected void retainJobs(final Set<Long> activeJobIds) {
+    // No state to drop by default
+  }
+
   private boolean delayRepeat(final AlertLogEntry alertLogEntry, final Job job) {
 
-    return Clock.systemUTC().millis() - alertLogEntry.getTimestamp() <= TimeUnit.MINUTES.toMillis(
+    return job.getConfiguration().getClock().millis() - alertLogEntry.getTimestamp() <= TimeUnit.MINUTES.toMillis(
       job
         .getConfiguration()
         .getInt(ConfigKey.AlertMinutesDelayRepeat));
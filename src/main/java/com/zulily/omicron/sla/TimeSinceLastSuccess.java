@@ -16,19 +16,20 @@
 package com.zulily.omicron.sla;
 
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ImmutableSortedSet;
 import com.zulily.omicron.Utils;
 import com.zulily.omicron.alert.Alert;
 import com.zulily.omicron.alert.AlertLogEntry;
 import com.zulily.omicron.alert.AlertStatus;
 import com.zulily.omicron.conf.ConfigKey;
+import com.zulily.omicron.conf.Configuration;
 import com.zulily.omicron.scheduling.Job;
 import com.zulily.omicron.scheduling.TaskLogEntry;
 import com.zulily.omicron.scheduling.TaskStatus;
 
 import java.time.Clock;
 import java.time.Instant;
-import java.util.Optional;
+import java.util.HashMap;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -36,6 +37,12 @@ import static com.google.common.base.Preconditions.checkArgument;
 /**
  * SLA {@link com.zulily.omicron.sla.Policy} that generates alerts based on how long it's been
  * since a {@link Job} has seen a successful return code, if ever
+ * <p>
+ * A run waiting for admission counts as an attempt, unlike a skipped one, and the time it
+ * spends queued counts against the SLA
+ * <p>
+ * A job is only re-read when its task log, configuration or alert state has changed since it was
+ * last evaluated, or when enough time has passed for its threshold to be crossed
  */
 public final class TimeSinceLastSuccess extends Policy {
 
@@ -43,10 +50,15 @@ public final class TimeSinceLastSuccess extends Policy {
     TaskStatus.Complete,
     TaskStatus.Error,
     TaskStatus.FailedStart,
-    TaskStatus.Started
+    TaskStatus.Started,
+    TaskStatus.Queued
   );
+  private final static ImmutableSet<TaskStatus> COMPLETE_FILTER = ImmutableSet.of(TaskStatus.Complete);
   private final static String NAME = "Time_Since_Success";
 
+  // Keyed by job id - lets jobs whose outcome cannot have changed since the last tick skip re-reading their task log
+  private final HashMap<Long, Evaluation> evaluations = new HashMap<>();
+
   @Override
   protected boolean isDisabled(final Job job) {
     // Per config comment, -1 indicates disabled alert for this policy
@@ -61,50 +73,67 @@ public final class TimeSinceLastSuccess extends Policy {
       return createNotApplicableAlert(job);
     }
 
-    final ImmutableSortedSet<TaskLogEntry> logView = job.filterLog(STATUS_FILTER);
+    // Read before the log itself, so a write in between makes the next evaluation start over
+    final long taskLogVersion = job.getTaskLogVersion();
+    final AlertLogEntry alertLogEntry = getLastAlertLog().get(job.getJobId());
+    final long currentTimestamp = job.getConfiguration().getClock().millis();
+
+    final Evaluation lastEvaluation = evaluations.get(job.getJobId());
+
+    // Nothing the outcome depends on has changed, so it would be dropped again by the alert log
+    if (lastEvaluation != null && lastEvaluation.isCurrent(job, taskLogVersion, alertLogEntry, currentTimestamp)) {
+      return createNotApplicableAlert(job);
+    }
+
+    final TaskLogEntry lastTaskLogEntry = job.lastLogEntry(STATUS_FILTER);
 
     // No observable status changes in the task log - still nothing to do
-    if (logView.isEmpty()) {
+    if (lastTaskLogEntry == null) {
+      remember(job, taskLogVersion, alertLogEntry, Long.MAX_VALUE);
       return createNotApplicableAlert(job);
     }
 
     // Just succeed if the last log status is complete
     // This also avoids false alerts during schedule gaps
-    if (logView.last().getTaskStatus() == TaskStatus.Complete) {
-      return createAlert(job, logView.last(), AlertStatus.Success);
+    if (lastTaskLogEntry.getTaskStatus() == TaskStatus.Complete) {
+      remember(job, taskLogVersion, alertLogEntry, Long.MAX_VALUE);
+      return createAlert(job, lastTaskLogEntry, null, AlertStatus.Success);
     }
 
     // Avoid spamming alerts during gaps in the schedule
-    if (alertedOnceSinceLastActive(logView.last().getTimestamp(), job.getJobId())) {
+    if (alertedOnceSinceLastActive(lastTaskLogEntry.getTimestamp(), job.getJobId())) {
+      remember(job, taskLogVersion, alertLogEntry, Long.MAX_VALUE);
       return createNotApplicableAlert(job);
     }
 
-    // The last status is either error or failed start
+    // The last status is error, failed start, or a run that is running or waiting for admission
     // so find that last time there was a complete, if any
-    final Optional<TaskLogEntry> latestComplete = logView
-      .descendingSet()
-      .stream()
-      .filter(entry -> entry.getTaskStatus() == TaskStatus.Complete)
-      .findFirst();
+    final TaskLogEntry latestComplete = job.lastLogEntry(COMPLETE_FILTER);
 
     // If we've seen at least one success in recent history and a task is running,
-    // do not alert until a final status is achieved to avoid noise before potential recovery
-    if (logView.last().getTaskStatus() == TaskStatus.Started && latestComplete.isPresent()) {
+    // do not alert until a final status is achieved to avoid noise before potential recovery -
+    // a run still waiting for admission is not let off, since it may never get to start
+    if (lastTaskLogEntry.getTaskStatus() == TaskStatus.Started && latestComplete != null) {
+      remember(job, taskLogVersion, alertLogEntry, Long.MAX_VALUE);
       return createNotApplicableAlert(job);
     }
 
     final int minutesBetweenSuccessThreshold = job.getConfiguration().getInt(ConfigKey.SLAMinutesSinceSuccess);
 
-    final long currentTimestamp = Clock.systemUTC().millis();
-
-    final TaskLogEntry baselineTaskLogEntry = latestComplete.isPresent() ? latestComplete.get() : logView.first();
+    final TaskLogEntry baselineTaskLogEntry = latestComplete != null ? latestComplete : job.filterLog(STATUS_FILTER).first();
 
     final long minutesIncomplete = TimeUnit.MILLISECONDS.toMinutes(currentTimestamp - baselineTaskLogEntry.getTimestamp());
 
+    final TaskLogEntry queuedTaskLogEntry = lastTaskLogEntry.getTaskStatus() == TaskStatus.Queued ? lastTaskLogEntry : null;
+
     if (minutesIncomplete <= minutesBetweenSuccessThreshold) {
-      return createAlert(job, baselineTaskLogEntry, AlertStatus.Success);
+      // Turns into a failure once the threshold has passed, if nothing happens before then
+      remember(job, taskLogVersion, alertLogEntry, baselineTaskLogEntry.getTimestamp() + TimeUnit.MINUTES.toMillis(minutesBetweenSuccessThreshold + 1));
+      return createAlert(job, baselineTaskLogEntry, queuedTaskLogEntry, AlertStatus.Success);
     } else {
-      return createAlert(job, baselineTaskLogEntry, AlertStatus.Failure);
+      // Failures may repeat once the repeat delay has passed, so they are always evaluated again
+      evaluations.remove(job.getJobId());
+      return createAlert(job, baselineTaskLogEntry, queuedTaskLogEntry, AlertStatus.Failure);
     }
 
   }
@@ -114,6 +143,15 @@ public final class TimeSinceLastSuccess extends Policy {
     return NAME;
   }
 
+  @Override
+  protected void retainJobs(final Set<Long> activeJobIds) {
+    evaluations.keySet().retainAll(activeJobIds);
+  }
+
+  private void remember(final Job job, final long taskLogVersion, final AlertLogEntry alertLogEntry, final long recheckTimestamp) {
+    evaluations.put(job.getJobId(), new Evaluation(job.getConfiguration(), taskLogVersion, alertLogEntry, recheckTimestamp));
+  }
+
   private boolean alertedOnceSinceLastActive(
     final long lastActivityTimestamp,
     final long jobId
@@ -126,6 +164,7 @@ public final class TimeSinceLastSuccess extends Policy {
   private Alert createAlert(
     final Job job,
     final TaskLogEntry baselineTaskLogEntry,
+    final TaskLogEntry queuedTaskLogEntry,
     final AlertStatus alertStatus
   ) {
 
@@ -141,6 +180,7 @@ public final class TimeSinceLastSuccess extends Policy {
     // SUCCESS: Time_Since_Success-> last success at 20141230 00:10 America/Los_Angeles (2 minutes ago; threshold set to 20)
     // FAILED: Time_Since_Success-> last success at 20141230 00:10 America/Los_Angeles (30 minutes ago; threshold set to 20)
     // FAILED: Time_Since_Success-> never successfully run. First attempted execution at 20141230 00:10 America/Los_Angeles (30 minutes ago; threshold set to 20)
+    // FAILED: Time_Since_Success-> last success at 20141230 00:10 America/Los_Angeles (30 minutes ago; threshold set to 20; queued for launch since 20141230 00:15 America/Los_Angeles)
 
 
     StringBuilder messageBuilder = new StringBuilder(NAME)
@@ -162,7 +202,7 @@ public final class TimeSinceLastSuccess extends Policy {
       .append(
         TimeUnit
           .MILLISECONDS
-          .toMinutes(Clock.systemUTC().millis() - baselineTaskLogEntry.getTimestamp())
+          .toMinutes(jobClock.millis() - baselineTaskLogEntry.getTimestamp())
       )
       .append(" minutes ago;");
 
@@ -171,10 +211,54 @@ public final class TimeSinceLastSuccess extends Policy {
       .append(
         job.getConfiguration()
           .getInt(ConfigKey.SLAMinutesSinceSuccess)
-      )
-      .append(")");
+      );
+
+    if (queuedTaskLogEntry != null) {
+      messageBuilder = messageBuilder
+        .append("; queued for launch since ")
+        .append(
+          Utils.MESSAGE_DATETIME_FORMATTER
+            .format(Instant
+            .ofEpochMilli(queuedTaskLogEntry.getTimestamp())
+            .atZone(jobClock.getZone()))
+        );
+    }
+
+    messageBuilder = messageBuilder.append(")");
+
+    final String outputTail = job.getLastOutputTail();
+
+    if (alertStatus == AlertStatus.Failure && !outputTail.isEmpty()) {
+      messageBuilder = messageBuilder
+        .append("\nEnd of the output of the last run:\n")
+        .append(outputTail);
+    }
 
     return new Alert(messageBuilder.toString(), job, alertStatus);
   }
 
+  /**
+   * What an evaluation of a job that produced no actionable alert was based on, and when time alone could change that
+   */
+  private static final class Evaluation {
+    private final Configuration configuration;
+    private final long taskLogVersion;
+    private final AlertLogEntry alertLogEntry;
+    private final long recheckTimestamp;
+
+    private Evaluation(final Configuration configuration, final long taskLogVersion, final AlertLogEntry alertLogEntry, final long recheckTimestamp) {
+      this.configuration = configuration;
+      this.taskLogVersion = taskLogVersion;
+      this.alertLogEntry = alertLogEntry;
+      this.recheckTimestamp = recheckTimestamp;
+    }
+
+    private boolean isCurrent(final Job job, final long taskLogVersion, final AlertLogEntry alertLogEntry, final long currentTimestamp) {
+      return job.getConfiguration() == configuration
+        && taskLogVersion == this.taskLogVersion
+        && alertLogEntry == this.alertLogEntry
+        && currentTimestamp < recheckTimestamp;
+    }
+  }
+
 }
@@ -1,7 +1,11 @@
 package com.zulily.omicron.crontab;
 
+import com.google.common.collect.ImmutableList;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
 
 public class CronVariableTest {
@@ -18,4 +22,54 @@ public class CronVariableTest {
     assertEquals(var1.applySubstitution(var.applySubstitution(testLine)), "test $the $quick test1 $brown $VARfox $VAR1jumped $over $the test $lazy $dog test1");
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testSinglePassSubstitution() {
+    final List<CronVariable> variables = ImmutableList.of(
+      new CronVariable("VAR1", "test1"),
+      new CronVariable("VAR", "test"),
+      new CronVariable("VAR", "shadowed"),
+      new CronVariable("COST", "$5 \\o/")
+    );
+
+    final VariableSubstitution variableSubstitution = new VariableSubstitution(variables);
+
+    String testLine = "$VAR $the $quick $VAR1 $brown $VARfox $VAR1jumped $over $the $VAR $lazy $dog $VAR1";
+
+    assertEquals("test $the $quick test1 $brown $VARfox $VAR1jumped $over $the test $lazy $dog test1", variableSubstitution.apply(testLine));
+
+    // References may directly follow other text, and values are inserted literally
+    assertEquals("x$VARtest\ttest1 $5 \\o/", variableSubstitution.apply("x$VAR$VAR\t$VAR1 $COST"));
+
+    assertEquals("no references", variableSubstitution.apply("no references"));
+  }
+
+  @Test
+  public void testSinglePassMatchesRegex() {
+    final List<CronVariable> variables = ImmutableList.of(
+      new CronVariable("A", "alpha"),
+      new CronVariable("AB", "alpha beta"),
+      new CronVariable("B_1", "b1")
+    );
+
+    final VariableSubstitution variableSubstitution = new VariableSubstitution(variables);
+
+    final String[] tokens = {"$A", "$AB", "$B_1", "$B", "$", "A", "x", " ", "\t", "  "};
+    final Random random = new Random(42);
+
+    for (int line = 0; line < 10000; line++) {
+      final StringBuilder command = new StringBuilder();
+
+      for (int token = random.nextInt(10); token >= 0; token--) {
+        command.append(tokens[random.nextInt(tokens.length)]);
+      }
+
+      String expected = command.toString();
+
+      for (CronVariable variable : variables) {
+        expected = variable.applySubstitution(expected);
+      }
+
+      assertEquals(command.toString(), expected, variableSubstitution.apply(command.toString()));
+    }
+  }
+}
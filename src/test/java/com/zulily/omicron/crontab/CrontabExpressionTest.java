@@ -19,6 +19,7 @@ package com.zulily.omicron.crontab;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -73,4 +74,61 @@ public class CrontabExpressionTest {
 
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testHashedValues() {
+    final Schedule schedule = new CrontabExpression(1, "H H(9-17) H * H(mon-fri) root /opt/report.sh").createSchedule();
+
+    // Always the same values for the same user and command
+    assertEquals(schedule.getMinuteMask(), new CrontabExpression(2, "H H(9-17) H * H(mon-fri) root /opt/report.sh").createSchedule().getMinuteMask());
+
+    assertEquals(1, Long.bitCount(schedule.getMinuteMask()));
+    assertEquals(1, Integer.bitCount(schedule.getHourMask()));
+    assertEquals(1, Integer.bitCount(schedule.getDayMask()));
+    assertEquals(1, Integer.bitCount(schedule.getDayOfWeekMask()));
+
+    assertTrue(Integer.numberOfTrailingZeros(schedule.getHourMask()) >= 9 && Integer.numberOfTrailingZeros(schedule.getHourMask()) <= 17);
+    assertTrue(Integer.numberOfTrailingZeros(schedule.getDayMask()) >= 1 && Integer.numberOfTrailingZeros(schedule.getDayMask()) <= 28);
+    assertTrue(Integer.numberOfTrailingZeros(schedule.getDayOfWeekMask()) >= 1 && Integer.numberOfTrailingZeros(schedule.getDayOfWeekMask()) <= 5);
+  }
+
+  @Test
+  public void testHashedSteps() {
+    final long minuteMask = new CrontabExpression(1, "H/15 * * * * root /opt/report.sh").createSchedule().getMinuteMask();
+    final int offset = Long.numberOfTrailingZeros(minuteMask);
+
+    assertTrue(offset < 15);
+    assertEquals((1L << offset) | (1L << offset + 15) | (1L << offset + 30) | (1L << offset + 45), minuteMask);
+
+    final long rangedMask = new CrontabExpression(1, "H(0-29)/10 * * * * root /opt/report.sh").createSchedule().getMinuteMask();
+
+    assertEquals(3, Long.bitCount(rangedMask));
+    assertTrue(Long.numberOfTrailingZeros(rangedMask) < 10);
+  }
+
+  @Test
+  public void testHashedValuesSpreadLines() {
+    final int[] linesPerMinute = new int[60];
+
+    for (int index = 0; index < 600; index++) {
+      linesPerMinute[Long.numberOfTrailingZeros(new CrontabExpression(1, "H * * * * root /opt/job-" + index + ".sh").createSchedule().getMinuteMask())]++;
+    }
+
+    for (final int lines : linesPerMinute) {
+      assertTrue(lines > 0 && lines < 30);
+    }
+
+    // Different users running the same command get their own values
+    assertNotEquals(
+      new CrontabExpression(1, "H * * * * alice /opt/job.sh").createSchedule().getMinuteMask(),
+      new CrontabExpression(1, "H * * * * bob /opt/job.sh").createSchedule().getMinuteMask()
+    );
+  }
+
+  @Test
+  public void testMalformedHashedValues() {
+    assertTrue(new CrontabExpression(1, "H(30-10) * * * * root /opt/report.sh").isMalformed());
+    assertTrue(new CrontabExpression(1, "H(0-60) * * * * root /opt/report.sh").isMalformed());
+    assertTrue(new CrontabExpression(1, "Hx * * * * root /opt/report.sh").isMalformed());
+  }
+
+}
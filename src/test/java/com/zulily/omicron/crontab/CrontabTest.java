@@ -0,0 +1,75 @@
+package com.zulily.omicron.crontab;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.zulily.omicron.conf.ConfigKey;
+import com.zulily.omicron.conf.Configuration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CrontabTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testRowAssociation() throws IOException {
+    final Crontab crontab = crontab(
+      "PATH=/usr/bin:/bin",                       // 1
+      "",                                         // 2
+      "# a general comment",                      // 3
+      "#override: task.max.instance.count=3",     // 4
+      "",                                         // 5
+      "GREETING=\"hello world\"",                 // 6
+      "*/5 * * * * root echo $GREETING",          // 7
+      "0 0 * * * root echo midnight",             // 8
+      "#override: task.max.instance.count=4",     // 9
+      "#0 1 * * * root echo disabled",            // 10
+      "0 2 * * * root",                           // 11
+      "not a schedule at all"                     // 12
+    );
+
+    assertEquals(ImmutableList.of("PATH", "GREETING"), crontab.getVariables().stream().map(CronVariable::getName).collect(Collectors.toList()));
+    assertEquals("hello world", crontab.getVariables().get(1).getValue());
+
+    final Map<Integer, CrontabExpression> byLine = crontab.getCrontabExpressions()
+      .stream()
+      .collect(Collectors.toMap(CrontabExpression::getLineNumber, Function.identity()));
+
+    assertEquals(ImmutableList.of(7, 8, 10, 11, 12), byLine.keySet().stream().sorted().collect(Collectors.toList()));
+
+    assertEquals("echo $GREETING", byLine.get(7).getCommand());
+    assertTrue(byLine.get(10).isCommented());
+    assertFalse(byLine.get(10).isMalformed());
+    assertTrue(byLine.get(11).isMalformed());
+    assertTrue(byLine.get(12).isMalformed());
+
+    // Overrides skip blank rows, comments and variables, and attach to the next schedule row - commented or not
+    assertEquals(ImmutableList.of(7, 10), crontab.getConfigurationOverrides().keySet().stream().sorted().collect(Collectors.toList()));
+    assertEquals(3, crontab.getConfigurationOverrides().get(7).getInt(ConfigKey.TaskMaxInstanceCount));
+    assertEquals(4, crontab.getConfigurationOverrides().get(10).getInt(ConfigKey.TaskMaxInstanceCount));
+  }
+
+  private Crontab crontab(final String... lines) throws IOException {
+    final File crontabFile = temporaryFolder.newFile("crontab");
+    final File configFile = temporaryFolder.newFile("omicron.conf");
+
+    Files.write(crontabFile.toPath(), Joiner.on('\n').join(lines).getBytes(StandardCharsets.UTF_8));
+    Files.write(configFile.toPath(), ("crontab.path = " + crontabFile.getAbsolutePath()).getBytes(StandardCharsets.UTF_8));
+
+    return new Crontab(new Configuration(configFile.getAbsolutePath()));
+  }
+}
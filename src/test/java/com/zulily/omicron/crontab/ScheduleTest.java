@@ -20,8 +20,11 @@ import com.google.common.collect.Range;
 import org.junit.Test;
 
 
+import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -214,4 +217,169 @@ public class ScheduleTest {
     assertFalse(expression5.getDaysOfWeek().contains(3));
   }
 
+  @Test
+  public void testPrimitiveTimeInSchedule() {
+    String testLine = "5,35 */6 1-15 jan,jul mon-fri  root    cd / && run-parts --report /etc/cron.hourly";
+
+    Schedule schedule = new CrontabExpression(1, testLine).createSchedule();
+
+    // Thursday, January 1st 2015
+    assertTrue(schedule.timeInSchedule(5, 0, 1, 1, 4));
+    assertTrue(schedule.timeInSchedule(35, 18, 15, 7, 1));
+
+    assertFalse(schedule.timeInSchedule(6, 0, 1, 1, 4));
+    assertFalse(schedule.timeInSchedule(5, 1, 1, 1, 4));
+    assertFalse(schedule.timeInSchedule(5, 0, 16, 1, 4));
+    assertFalse(schedule.timeInSchedule(5, 0, 1, 2, 4));
+    assertFalse(schedule.timeInSchedule(5, 0, 1, 1, 0));
+
+    // Out of range values must not alias onto valid bits
+    assertFalse(schedule.timeInSchedule(69, 0, 1, 1, 4));
+    assertFalse(schedule.timeInSchedule(5, 32, 1, 1, 4));
+    assertFalse(schedule.timeInSchedule(5, 0, 33, 1, 4));
+    assertFalse(schedule.timeInSchedule(5, 0, 1, 33, 4));
+    assertFalse(schedule.timeInSchedule(5, 0, 1, 1, 36));
+
+    for (int minute = 0; minute < 60; minute++) {
+      ZonedDateTime dateTime = ZonedDateTime.of(2015, 1, 1, 12, minute, 0, 0, ZoneId.systemDefault());
+
+      assertEquals(
+        schedule.timeInSchedule(dateTime),
+        schedule.timeInSchedule(minute, 12, 1, 1, 4)
+      );
+    }
+  }
+
+  @Test
+  public void testDayThirtyOne() {
+    String testLine = "* * 31 * *  root    cd / && run-parts --report /etc/cron.hourly";
+
+    Schedule schedule = new CrontabExpression(1, testLine).createSchedule();
+
+    assertTrue(schedule.getDays().size() == 1 && schedule.getDays().contains(31));
+    assertTrue(schedule.timeInSchedule(ZonedDateTime.of(2015, 1, 31, 12, 0, 0, 0, ZoneId.systemDefault())));
+    assertFalse(schedule.timeInSchedule(ZonedDateTime.of(2015, 1, 30, 12, 0, 0, 0, ZoneId.systemDefault())));
+  }
+
+  @Test
+  public void testNextExecution() {
+    final ZoneId utc = ZoneOffset.UTC;
+
+    assertEquals(
+      ZonedDateTime.of(2015, 1, 1, 10, 15, 0, 0, utc),
+      schedule("*/15 * * * *").nextExecution(ZonedDateTime.of(2015, 1, 1, 10, 7, 30, 0, utc)).get()
+    );
+
+    // Strictly after
+    assertEquals(
+      ZonedDateTime.of(2015, 1, 1, 10, 30, 0, 0, utc),
+      schedule("*/15 * * * *").nextExecution(ZonedDateTime.of(2015, 1, 1, 10, 15, 0, 0, utc)).get()
+    );
+
+    assertEquals(
+      ZonedDateTime.of(2016, 1, 1, 0, 0, 0, 0, utc),
+      schedule("0 0 1 1 *").nextExecution(ZonedDateTime.of(2015, 6, 1, 0, 0, 0, 0, utc)).get()
+    );
+
+    assertEquals(
+      ZonedDateTime.of(2016, 2, 29, 0, 0, 0, 0, utc),
+      schedule("0 0 29 2 *").nextExecution(ZonedDateTime.of(2015, 3, 1, 0, 0, 0, 0, utc)).get()
+    );
+
+    // Friday the 13th
+    assertEquals(
+      ZonedDateTime.of(2015, 2, 13, 12, 0, 0, 0, utc),
+      schedule("0 12 13 * fri").nextExecution(ZonedDateTime.of(2015, 1, 1, 0, 0, 0, 0, utc)).get()
+    );
+
+    assertFalse(schedule("0 0 31 2 *").nextExecution(ZonedDateTime.of(2015, 1, 1, 0, 0, 0, 0, utc)).isPresent());
+    assertFalse(schedule("0 0 31 2 *").previousExecution(ZonedDateTime.of(2015, 1, 1, 0, 0, 0, 0, utc)).isPresent());
+  }
+
+  @Test
+  public void testExecutionsMatchMinuteScan() {
+    final String[] expressions = {
+      "* * * * *",
+      "*/7 */5 * * *",
+      "5,35 */6 1-15 jan,jul mon-fri",
+      "59 23 31 * *",
+      "0 0 * * sun"
+    };
+
+    final ZonedDateTime start = ZonedDateTime.of(2015, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+    final ZonedDateTime end = start.plusDays(45);
+
+    for (final String expression : expressions) {
+      final Schedule schedule = schedule(expression);
+
+      ZonedDateTime expectedPrevious = null;
+      Optional<ZonedDateTime> next = schedule.nextExecution(start.minusMinutes(1));
+
+      for (ZonedDateTime minute = start; minute.isBefore(end); minute = minute.plusMinutes(1)) {
+
+        if (expectedPrevious != null) {
+          assertEquals(expression, expectedPrevious, schedule.previousExecution(minute).get());
+        }
+
+        if (schedule.timeInSchedule(minute)) {
+          assertEquals(expression, minute, next.get());
+          next = schedule.nextExecution(minute);
+          expectedPrevious = minute;
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testDaylightSavingGap() {
+    final ZoneId zone = ZoneId.of("America/Los_Angeles");
+
+    // 2015-03-08 02:00 PST jumps to 03:00 PDT
+    final ZonedDateTime beforeGap = ZonedDateTime.of(2015, 3, 8, 1, 0, 0, 0, zone);
+    final ZonedDateTime gapEnd = ZonedDateTime.of(2015, 3, 8, 3, 0, 0, 0, zone);
+
+    final Schedule daily = schedule("30 2 * * *");
+
+    assertEquals(gapEnd, daily.nextExecution(beforeGap).get());
+    assertEquals(ZonedDateTime.of(2015, 3, 9, 2, 30, 0, 0, zone), daily.nextExecution(gapEnd).get());
+    assertEquals(gapEnd, daily.previousExecution(ZonedDateTime.of(2015, 3, 8, 3, 30, 0, 0, zone)).get());
+
+    final Schedule everyMinute = schedule("* * * * *");
+
+    assertEquals(gapEnd, everyMinute.nextExecution(ZonedDateTime.of(2015, 3, 8, 1, 59, 0, 0, zone)).get());
+    assertEquals(gapEnd.plusMinutes(1), everyMinute.nextExecution(gapEnd).get());
+  }
+
+  @Test
+  public void testDaylightSavingOverlap() {
+    final ZoneId zone = ZoneId.of("America/Los_Angeles");
+    final ZoneOffset pdt = ZoneOffset.ofHours(-7);
+    final ZoneOffset pst = ZoneOffset.ofHours(-8);
+
+    // 2015-11-01 02:00 PDT falls back to 01:00 PST
+    final ZonedDateTime firstPass = ZonedDateTime.ofStrict(LocalDateTime.of(2015, 11, 1, 1, 30), pdt, zone);
+    final ZonedDateTime secondPass = ZonedDateTime.ofStrict(LocalDateTime.of(2015, 11, 1, 1, 30), pst, zone);
+
+    // Runs once for a fixed hour
+    final Schedule daily = schedule("30 1 * * *");
+
+    assertEquals(firstPass, daily.nextExecution(ZonedDateTime.of(2015, 11, 1, 0, 0, 0, 0, zone)).get());
+    assertEquals(ZonedDateTime.of(2015, 11, 2, 1, 30, 0, 0, zone), daily.nextExecution(firstPass).get());
+    assertEquals(firstPass, daily.previousExecution(secondPass.plusMinutes(10)).get());
+
+    // Runs in both passes when scheduled every hour
+    final Schedule hourly = schedule("30 * * * *");
+
+    assertEquals(firstPass, hourly.nextExecution(firstPass.minusMinutes(10)).get());
+    assertEquals(secondPass, hourly.nextExecution(firstPass).get());
+    assertEquals(secondPass.plusHours(1), hourly.nextExecution(secondPass).get());
+
+    assertEquals(firstPass, hourly.previousExecution(secondPass.minusMinutes(20)).get());
+    assertEquals(secondPass, hourly.previousExecution(secondPass.plusMinutes(20)).get());
+  }
+
+  private static Schedule schedule(final String expression) {
+    return new CrontabExpression(1, expression + "  root    cd / && run-parts --report /etc/cron.hourly").createSchedule();
+  }
+
 }
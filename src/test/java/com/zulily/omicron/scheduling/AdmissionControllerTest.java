@@ -0,0 +1,235 @@
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControllerTest {
+
+  @Test
+  public void testConcurrencyLimitQueuesInOrder() throws InterruptedException {
+    final AdmissionController admissionController = new AdmissionController();
+    final TaskTimeoutService taskTimeoutService = new TaskTimeoutService(10L, 8);
+
+    admissionController.configure(new ThreadTaskLauncher(TaskExecutionMode.Platform, taskTimeoutService), Clock.systemUTC(), 1, -1);
+
+    final List<String> statuses = new CopyOnWriteArrayList<>();
+
+    // Releasing is left to the test, so the tasks (which fail to start right away) stay "running"
+    assertTrue(submit(admissionController, 1, statuses, task -> { }));
+    assertFalse(submit(admissionController, 2, statuses, task -> { }));
+    assertFalse(submit(admissionController, 3, statuses, task -> { }));
+
+    assertEquals(2, admissionController.getQueuedCount());
+    assertEquals(ImmutableList.of("1:Started", "2:Queued", "3:Queued"), statuses);
+
+    admissionController.taskFinished();
+    awaitSize(statuses, 4);
+
+    assertEquals(1, admissionController.getQueuedCount());
+
+    admissionController.taskFinished();
+    awaitSize(statuses, 5);
+
+    assertEquals(ImmutableList.of("1:Started", "2:Queued", "3:Queued", "2:Started", "3:Started"), statuses);
+    assertEquals(0, admissionController.getQueuedCount());
+  }
+
+  @Test
+  public void testLaunchRateLimit() throws InterruptedException {
+    final AdmissionController admissionController = new AdmissionController();
+    final TaskTimeoutService taskTimeoutService = new TaskTimeoutService(10L, 8);
+
+    admissionController.configure(new ThreadTaskLauncher(TaskExecutionMode.Platform, taskTimeoutService), Clock.systemUTC(), -1, 5);
+
+    final List<String> statuses = new CopyOnWriteArrayList<>();
+
+    final long start = System.currentTimeMillis();
+
+    for (int taskId = 1; taskId <= 6; taskId++) {
+      submit(admissionController, taskId, statuses, task -> admissionController.taskFinished());
+    }
+
+    while (statuses.stream().filter(status -> status.endsWith("Started")).count() < 6) {
+      Thread.sleep(10L);
+    }
+
+    // 5 per second means the sixth launch comes at least a second after the first
+    assertTrue(System.currentTimeMillis() - start >= 900L);
+    assertEquals(0, admissionController.getQueuedCount());
+  }
+
+  @Test
+  public void testDeferrableTasksWaitOutPressure() throws InterruptedException {
+    final AdmissionController admissionController = new AdmissionController();
+    final TaskTimeoutService taskTimeoutService = new TaskTimeoutService(10L, 8);
+
+    admissionController.configure(new ThreadTaskLauncher(TaskExecutionMode.Platform, taskTimeoutService), Clock.systemUTC(), -1, -1);
+    admissionController.setSaturated(true);
+
+    final List<String> statuses = new CopyOnWriteArrayList<>();
+
+    assertFalse(submit(admissionController, 1, 60_000L, statuses, task -> admissionController.taskFinished()));
+    assertTrue(submit(admissionController, 2, -1L, statuses, task -> admissionController.taskFinished()));
+    assertFalse(submit(admissionController, 3, 0L, statuses, task -> admissionController.taskFinished()));
+
+    assertEquals(2, admissionController.getDeferredCount());
+
+    // Still saturated - only the task that has reached its deferral limit is released
+    admissionController.setSaturated(true);
+    awaitSize(statuses, 4);
+
+    assertEquals(ImmutableList.of("1:Queued", "2:Started", "3:Queued", "3:Started"), statuses);
+    assertEquals(1, admissionController.getDeferredCount());
+
+    admissionController.setSaturated(false);
+    awaitSize(statuses, 5);
+
+    assertEquals("1:Started", statuses.get(4));
+    assertEquals(0, admissionController.getDeferredCount());
+  }
+
+  @Test
+  public void testLaunchRateOnSimulatedClock() {
+    final AdmissionController admissionController = new AdmissionController(false);
+    final Simulation.SimulatedClock clock = new Simulation.SimulatedClock(new AtomicLong(60_000L), ZoneOffset.UTC);
+    final List<RunningTask> launched = Lists.newArrayList();
+
+    admissionController.configure(new TaskLauncher() {
+      @Override
+      public void launch(final RunningTask runningTask) {
+        launched.add(runningTask);
+      }
+
+      @Override
+      public void shutdown() {
+      }
+    }, clock, -1, 2);
+
+    final List<String> statuses = Lists.newArrayList();
+
+    for (int taskId = 1; taskId <= 4; taskId++) {
+      submit(admissionController, taskId, statuses, task -> admissionController.taskFinished());
+    }
+
+    // A second's worth of launches goes out right away, the rest wait for the clock
+    assertEquals(ImmutableList.of("1:Started", "2:Started", "3:Queued", "4:Queued"), statuses);
+    assertEquals(60_500L, admissionController.getNextAdmissionMillis());
+
+    admissionController.admitQueued();
+    assertEquals(2, launched.size());
+
+    clock.setMillis(60_500L);
+    admissionController.admitQueued();
+
+    assertEquals(3, launched.size());
+    assertEquals(61_000L, admissionController.getNextAdmissionMillis());
+
+    clock.setMillis(61_000L);
+    admissionController.admitQueued();
+
+    assertEquals(4, launched.size());
+    assertEquals(Long.MAX_VALUE, admissionController.getNextAdmissionMillis());
+  }
+
+  @Test
+  public void testRejectedLaunchCompletesAsFailedStart() {
+    final AdmissionController admissionController = new AdmissionController(false);
+    final Simulation.SimulatedClock clock = new Simulation.SimulatedClock(new AtomicLong(60_000L), ZoneOffset.UTC);
+    final List<RunningTask> launched = Lists.newArrayList();
+
+    final TaskLauncher acceptingLauncher = new TaskLauncher() {
+      @Override
+      public void launch(final RunningTask runningTask) {
+        launched.add(runningTask);
+      }
+
+      @Override
+      public void shutdown() {
+      }
+    };
+
+    // Like a thread pool launcher after it has been shut down
+    final TaskLauncher rejectingLauncher = new TaskLauncher() {
+      @Override
+      public void launch(final RunningTask runningTask) {
+        throw new RejectedExecutionException("shut down");
+      }
+
+      @Override
+      public void shutdown() {
+      }
+    };
+
+    admissionController.configure(acceptingLauncher, clock, 1, -1);
+
+    final List<String> statuses = Lists.newArrayList();
+    final List<String> completions = Lists.newArrayList();
+
+    final Consumer<RunningTask> completionListener = task -> {
+      admissionController.taskFinished();
+      completions.add(task.getTaskId() + ":" + task.getTaskStatus());
+    };
+
+    // The first task holds the only slot, so the second waits in the queue
+    assertTrue(submit(admissionController, 1, statuses, completionListener));
+    assertFalse(submit(admissionController, 2, statuses, completionListener));
+
+    admissionController.configure(rejectingLauncher, clock, 1, -1);
+
+    admissionController.taskFinished();
+    admissionController.admitQueued();
+
+    // Both the queued launch and the immediate one complete and give their slot back
+    assertTrue(submit(admissionController, 3, statuses, completionListener));
+
+    assertEquals(1, launched.size());
+    assertEquals(ImmutableList.of("1:Started", "2:Queued", "2:Started", "3:Started"), statuses);
+    assertEquals(ImmutableList.of("2:FailedStart", "3:FailedStart"), completions);
+    assertEquals(Long.MAX_VALUE, admissionController.getNextAdmissionMillis());
+  }
+
+  private static boolean submit(
+    final AdmissionController admissionController,
+    final int taskId,
+    final List<String> statuses,
+    final Consumer<RunningTask> completionListener
+  ) {
+    return submit(admissionController, taskId, -1L, statuses, completionListener);
+  }
+
+  private static boolean submit(
+    final AdmissionController admissionController,
+    final int taskId,
+    final long maxDeferMillis,
+    final List<String> statuses,
+    final Consumer<RunningTask> completionListener
+  ) {
+    // The su command does not exist, so the task completes as soon as it is launched
+    final RunningTask runningTask = new RunningTask(
+      taskId, "true", "root", -1L, new SwitchUserTaskExecutor(TaskLaunchStrategy.Su, "/nonexistent/su"), 0L, "", -1, -1, null, Clock.systemUTC(), completionListener
+    );
+
+    return admissionController.submit(runningTask, maxDeferMillis, (taskStatus, timestamp) -> statuses.add(taskId + ":" + taskStatus));
+  }
+
+  private static void awaitSize(final List<String> statuses, final int size) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5000L;
+
+    while (statuses.size() < size && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HelperTaskExecutorTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  // Runs the helper script directly, so neither root nor su are needed
+  private final HelperTaskExecutor helperTaskExecutor = new HelperTaskExecutor(
+    null, System.getProperty("user.name"), ImmutableList.of("/bin/sh", "-c", HelperTaskExecutor.SCRIPT)
+  );
+
+  @Test
+  public void testExitCodes() throws Exception {
+    final RunningTask succeeds = run("true", -1L);
+
+    assertEquals(TaskStatus.Complete, succeeds.getTaskStatus());
+    assertTrue(succeeds.getPid() > 0L);
+
+    final RunningTask fails = run("echo \"quoted 'arg'\" >&2; exit 3", -1L);
+
+    assertEquals(TaskStatus.Error, fails.getTaskStatus());
+    assertEquals(3, fails.getReturnCode());
+  }
+
+  @Test
+  public void testTimeoutKillsCommand() throws Exception {
+    final RunningTask runningTask = run("sleep 30", 200L);
+
+    assertEquals(TaskStatus.Killed, runningTask.getTaskStatus());
+  }
+
+  @Test
+  public void testHelperIsRestarted() throws Exception {
+    // The command's parent is the subshell that reports on it, and the helper is the parent of that
+    assertEquals(TaskStatus.Complete, run("kill -9 $(cut -d \" \" -f 4 /proc/$PPID/stat)", -1L).getTaskStatus());
+
+    assertEquals(TaskStatus.Complete, run("true", -1L).getTaskStatus());
+  }
+
+  @Test
+  public void testStopLetsRunningTasksReport() throws Exception {
+    final CompletableFuture<RunningTask> running = start("sleep 0.3; exit 4", -1L);
+
+    helperTaskExecutor.stop();
+
+    final RunningTask stopped = running.get(5, TimeUnit.SECONDS);
+
+    assertEquals(TaskStatus.Error, stopped.getTaskStatus());
+    assertEquals(4, stopped.getReturnCode());
+
+    assertEquals(TaskStatus.Complete, run("true", -1L).getTaskStatus());
+  }
+
+  @Test
+  public void testStartTimeoutKillsHelperTree() throws Exception {
+    final File pidFile = temporaryFolder.newFile("child.pid");
+
+    // Like a login shell that forks and then hangs before it reads any launch
+    final HelperTaskExecutor hangingExecutor = new HelperTaskExecutor(
+      null, System.getProperty("user.name"), ImmutableList.of("/bin/sh", "-c", "sleep 30 & echo $! > " + pidFile.getAbsolutePath() + "; wait"), 200L
+    );
+
+    final RunningTask runningTask = start("true", -1L, hangingExecutor).get(5, TimeUnit.SECONDS);
+
+    assertEquals(TaskStatus.FailedStart, runningTask.getTaskStatus());
+
+    final long childPid = Long.parseLong(new String(Files.readAllBytes(pidFile.toPath()), StandardCharsets.UTF_8).trim());
+    final long deadline = System.currentTimeMillis() + 5000L;
+
+    while (ProcessHandle.of(childPid).map(ProcessHandle::isAlive).orElse(false) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+
+    assertFalse(ProcessHandle.of(childPid).map(ProcessHandle::isAlive).orElse(false));
+  }
+
+  private RunningTask run(final String commandLine, final long timeoutMillis) throws Exception {
+    return start(commandLine, timeoutMillis).get(5, TimeUnit.SECONDS);
+  }
+
+  private CompletableFuture<RunningTask> start(final String commandLine, final long timeoutMillis) {
+    return start(commandLine, timeoutMillis, helperTaskExecutor);
+  }
+
+  private CompletableFuture<RunningTask> start(final String commandLine, final long timeoutMillis, final HelperTaskExecutor taskExecutor) {
+    final CompletableFuture<RunningTask> completed = new CompletableFuture<>();
+
+    final RunningTask runningTask = new RunningTask(
+      1, commandLine, System.getProperty("user.name"), timeoutMillis,
+      taskExecutor, 0L, "", -1, -1, null, Clock.systemUTC(), completed::complete
+    );
+
+    runningTask.launch(new TaskTimeoutService(10L, 8));
+
+    return completed;
+  }
+}
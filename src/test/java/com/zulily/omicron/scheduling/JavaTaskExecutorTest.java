@@ -0,0 +1,171 @@
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.time.Clock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class JavaTaskExecutorTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testRunnableAndCallable() throws Exception {
+    final RunningTask runnable = run("java:" + Succeeds.class.getName(), -1L);
+
+    assertEquals(TaskStatus.Complete, runnable.getTaskStatus());
+    assertEquals(0, runnable.getReturnCode());
+    assertEquals(-1L, runnable.getPid());
+
+    final RunningTask callable = run("java:" + ExitsWithSeven.class.getName(), -1L);
+
+    assertEquals(TaskStatus.Error, callable.getTaskStatus());
+    assertEquals(7, callable.getReturnCode());
+  }
+
+  @Test
+  public void testFailures() throws Exception {
+    assertEquals(TaskStatus.Error, run("java:" + Throws.class.getName(), -1L).getTaskStatus());
+    assertEquals(TaskStatus.FailedStart, run("java:" + JavaTaskExecutorTest.class.getName(), -1L).getTaskStatus());
+    assertEquals(TaskStatus.FailedStart, run("java:com.example.Missing", -1L).getTaskStatus());
+  }
+
+  @Test
+  public void testTimeoutInterrupts() throws Exception {
+    final RunningTask runningTask = run("java:" + Sleeps.class.getName(), 200L);
+
+    assertEquals(TaskStatus.Killed, runningTask.getTaskStatus());
+    assertEquals(1, runningTask.getReturnCode());
+  }
+
+  @Test
+  public void testReplacedClassLoaderClosedAfterItsTasks() throws Exception {
+    Files.write(temporaryFolder.newFile("marker.txt").toPath(), new byte[0]);
+
+    final CompletableFuture<RunningTask> blocked = start("java:" + Blocks.class.getName(), -1L);
+
+    final ClassLoader firstLoader = Blocks.LOADER.get(5, TimeUnit.SECONDS);
+
+    // A new jar makes the next task load its classes again
+    temporaryFolder.newFile("added.jar");
+
+    assertEquals(TaskStatus.Complete, run("java:" + Succeeds.class.getName(), -1L).getTaskStatus());
+    assertNotNull(firstLoader.getResource("marker.txt"));
+
+    Blocks.RELEASE.countDown();
+
+    assertEquals(TaskStatus.Complete, blocked.get(5, TimeUnit.SECONDS).getTaskStatus());
+    assertNull(firstLoader.getResource("marker.txt"));
+  }
+
+  @Test
+  public void testUnusedExecutorRemoved() throws Exception {
+    Files.write(temporaryFolder.newFile("marker.txt").toPath(), new byte[0]);
+
+    final JavaTaskExecutor removed = JavaTaskExecutor.forClasspath(temporaryFolder.getRoot().toPath());
+
+    assertEquals(TaskStatus.Complete, run("java:" + RecordsLoader.class.getName(), -1L).getTaskStatus());
+
+    final ClassLoader loader = RecordsLoader.LOADER.getAndSet(null);
+
+    assertNotNull(loader.getResource("marker.txt"));
+
+    JavaTaskExecutor.removeUnused(ImmutableSet.of());
+
+    assertNotSame(removed, JavaTaskExecutor.forClasspath(temporaryFolder.getRoot().toPath()));
+    assertNull(loader.getResource("marker.txt"));
+
+    // A task created before the removal still runs, and its classes are closed once it is done
+    assertEquals(TaskStatus.Complete, start("java:" + RecordsLoader.class.getName(), -1L, removed).get(5, TimeUnit.SECONDS).getTaskStatus());
+    assertNull(RecordsLoader.LOADER.get().getResource("marker.txt"));
+  }
+
+  private RunningTask run(final String commandLine, final long timeoutMillis) throws Exception {
+    return start(commandLine, timeoutMillis).get(5, TimeUnit.SECONDS);
+  }
+
+  private CompletableFuture<RunningTask> start(final String commandLine, final long timeoutMillis) {
+    return start(commandLine, timeoutMillis, JavaTaskExecutor.forClasspath(temporaryFolder.getRoot().toPath()));
+  }
+
+  private CompletableFuture<RunningTask> start(final String commandLine, final long timeoutMillis, final JavaTaskExecutor taskExecutor) {
+    final CompletableFuture<RunningTask> completed = new CompletableFuture<>();
+
+    // Task classes are found through the parent class loader, so the classpath directory can stay empty
+    final RunningTask runningTask = new RunningTask(
+      1, commandLine, System.getProperty("user.name"), timeoutMillis,
+      taskExecutor, 0L, "", -1, -1, null, Clock.systemUTC(), completed::complete
+    );
+
+    runningTask.launch(new TaskTimeoutService(10L, 8));
+
+    return completed;
+  }
+
+  public static final class Succeeds implements Runnable {
+    @Override
+    public void run() {
+    }
+  }
+
+  public static final class ExitsWithSeven implements Callable<Integer> {
+    @Override
+    public Integer call() {
+      return 7;
+    }
+  }
+
+  public static final class Throws implements Runnable {
+    @Override
+    public void run() {
+      throw new IllegalStateException("expected");
+    }
+  }
+
+  public static final class Blocks implements Runnable {
+    private static final CompletableFuture<ClassLoader> LOADER = new CompletableFuture<>();
+    private static final CountDownLatch RELEASE = new CountDownLatch(1);
+
+    @Override
+    public void run() {
+      LOADER.complete(Thread.currentThread().getContextClassLoader());
+
+      try {
+        RELEASE.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  public static final class RecordsLoader implements Runnable {
+    private static final AtomicReference<ClassLoader> LOADER = new AtomicReference<>();
+
+    @Override
+    public void run() {
+      LOADER.set(Thread.currentThread().getContextClassLoader());
+    }
+  }
+
+  public static final class Sleeps implements Callable<Integer> {
+    @Override
+    public Integer call() throws InterruptedException {
+      Thread.sleep(30_000L);
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.zulily.omicron.alert.Alert;
+import com.zulily.omicron.alert.AlertManager;
+import com.zulily.omicron.alert.AlertStatus;
+import com.zulily.omicron.conf.Configuration;
+import com.zulily.omicron.crontab.Crontab;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JobManagerTest {
+  private static final long START_MILLIS = TimeUnit.DAYS.toMillis(20_000);
+  private static final String LINE = "0 * * * * root /opt/slow.sh";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testReactivatedJobIsScheduledOnce() throws Exception {
+    final File crontabFile = temporaryFolder.newFile("crontab");
+    final File configFile = temporaryFolder.newFile("omicron.conf");
+
+    Files.write(configFile.toPath(), ImmutableList.of("crontab.path=" + crontabFile.getAbsolutePath()), StandardCharsets.UTF_8);
+
+    final Simulation.SimulatedClock clock = new Simulation.SimulatedClock(new AtomicLong(START_MILLIS), ZoneOffset.UTC);
+    final Configuration configuration = new Configuration(configFile.getAbsolutePath(), clock);
+
+    // Each task runs for 10 minutes
+    final Simulation.SimulatedTaskLauncher taskLauncher = new Simulation.SimulatedTaskLauncher(
+      clock, ImmutableMap.of("/opt/slow.sh", TimeUnit.MINUTES.toMillis(10))
+    );
+
+    final JobManager jobManager = new JobManager(
+      configuration, crontab(crontabFile, configuration, LINE), new AlertManager(configuration, alerts -> { }), mode -> taskLauncher
+    );
+
+    tick(jobManager, taskLauncher, 0);
+    assertEquals(1, jobManager.getLastExecuteCount());
+
+    // Removed while its task runs, then added back
+    jobManager.updateConfiguration(new JobSetUpdate(configuration, crontab(crontabFile, configuration, "# removed")));
+    jobManager.updateConfiguration(new JobSetUpdate(configuration, crontab(crontabFile, configuration, LINE)));
+
+    // The task exits, which used to drop the reactivated job from the job set while it stayed scheduled
+    tick(jobManager, taskLauncher, 11);
+
+    // The next reload then scheduled an equal job next to it
+    jobManager.updateConfiguration(new JobSetUpdate(configuration, crontab(crontabFile, configuration, LINE)));
+
+    tick(jobManager, taskLauncher, 60);
+    assertEquals(1, jobManager.getLastDueCount());
+    assertEquals(1, jobManager.getLastExecuteCount());
+  }
+
+  @Test
+  public void testQueuedRunAlertsPastSla() throws Exception {
+    final File crontabFile = temporaryFolder.newFile("crontab");
+    final File configFile = temporaryFolder.newFile("omicron.conf");
+
+    Files.write(configFile.toPath(), ImmutableList.of(
+      "crontab.path=" + crontabFile.getAbsolutePath(),
+      "task.max.concurrent=1",
+      "sla.minutes.since.success=5"
+    ), StandardCharsets.UTF_8);
+
+    final Simulation.SimulatedClock clock = new Simulation.SimulatedClock(new AtomicLong(START_MILLIS), ZoneOffset.UTC);
+    final Configuration configuration = new Configuration(configFile.getAbsolutePath(), clock);
+
+    // The first line holds the only slot for an hour, so the second waits in the queue
+    final Simulation.SimulatedTaskLauncher taskLauncher = new Simulation.SimulatedTaskLauncher(
+      clock, ImmutableMap.of("/opt/hog.sh", TimeUnit.HOURS.toMillis(1))
+    );
+
+    Files.write(crontabFile.toPath(), ImmutableList.of("0 * * * * root /opt/hog.sh", "1 * * * * root /opt/waits.sh"), StandardCharsets.UTF_8);
+
+    final List<Alert> failures = Lists.newArrayList();
+
+    final JobManager jobManager = new JobManager(
+      configuration,
+      new Crontab(configuration),
+      new AlertManager(configuration, alerts -> alerts.stream().filter(alert -> alert.getAlertStatus() == AlertStatus.Failure).forEach(failures::add)),
+      mode -> taskLauncher
+    );
+
+    for (int minute = 0; minute <= 10; minute++) {
+      tick(jobManager, taskLauncher, minute);
+    }
+
+    final List<Alert> queuedFailures = Lists.newArrayList();
+
+    failures.stream().filter(alert -> alert.getJob().getCrontabExpression().getCommand().equals("/opt/waits.sh")).forEach(queuedFailures::add);
+
+    assertEquals(1, queuedFailures.size());
+    assertTrue(queuedFailures.get(0).getMessage().contains("queued for launch since"));
+  }
+
+  @Test
+  public void testRejectedLaunchDoesNotStrandTask() throws Exception {
+    final File crontabFile = temporaryFolder.newFile("crontab");
+    final File configFile = temporaryFolder.newFile("omicron.conf");
+
+    Files.write(configFile.toPath(), ImmutableList.of("crontab.path=" + crontabFile.getAbsolutePath()), StandardCharsets.UTF_8);
+
+    final Simulation.SimulatedClock clock = new Simulation.SimulatedClock(new AtomicLong(START_MILLIS), ZoneOffset.UTC);
+    final Configuration configuration = new Configuration(configFile.getAbsolutePath(), clock);
+
+    // Like a thread pool launcher after it has been shut down
+    final TaskLauncher taskLauncher = new TaskLauncher() {
+      @Override
+      public void launch(final RunningTask runningTask) {
+        throw new RejectedExecutionException("shut down");
+      }
+
+      @Override
+      public void shutdown() {
+      }
+    };
+
+    final JobManager jobManager = new JobManager(
+      configuration, crontab(crontabFile, configuration, LINE), new AlertManager(configuration, alerts -> { }), mode -> taskLauncher
+    );
+
+    jobManager.run();
+
+    assertEquals(1, jobManager.getLastExecuteCount());
+
+    // The failed task no longer holds the job's only instance
+    clock.setMillis(START_MILLIS + TimeUnit.HOURS.toMillis(1));
+    jobManager.run();
+
+    assertEquals(1, jobManager.getLastExecuteCount());
+  }
+
+  private static Crontab crontab(final File crontabFile, final Configuration configuration, final String line) throws Exception {
+    Files.write(crontabFile.toPath(), ImmutableList.of(line), StandardCharsets.UTF_8);
+
+    return new Crontab(configuration);
+  }
+
+  private static void tick(final JobManager jobManager, final Simulation.SimulatedTaskLauncher taskLauncher, final int minute) {
+    taskLauncher.completeUntil(START_MILLIS + TimeUnit.MINUTES.toMillis(minute), jobManager.getAdmissionController());
+
+    jobManager.run();
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.Lists;
+import com.zulily.omicron.conf.Configuration;
+import com.zulily.omicron.crontab.CrontabExpression;
+import org.junit.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JobSchedulerTest {
+
+  private static final String[] EXPRESSIONS = {
+    "* * * * *",
+    "*/7 */5 * * *",
+    "5,35 */6 1-15 jan,jul mon-fri",
+    "59 23 31 * *",
+    "0 0 * * sun",
+    "0 0 31 2 *"
+  };
+
+  @Test
+  public void testSchedulersAgree() {
+    final Configuration configuration = new Configuration("");
+
+    final List<Job> jobs = Lists.newArrayList();
+
+    // Enough jobs to span several bitset words
+    for (int copy = 0; copy < 30; copy++) {
+      for (int index = 0; index < EXPRESSIONS.length; index++) {
+        final int lineNumber = copy * EXPRESSIONS.length + index + 1;
+        jobs.add(new Job(new CrontabExpression(lineNumber, EXPRESSIONS[index] + " root echo " + lineNumber), "echo " + lineNumber, configuration));
+      }
+    }
+
+    final ZonedDateTime start = ZonedDateTime.of(2015, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    final List<JobScheduler> schedulers = Lists.newArrayList();
+
+    for (SchedulerMode schedulerMode : SchedulerMode.values()) {
+      final JobScheduler jobScheduler = schedulerMode.createScheduler();
+      jobs.forEach(job -> jobScheduler.add(job, start.minusMinutes(1)));
+      schedulers.add(jobScheduler);
+    }
+
+    for (ZonedDateTime tick = start; tick.isBefore(start.plusDays(3)); tick = tick.plusMinutes(1)) {
+
+      // Drop and re-add jobs along the way to exercise removal and ordinal reuse
+      if (tick.getMinute() == 30) {
+        final Job job = jobs.get(tick.getHour() % jobs.size());
+
+        for (JobScheduler jobScheduler : schedulers) {
+          jobScheduler.remove(job);
+          jobScheduler.add(job, tick.minusMinutes(1));
+        }
+      }
+
+      final List<Long> expected = jobIds(schedulers.get(0).dueJobs(tick));
+
+      for (JobScheduler jobScheduler : schedulers.subList(1, schedulers.size())) {
+        assertEquals(tick.toString(), expected, jobIds(jobScheduler.dueJobs(tick)));
+      }
+    }
+  }
+
+  @Test
+  public void testRemove() {
+    final Configuration configuration = new Configuration("");
+    final Job job = new Job(new CrontabExpression(1, "* * * * * root echo"), "echo", configuration);
+    final ZonedDateTime tick = ZonedDateTime.of(2015, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    for (SchedulerMode schedulerMode : SchedulerMode.values()) {
+      final JobScheduler jobScheduler = schedulerMode.createScheduler();
+
+      jobScheduler.add(job, tick.minusMinutes(1));
+      assertEquals(1, jobScheduler.size());
+
+      jobScheduler.remove(job);
+      assertEquals(0, jobScheduler.size());
+      assertTrue(jobScheduler.dueJobs(tick).isEmpty());
+    }
+  }
+
+  private static List<Long> jobIds(final List<Job> jobs) {
+    return jobs.stream().map(Job::getJobId).sorted().collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 zulily, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableMap;
+import com.zulily.omicron.conf.ConfigKey;
+import com.zulily.omicron.conf.Configuration;
+import com.zulily.omicron.crontab.CrontabExpression;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class JobTest {
+
+  @Test
+  public void testEqualityIgnoresConfiguration() {
+    final Configuration configuration = new Configuration("");
+    final Configuration reconfigured = configuration.withOverrides(ImmutableMap.of(ConfigKey.TaskMaxInstanceCount, "5"));
+
+    final CrontabExpression crontabExpression = new CrontabExpression(1, "*/5 * * * * root $HOME/run.sh");
+
+    final Job job = new Job(crontabExpression, "/root/run.sh", configuration);
+
+    // A config change alone maps onto the existing job so its state carries over
+    assertEquals(job, new Job(new CrontabExpression(7, "*/5 * * * * root $HOME/run.sh"), "/root/run.sh", reconfigured));
+    assertEquals(job.hashCode(), new Job(crontabExpression, "/root/run.sh", reconfigured).hashCode());
+
+    // A variable change that alters the command is a new revision
+    assertNotEquals(job, new Job(crontabExpression, "/home/root/run.sh", configuration));
+
+    assertNotEquals(job, new Job(new CrontabExpression(1, "*/10 * * * * root $HOME/run.sh"), "/root/run.sh", configuration));
+  }
+}
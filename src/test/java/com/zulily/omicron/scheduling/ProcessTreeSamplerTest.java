@@ -0,0 +1,52 @@
+package com.zulily.omicron.scheduling;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessTreeSamplerTest {
+
+  @Test
+  public void testParseStatTimes() {
+    // utime 120, stime 30, cutime 5, cstime 2 - and a command name that contains spaces and parentheses
+    final String stat = "4242 (my (odd) cmd) S 1 4242 4242 0 -1 4194560 500 0 0 0 120 30 5 2 20 0 1 0 100 1000000 200";
+
+    assertArrayEquals(new long[]{1_250_000L, 320_000L}, ProcessTreeSampler.parseStatTimes(stat));
+
+    assertNull(ProcessTreeSampler.parseStatTimes("4242 (truncated) S 1"));
+    assertNull(ProcessTreeSampler.parseStatTimes("garbage"));
+  }
+
+  @Test
+  public void testSampleKeepsHighestReading() {
+    final ProcessTreeSampler processTreeSampler = new ProcessTreeSampler();
+
+    processTreeSampler.sample(ProcessHandle.current());
+
+    final ResourceUsage first = processTreeSampler.getUsage();
+
+    assertTrue(first.getCpuMicros() > 0);
+    assertTrue(first.getPeakMemoryBytes() > 0);
+
+    processTreeSampler.sample(ProcessHandle.current());
+
+    assertTrue(processTreeSampler.getUsage().getCpuMicros() >= first.getCpuMicros());
+  }
+
+  @Test
+  public void testResourceUsagePlus() {
+    final ResourceUsage first = new ResourceUsage(1000L, 10L, 20L, 4096L, ResourceUsage.UNKNOWN, 5L);
+    final ResourceUsage second = new ResourceUsage(500L, 1L, 2L, 8192L, 7L, ResourceUsage.UNKNOWN);
+
+    final ResourceUsage total = ResourceUsage.NONE.plus(first).plus(second);
+
+    assertEquals(1500L, total.getWallTimeMillis());
+    assertEquals(33L, total.getCpuMicros());
+    assertEquals(8192L, total.getPeakMemoryBytes());
+    assertEquals(7L, total.getReadBytes());
+    assertEquals(5L, total.getWriteBytes());
+  }
+}
@@ -1,33 +1,71 @@
 package com.zulily.omicron.scheduling;
 
-import com.zulily.omicron.Utils;
 import org.junit.Test;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class RunningTaskTest {
 
   @Test
-  public void testProcFSWorks() throws IOException {
-    Set<Long> allPids = RunningTask.recursivelyFindAllChildren(getProcFsSelfPid());
+  public void testKillProcessTree() throws Exception {
+    final Process process = startAndWaitForChildren("sleep 30 & sleep 30 & wait");
 
-    assertTrue(allPids.size() > 0);
+    final List<Long> pids = RunningTask.killProcessTree(process.toHandle(), 0L, new TaskTimeoutService(10L, 8));
 
-    allPids
-      .forEach(pid -> assertTrue(pid > -1));
+    assertEquals(3, pids.size());
+    assertEquals(process.pid(), (long) pids.get(0));
+
+    assertTrue(process.waitFor(5, TimeUnit.SECONDS));
+    assertTrue(allExited(pids));
+  }
+
+  @Test
+  public void testKillProcessTreeEscalates() throws Exception {
+    // SIG_IGN survives exec, so neither the shell nor sleep exit on SIGTERM
+    final Process process = startAndWaitForChildren("trap '' TERM; sleep 30 & wait");
+
+    final TaskTimeoutService timeoutService = new TaskTimeoutService(10L, 8);
+
+    final List<Long> pids = RunningTask.killProcessTree(process.toHandle(), 500L, timeoutService);
+
+    assertEquals(2, pids.size());
+    assertFalse(process.waitFor(100, TimeUnit.MILLISECONDS));
+
+    assertTrue(process.waitFor(5, TimeUnit.SECONDS));
+    assertTrue(allExited(pids));
   }
 
-  private static long getProcFsSelfPid() {
-    try {
-      String procFsPid = new File("/proc/self").getCanonicalFile().getName();
-      return Utils.isNullOrEmpty(procFsPid) ? -1 : Long.parseLong(procFsPid);
+  // Orphaned children are reaped by init, so they can briefly outlive the shell
+  private static boolean allExited(final List<Long> pids) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 5000L;
 
-    } catch (IOException e) {
-      return -1;
+    while (pids.stream().anyMatch(pid -> ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false))) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+
+      Thread.sleep(10L);
+    }
+
+    return true;
+  }
+
+  private static Process startAndWaitForChildren(final String script) throws IOException, InterruptedException {
+    final Process process = new ProcessBuilder("sh", "-c", script).start();
+
+    final long expectedChildren = script.split("&").length - 1;
+    final long deadline = System.currentTimeMillis() + 5000L;
+
+    while (process.toHandle().descendants().count() < expectedChildren && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
     }
+
+    return process;
   }
 }
@@ -0,0 +1,67 @@
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableList;
+import com.zulily.omicron.crontab.CrontabExpression;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ScheduleForecastTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testForecast() {
+    final CrontabExpression hourlyLong = new CrontabExpression(1, "0 * * * * root /opt/a.sh");
+    final CrontabExpression hourlyUnknown = new CrontabExpression(2, "0 * * * * root /opt/b.sh");
+    final CrontabExpression daily = new CrontabExpression(3, "30 12 * * * root /opt/c.sh");
+
+    final ScheduleForecast scheduleForecast = new ScheduleForecast(
+      ImmutableList.of(
+        new ScheduleForecast.Line(hourlyLong, 90 * 60 * 1000L),
+        new ScheduleForecast.Line(hourlyUnknown, -1L),
+        new ScheduleForecast.Line(daily, 30 * 1000L)
+      ),
+      ZonedDateTime.of(2026, 1, 5, 0, 0, 0, 0, ZoneOffset.UTC),
+      1
+    );
+
+    assertEquals(24 + 24 + 1, scheduleForecast.getTotalLaunches());
+    assertEquals(2, scheduleForecast.getPeakLaunches());
+
+    // Each 90 minute run of the first line is still going when the next one starts
+    assertEquals(3, scheduleForecast.getPeakConcurrency());
+
+    assertEquals(ImmutableList.of(hourlyLong, hourlyUnknown), scheduleForecast.getCollidingLines());
+    assertFalse(scheduleForecast.report().isEmpty());
+  }
+
+  @Test
+  public void testReadDurations() throws Exception {
+    final Path logFile = temporaryFolder.newFile("omicron.log").toPath();
+
+    Files.write(logFile, ImmutableList.of(
+      "[Mon Jan 05 00:00:00 UTC 2026] INFO: PID 1 -> STARTED: /opt/a.sh",
+      "[Mon Jan 05 00:00:10 UTC 2026] INFO: PID 1 -> TERMINATED: /opt/a.sh [duration of 0 minutes, wall 10.0s, user cpu 0.10s] ",
+      "[Mon Jan 05 01:00:20 UTC 2026] INFO: PID 2 -> TERMINATED: /opt/a.sh [duration of 0 minutes, wall 20.0s] ",
+      "[Mon Jan 05 01:02:00 UTC 2026] INFO: PID 3 -> TERMINATED: /opt/b.sh [x] [duration of 2 minutes] "
+    ), StandardCharsets.UTF_8);
+
+    final Map<String, Long> durations = ScheduleForecast.readDurations(logFile);
+
+    assertEquals(2, durations.size());
+    assertEquals(15000L, durations.get("/opt/a.sh").longValue());
+    assertEquals(120000L, durations.get("/opt/b.sh [x]").longValue());
+  }
+}
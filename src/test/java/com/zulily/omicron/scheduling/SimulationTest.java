@@ -0,0 +1,43 @@
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SimulationTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testSimulate() throws Exception {
+    final File crontabFile = temporaryFolder.newFile("crontab");
+    final File configFile = temporaryFolder.newFile("omicron.conf");
+
+    Files.write(crontabFile.toPath(), ImmutableList.of(
+      "* * * * * root /opt/slow.sh",
+      "0 * * * * root /opt/hourly.sh"
+    ), StandardCharsets.UTF_8);
+
+    Files.write(configFile.toPath(), ImmutableList.of(
+      "crontab.path=" + crontabFile.getAbsolutePath()
+    ), StandardCharsets.UTF_8);
+
+    // Each 90 second run of the first line is still going a minute later, so every other launch is skipped
+    final Simulation simulation = Simulation.simulate(configFile.getAbsolutePath(), 1, ImmutableMap.of("/opt/slow.sh", 90_000L));
+
+    assertEquals(720 + 24, simulation.getLaunches());
+    assertEquals(720, simulation.getSkips());
+    assertEquals(0, simulation.getFailureAlerts());
+    assertFalse(simulation.report().isEmpty());
+  }
+}
@@ -0,0 +1,48 @@
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SwitchUserTaskExecutorTest {
+
+  @Test
+  public void testCommands() throws Exception {
+    assertEquals(
+      ImmutableList.of("/usr/bin/su", "-", "root", "-c", "echo hi"),
+      new SwitchUserTaskExecutor(TaskLaunchStrategy.Su, "/usr/bin/su").command("root", "echo hi")
+    );
+
+    assertEquals(
+      ImmutableList.of("/usr/bin/su", "-s", "/bin/sh", "root", "-c", "echo hi"),
+      new SwitchUserTaskExecutor(TaskLaunchStrategy.SuNoLogin, "/usr/bin/su").command("root", "echo hi")
+    );
+
+    assertEquals(
+      ImmutableList.of("/usr/sbin/runuser", "-u", "root", "--", "/bin/sh", "-c", "echo hi"),
+      new SwitchUserTaskExecutor(TaskLaunchStrategy.Runuser, "/usr/sbin/runuser").command("root", "echo hi")
+    );
+  }
+
+  @Test
+  public void testDirectSkipsShellWithoutMetacharacters() throws Exception {
+    final SwitchUserTaskExecutor direct = new SwitchUserTaskExecutor(TaskLaunchStrategy.Direct, "/usr/bin/setpriv");
+    final ImmutableList<String> setpriv = ImmutableList.of("/usr/bin/setpriv", "--reuid=root", "--regid=0", "--init-groups", "--reset-env", "--");
+
+    assertEquals(
+      ImmutableList.builder().addAll(setpriv).add("/opt/report.sh", "--daily", "-v").build(),
+      direct.command("root", " /opt/report.sh  --daily -v")
+    );
+
+    assertEquals(
+      ImmutableList.builder().addAll(setpriv).add("/bin/sh", "-c", "/opt/report.sh > /tmp/out").build(),
+      direct.command("root", "/opt/report.sh > /tmp/out")
+    );
+
+    assertEquals(
+      ImmutableList.builder().addAll(setpriv).add("/bin/sh", "-c", "LANG=C sort x").build(),
+      direct.command("root", "LANG=C sort x")
+    );
+  }
+}
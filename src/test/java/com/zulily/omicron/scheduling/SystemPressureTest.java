@@ -0,0 +1,53 @@
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SystemPressureTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testParsePressure() {
+    final ImmutableList<String> memory = ImmutableList.of(
+      "some avg10=12.50 avg60=3.00 avg300=1.00 total=123456",
+      "full avg10=40.00 avg60=2.00 avg300=0.50 total=65432"
+    );
+
+    assertEquals(12.5, SystemPressure.parsePressure(memory), 0.0);
+    assertEquals(SystemPressure.UNKNOWN, SystemPressure.parsePressure(ImmutableList.of("full avg10=40.00")), 0.0);
+  }
+
+  @Test
+  public void testReadAndExceeds() throws Exception {
+    final Path proc = temporaryFolder.getRoot().toPath();
+
+    Files.createDirectories(proc.resolve("pressure"));
+    Files.write(proc.resolve("pressure").resolve("cpu"), "some avg10=55.10 avg60=20.00 avg300=5.00 total=1\n".getBytes(StandardCharsets.US_ASCII));
+    Files.write(proc.resolve("loadavg"), "8.25 4.00 2.00 3/400 12345\n".getBytes(StandardCharsets.US_ASCII));
+
+    final SystemPressure systemPressure = SystemPressure.read(proc);
+
+    assertEquals(55.1, systemPressure.getCpuPressure(), 0.0);
+    assertEquals(SystemPressure.UNKNOWN, systemPressure.getMemoryPressure(), 0.0);
+    assertEquals(8.25, systemPressure.getLoadAverage(), 0.0);
+
+    assertTrue(systemPressure.exceeds(50, -1, -1));
+    assertTrue(systemPressure.exceeds(-1, -1, 8));
+    assertFalse(systemPressure.exceeds(60, -1, 10));
+
+    // An unreadable value never counts as exceeded
+    assertFalse(systemPressure.exceeds(-1, 0, -1));
+  }
+}
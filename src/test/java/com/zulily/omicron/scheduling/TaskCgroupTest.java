@@ -0,0 +1,35 @@
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TaskCgroupTest {
+
+  @Test
+  public void testSumFlatStat() {
+    final ImmutableList<String> cpuStat = ImmutableList.of(
+      "usage_usec 1500000",
+      "user_usec 1200000",
+      "system_usec 300000",
+      "nr_periods 0"
+    );
+
+    assertEquals(1200000L, TaskCgroup.sumField(cpuStat, "user_usec"));
+    assertEquals(300000L, TaskCgroup.sumField(cpuStat, "system_usec"));
+    assertEquals(ResourceUsage.UNKNOWN, TaskCgroup.sumField(cpuStat, "nr_throttled"));
+  }
+
+  @Test
+  public void testSumPerDeviceStat() {
+    final ImmutableList<String> ioStat = ImmutableList.of(
+      "8:0 rbytes=4096 wbytes=1024 rios=1 wios=1 dbytes=0 dios=0",
+      "253:1 rbytes=8192 wbytes=0 rios=2 wios=0 dbytes=0 dios=0"
+    );
+
+    assertEquals(12288L, TaskCgroup.sumField(ioStat, "rbytes"));
+    assertEquals(1024L, TaskCgroup.sumField(ioStat, "wbytes"));
+    assertEquals(ResourceUsage.UNKNOWN, TaskCgroup.sumField(ImmutableList.of(), "rbytes"));
+  }
+}
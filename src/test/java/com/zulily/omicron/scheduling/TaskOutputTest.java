@@ -0,0 +1,76 @@
+package com.zulily.omicron.scheduling;
+
+import com.google.common.base.Strings;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TaskOutputTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testTaskWritesToFile() throws Exception {
+    final Path file = temporaryFolder.getRoot().toPath().resolve("tasks").resolve("root-1.log");
+
+    final TaskOutput taskOutput = new TaskOutput(file, 1024L, 2);
+
+    final Process process = new ProcessBuilder("sh", "-c", "echo out; echo err >&2")
+      .redirectErrorStream(true)
+      .redirectOutput(taskOutput.open("==== header"))
+      .start();
+
+    assertEquals(0, process.waitFor());
+
+    taskOutput.taskFinished();
+
+    assertEquals("==== header\nout\nerr\n", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    assertEquals("==== header\nout\nerr\n", taskOutput.getLastTail());
+  }
+
+  @Test
+  public void testRotation() throws Exception {
+    final Path file = temporaryFolder.getRoot().toPath().resolve("root-1.log");
+
+    final TaskOutput taskOutput = new TaskOutput(file, 100L, 2);
+
+    for (final String run : new String[]{"a", "b", "c", "d"}) {
+      taskOutput.open("==== " + run);
+      Files.write(file, Strings.repeat(run, 100).getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    // Every run filled the file, so each one rotated the run before it - the oldest fell off the end
+    assertTrue(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).startsWith("==== d\n"));
+    assertTrue(new String(Files.readAllBytes(backup(file, 1)), StandardCharsets.UTF_8).startsWith("==== c\n"));
+    assertTrue(new String(Files.readAllBytes(backup(file, 2)), StandardCharsets.UTF_8).startsWith("==== b\n"));
+    assertFalse(Files.exists(backup(file, 3)));
+  }
+
+  @Test
+  public void testTailStartsAtLineBoundary() throws Exception {
+    final Path file = temporaryFolder.getRoot().toPath().resolve("root-1.log");
+
+    final TaskOutput taskOutput = new TaskOutput(file, -1L, 0);
+
+    taskOutput.open("==== header");
+    Files.write(file, (Strings.repeat("x", TaskOutput.TAIL_BYTES) + "\nlast line\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    taskOutput.taskFinished();
+
+    assertEquals("last line\n", taskOutput.getLastTail());
+  }
+
+  private static Path backup(final Path file, final int index) {
+    return file.resolveSibling(file.getFileName() + "." + index);
+  }
+}
@@ -0,0 +1,78 @@
+package com.zulily.omicron.scheduling;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TaskTimeoutServiceTest {
+
+  @Test
+  public void testTimeoutsFireInDeadlineOrder() throws InterruptedException {
+    // 8 buckets of 10ms - anything past 80ms has to wait out extra rounds
+    final TaskTimeoutService taskTimeoutService = new TaskTimeoutService(10L, 8);
+
+    final List<String> fired = new CopyOnWriteArrayList<>();
+    final CountDownLatch latch = new CountDownLatch(4);
+
+    final long start = System.nanoTime();
+
+    taskTimeoutService.schedule(250L, () -> {
+      assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250L);
+      fired.add("250");
+      latch.countDown();
+    });
+
+    taskTimeoutService.schedule(95L, () -> {
+      fired.add("95");
+      latch.countDown();
+    });
+
+    taskTimeoutService.schedule(0L, () -> {
+      fired.add("0");
+      latch.countDown();
+    });
+
+    taskTimeoutService.schedule(30L, () -> {
+      fired.add("30");
+      latch.countDown();
+    });
+
+    taskTimeoutService.schedule(60L, () -> fired.add("cancelled")).cancel();
+
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+    // Give the cancelled timeout's bucket another chance to come around
+    Thread.sleep(100L);
+
+    assertEquals(ImmutableList.of("0", "30", "95", "250"), ImmutableList.copyOf(fired));
+  }
+
+  @Test
+  public void testBlockingActionDoesNotHoldUpTheWheel() throws InterruptedException {
+    final TaskTimeoutService taskTimeoutService = new TaskTimeoutService(10L, 8);
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch fired = new CountDownLatch(1);
+
+    taskTimeoutService.schedule(0L, () -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    taskTimeoutService.schedule(50L, fired::countDown);
+
+    assertTrue(fired.await(1, TimeUnit.SECONDS));
+
+    release.countDown();
+  }
+}
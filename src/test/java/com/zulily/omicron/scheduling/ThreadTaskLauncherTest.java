@@ -0,0 +1,61 @@
+package com.zulily.omicron.scheduling;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.time.Clock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ThreadTaskLauncherTest {
+
+  @Test
+  public void testVirtualModeStartsTasksOnVirtualThreads() throws Exception {
+    final ThreadTaskLauncher launcher = new ThreadTaskLauncher(TaskExecutionMode.Virtual, new TaskTimeoutService(10L, 8));
+
+    // Thread.isVirtual() only exists from Java 21, like virtual threads themselves
+    final Method isVirtual = isVirtualMethod();
+
+    assertEquals(isVirtual != null ? TaskExecutionMode.Virtual : TaskExecutionMode.Platform, launcher.getTaskExecutionMode());
+
+    final CompletableFuture<Thread> startingThread = new CompletableFuture<>();
+    final CompletableFuture<RunningTask> completed = new CompletableFuture<>();
+
+    final TaskExecutor taskExecutor = runningTask -> {
+      startingThread.complete(Thread.currentThread());
+
+      return new ProcessBuilder("sh", "-c", "exit 3").start();
+    };
+
+    launcher.launch(new RunningTask(
+      1, "exit 3", System.getProperty("user.name"), -1L, taskExecutor, 0L, "", -1, -1, null, Clock.systemUTC(), completed::complete
+    ));
+
+    final RunningTask runningTask = completed.get(5, TimeUnit.SECONDS);
+
+    assertEquals(TaskStatus.Error, runningTask.getTaskStatus());
+    assertEquals(3, runningTask.getReturnCode());
+
+    final Thread thread = startingThread.get(5, TimeUnit.SECONDS);
+
+    // Before Java 21 the launcher falls back to its platform pool
+    if (isVirtual != null) {
+      assertTrue((Boolean) isVirtual.invoke(thread));
+    } else {
+      assertTrue(thread.getName().startsWith("omicron-task-launcher-"));
+    }
+
+    launcher.shutdown();
+  }
+
+  private static Method isVirtualMethod() {
+    try {
+      return Thread.class.getMethod("isVirtual");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+}